@@ -0,0 +1,67 @@
+package wit.pap.multidraw.benchmarks;
+
+import wit.pap.multidraw.shared.AlphaMode;
+import wit.pap.multidraw.shared.BgraImage;
+import wit.pap.multidraw.shared.globals.Globals;
+
+import java.util.SplittableRandom;
+
+// Canvases that look like what the server receives: nothing drawn, a few brush strokes, or noise
+public enum CanvasKind {
+    EMPTY, STROKES, NOISE;
+
+    private static final int STROKES_PER_CANVAS = 12;
+    private static final int SEGMENTS_PER_STROKE = 24;
+    private static final int BRUSH_RADIUS = 6;
+
+    public BgraImage create(AlphaMode mode, long seed) {
+        BgraImage image = BgraImage.createTransparent(Globals.IMAGE_WIDTH, Globals.IMAGE_HEIGHT, AlphaMode.STRAIGHT);
+        SplittableRandom random = new SplittableRandom(seed);
+
+        switch (this) {
+            case EMPTY -> {}
+            case STROKES -> drawStrokes(image, random);
+            case NOISE -> random.nextBytes(image.getImageArr());
+        }
+
+        return image.toAlphaMode(mode);
+    }
+
+    private static void drawStrokes(BgraImage image, SplittableRandom random) {
+        for (int stroke = 0; stroke < STROKES_PER_CANVAS; ++stroke) {
+            byte b = (byte) random.nextInt(256), g = (byte) random.nextInt(256), r = (byte) random.nextInt(256);
+            byte a = (byte) (random.nextInt(4) == 0 ? 128 : Globals.MAX_PIXEL);
+
+            int x = random.nextInt(image.getWidth()), y = random.nextInt(image.getHeight());
+            for (int segment = 0; segment < SEGMENTS_PER_STROKE; ++segment) {
+                int nx = clamp(x + random.nextInt(-40, 41), image.getWidth());
+                int ny = clamp(y + random.nextInt(-40, 41), image.getHeight());
+
+                int steps = Math.max(Math.abs(nx - x), Math.abs(ny - y));
+                for (int step = 0; step <= steps; ++step) {
+                    int cx = steps == 0 ? x : x + (nx - x) * step / steps;
+                    int cy = steps == 0 ? y : y + (ny - y) * step / steps;
+                    stamp(image, cx, cy, b, g, r, a);
+                }
+
+                x = nx;
+                y = ny;
+            }
+        }
+    }
+
+    private static void stamp(BgraImage image, int cx, int cy, byte b, byte g, byte r, byte a) {
+        for (int dy = -BRUSH_RADIUS; dy <= BRUSH_RADIUS; ++dy) {
+            for (int dx = -BRUSH_RADIUS; dx <= BRUSH_RADIUS; ++dx) {
+                int x = cx + dx, y = cy + dy;
+                if (dx * dx + dy * dy <= BRUSH_RADIUS * BRUSH_RADIUS
+                        && x >= 0 && y >= 0 && x < image.getWidth() && y < image.getHeight())
+                    image.setBGRA(x, y, b, g, r, a);
+            }
+        }
+    }
+
+    private static int clamp(int value, int bound) {
+        return Math.max(0, Math.min(value, bound - 1));
+    }
+}
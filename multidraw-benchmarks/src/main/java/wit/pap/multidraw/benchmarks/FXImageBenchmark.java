@@ -0,0 +1,56 @@
+package wit.pap.multidraw.benchmarks;
+
+import javafx.application.Platform;
+import javafx.scene.image.WritableImage;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import wit.pap.multidraw.shared.AlphaMode;
+import wit.pap.multidraw.shared.BgraImage;
+
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx2g", "-Djava.awt.headless=true"})
+public class FXImageBenchmark {
+    @Param({"EMPTY", "STROKES", "NOISE"})
+    private CanvasKind canvas;
+
+    @Param({"PREMULTIPLIED", "STRAIGHT"})
+    private AlphaMode alphaMode;
+
+    private BgraImage image;
+    private WritableImage fxImage;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        try {
+            Platform.startup(() -> {});
+        } catch (IllegalStateException ignored) {
+            // The toolkit is already running
+        }
+
+        image = canvas.create(alphaMode, 0);
+        fxImage = image.toWritableImage();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        Platform.exit();
+    }
+
+    @Benchmark
+    public void fromFXImage(Blackhole blackhole) {
+        BgraImage result = BgraImage.fromFXImage(fxImage, alphaMode);
+        blackhole.consume(result);
+        result.recycle();
+    }
+
+    @Benchmark
+    public WritableImage toWritableImage() {
+        return image.toWritableImage();
+    }
+}
@@ -0,0 +1,50 @@
+package wit.pap.multidraw.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import wit.pap.multidraw.shared.BgraImage;
+import wit.pap.multidraw.shared.ImageCodec;
+import wit.pap.multidraw.shared.compression.CompressionCodec;
+import wit.pap.multidraw.shared.compression.CompressionCodecs;
+import wit.pap.multidraw.shared.globals.Globals;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class ImageCodecBenchmark {
+    @Param({"EMPTY", "STROKES", "NOISE"})
+    private CanvasKind canvas;
+
+    @Param({"raw", "rle", "lz", "deflate-1", "deflate-6"})
+    private String codecName;
+
+    private BgraImage image;
+    private CompressionCodec codec;
+    private byte[] encoded;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        codec = CompressionCodecs.byName(codecName)
+                .orElseThrow(() -> new IllegalArgumentException("Unknown codec " + codecName));
+        image = canvas.create(Globals.CANVAS_ALPHA_MODE, 0);
+        encoded = ImageCodec.encode(image, codec);
+    }
+
+    @Benchmark
+    public byte[] encode() throws IOException {
+        return ImageCodec.encode(image, codec);
+    }
+
+    @Benchmark
+    public void decode(Blackhole blackhole) throws IOException {
+        BgraImage result = ImageCodec.decode(encoded);
+        blackhole.consume(result);
+        result.recycle();
+    }
+}
@@ -0,0 +1,98 @@
+package wit.pap.multidraw.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import wit.pap.multidraw.server.MiddlegroundComposer;
+import wit.pap.multidraw.shared.BgraImage;
+import wit.pap.multidraw.shared.ImageCodec;
+import wit.pap.multidraw.shared.SparseBgraImage;
+import wit.pap.multidraw.shared.compression.AdaptiveCodecSelector;
+import wit.pap.multidraw.shared.globals.Globals;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// One round of Room.prepareMiddleGrounds: a middleground per user, composited from everybody else's layer
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx4g", "--add-modules=jdk.incubator.vector"})
+public class MiddlegroundBenchmark {
+    @Param({"2", "4", "8", "16", "32"})
+    private int userCount;
+
+    @Param({"STROKES", "NOISE"})
+    private CanvasKind canvas;
+
+    private List<SparseBgraImage> layers;
+    private MiddlegroundComposer composer;
+    private AdaptiveCodecSelector codecSelector;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        layers = new ArrayList<>();
+        for (int idx = 0; idx < userCount; ++idx) {
+            BgraImage layer = canvas.create(Globals.CANVAS_ALPHA_MODE, idx);
+            layers.add(SparseBgraImage.fromDense(layer));
+            layer.recycle();
+        }
+
+        composer = new MiddlegroundComposer(Globals.IMAGE_WIDTH, Globals.IMAGE_HEIGHT, Globals.CANVAS_ALPHA_MODE);
+        composer.setLayers(layers);
+        codecSelector = AdaptiveCodecSelector.fromSystemProperties();
+    }
+
+    // No layer changed since the last round, every cached node is reused
+    @Benchmark
+    public void compose(Blackhole blackhole) {
+        composeAll(blackhole);
+    }
+
+    // One user drew something, only the nodes above their layer are recomputed
+    @Benchmark
+    public void composeAfterOneChange(Blackhole blackhole) {
+        composer.markChanged(0);
+        composeAll(blackhole);
+    }
+
+    // The whole tree is rebuilt, as it was on every join and leave before those became incremental
+    @Benchmark
+    public void rebuildAndCompose(Blackhole blackhole) {
+        composer.setLayers(layers);
+        composeAll(blackhole);
+    }
+
+    // The bottom user left and came back on top, only the paths of the two leaves are recomputed
+    @Benchmark
+    public void leaveJoinAndCompose(Blackhole blackhole) {
+        SparseBgraImage layer = composer.getLayers().get(0);
+        composer.removeLayer(layer);
+        composer.addLayer(layer);
+        composeAll(blackhole);
+    }
+
+    @Benchmark
+    public void composeAndEncode(Blackhole blackhole) throws IOException {
+        composer.markChanged(0);
+        for (int user = 0; user < userCount; ++user) {
+            BgraImage middleGround = composer.composeExcluding(user);
+            try {
+                blackhole.consume(ImageCodec.encode(middleGround, codecSelector));
+            } finally {
+                middleGround.recycle();
+            }
+        }
+    }
+
+    private void composeAll(Blackhole blackhole) {
+        for (int user = 0; user < userCount; ++user) {
+            BgraImage middleGround = composer.composeExcluding(user);
+            blackhole.consume(middleGround);
+            middleGround.recycle();
+        }
+    }
+}
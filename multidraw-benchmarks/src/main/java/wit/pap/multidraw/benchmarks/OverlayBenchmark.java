@@ -0,0 +1,48 @@
+package wit.pap.multidraw.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import wit.pap.multidraw.shared.AlphaMode;
+import wit.pap.multidraw.shared.BgraImage;
+
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xmx4g", "--add-modules=jdk.incubator.vector"})
+public class OverlayBenchmark {
+    @Param({"2", "4", "8", "16", "32", "64"})
+    private int layerCount;
+
+    @Param({"STROKES", "NOISE"})
+    private CanvasKind canvas;
+
+    @Param({"PREMULTIPLIED", "STRAIGHT"})
+    private AlphaMode alphaMode;
+
+    private BgraImage[] layers;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        layers = new BgraImage[layerCount];
+        for (int idx = 0; idx < layerCount; ++idx)
+            layers[idx] = canvas.create(alphaMode, idx);
+    }
+
+    @Benchmark
+    public void overlay(Blackhole blackhole) {
+        BgraImage result = BgraImage.overlay(layers[0], layers[1]);
+        blackhole.consume(result);
+        result.recycle();
+    }
+
+    @Benchmark
+    public void overlayAll(Blackhole blackhole) {
+        BgraImage result = BgraImage.overlayAll(layers);
+        blackhole.consume(result);
+        result.recycle();
+    }
+}
@@ -0,0 +1,40 @@
+package wit.pap.multidraw.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import wit.pap.multidraw.shared.BgraImage;
+import wit.pap.multidraw.shared.Utilities;
+import wit.pap.multidraw.shared.globals.Globals;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+// Java serialization followed by GZIP, the format images were sent in before ImageCodec
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class SerializationBenchmark {
+    @Param({"EMPTY", "STROKES", "NOISE"})
+    private CanvasKind canvas;
+
+    private BgraImage image;
+    private byte[] compressed;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        image = canvas.create(Globals.CANVAS_ALPHA_MODE, 0);
+        compressed = Utilities.serializeAndCompress(image);
+    }
+
+    @Benchmark
+    public byte[] serializeAndCompress() throws IOException {
+        return Utilities.serializeAndCompress(image);
+    }
+
+    @Benchmark
+    public Object decompressAndDeserialize() throws IOException, ClassNotFoundException {
+        return Utilities.decompressAndDeserialize(compressed);
+    }
+}
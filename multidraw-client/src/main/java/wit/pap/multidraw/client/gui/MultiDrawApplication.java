@@ -57,6 +57,7 @@ public class MultiDrawApplication extends Application {
     private LayeredImageStack imageStack;
     private Canvas canvas;
     private ImageView bgImageView, mgImageView;
+    private WritableImage snapshotImage;
 
     TCPHandler tcpHandler;
 
@@ -291,16 +292,19 @@ public class MultiDrawApplication extends Application {
     public void snapshotCanvas() {
         if (canvas == null) return;
 
-        WritableImage img = new WritableImage((int) canvas.getWidth(), (int) canvas.getHeight());
+        int width = (int) canvas.getWidth(), height = (int) canvas.getHeight();
+        if (snapshotImage == null || (int) snapshotImage.getWidth() != width || (int) snapshotImage.getHeight() != height)
+            snapshotImage = new WritableImage(width, height);
+
         SnapshotParameters snapshotParameters = new SnapshotParameters();
         snapshotParameters.setFill(Color.TRANSPARENT);
         final TCPHandler finalTcpHandler = tcpHandler;
 
         canvas.snapshot(snapshotResult -> {
-            BgraImage image = BgraImage.fromFXImage(snapshotResult.getImage());
+            BgraImage image = BgraImage.fromFXImage(snapshotResult.getImage(), Globals.CANVAS_ALPHA_MODE);
             finalTcpHandler.setImage(image);
             return null;
-        }, snapshotParameters, img);
+        }, snapshotParameters, snapshotImage);
     }
 
     public void savePNG() {
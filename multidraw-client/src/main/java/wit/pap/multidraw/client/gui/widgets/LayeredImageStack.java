@@ -90,7 +90,7 @@ public class LayeredImageStack extends StackPane {
 
         BgraImage bg = getLayeredImage().getBackground(),
                 mg = getLayeredImage().getMiddleground(),
-                fg = BgraImage.fromFXImage(writableImage);
+                fg = BgraImage.fromFXImage(writableImage, Globals.CANVAS_ALPHA_MODE);
         BgraImage result = BgraImage.overlayAll(bg, mg, fg);
 
         if (result != null) {
@@ -129,8 +129,13 @@ public class LayeredImageStack extends StackPane {
     }
 
     public void setMgImage(BgraImage image) {
+        BgraImage previous = layeredImage.getMiddleground();
         layeredImage.setMiddleground(image);
         draw();
+
+        // draw() has copied the pixels into JavaFX, nothing else holds the previous middleground
+        if (previous != null && previous != image)
+            previous.recycle();
     }
 
     public void setBgImage(BgraImage image) {
@@ -1,18 +1,22 @@
 package wit.pap.multidraw.client.utils;
 
 import wit.pap.multidraw.shared.BgraImage;
-import wit.pap.multidraw.shared.Utilities;
+import wit.pap.multidraw.shared.ImageCodec;
+import wit.pap.multidraw.shared.ImagePatch;
+import wit.pap.multidraw.shared.SparseBgraImage;
 import wit.pap.multidraw.shared.communication.ClientCommands;
 import wit.pap.multidraw.shared.communication.ClientMessage;
-import wit.pap.multidraw.shared.communication.Message;
+import wit.pap.multidraw.shared.communication.Frame;
+import wit.pap.multidraw.shared.communication.FrameInputStream;
+import wit.pap.multidraw.shared.communication.Frames;
 import wit.pap.multidraw.shared.communication.ServerMessage;
+import wit.pap.multidraw.shared.compression.AdaptiveCodecSelector;
 import wit.pap.multidraw.shared.globals.Globals;
 
 import java.io.*;
 import java.net.InetAddress;
 import java.net.Socket;
 import java.net.SocketException;
-import java.net.SocketTimeoutException;
 import java.time.Duration;
 import java.time.Instant;
 import java.util.Queue;
@@ -21,9 +25,11 @@ import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.Consumer;
 
 public class TCPHandler extends Thread {
+    private static final int STREAM_BUFFER_LENGTH = 64 * 1024;
+
     private Socket socket;
-    private final ObjectOutputStream outputStream;
-    private final ObjectInputStream inputStream;
+    private final OutputStream outputStream;
+    private final FrameInputStream inputStream;
 
     private final Queue<ClientMessage> messagesToSend;
     private final Queue<ServerMessage> messagesToHandle;
@@ -39,6 +45,8 @@ public class TCPHandler extends Thread {
 
     private Instant lastImageSync;
     private BgraImage image;
+    private BgraImage lastSentImage;
+    private final AdaptiveCodecSelector codecSelector;
 
     public TCPHandler(String serverAddress, int serverPort) throws IOException {
         this(InetAddress.getByName(serverAddress), serverPort);
@@ -47,15 +55,15 @@ public class TCPHandler extends Thread {
     public TCPHandler(InetAddress serverAddress, int serverPort) throws IOException {
         this.isConnectionDead = new AtomicBoolean(false);
 
-        ObjectOutputStream tempOut = null;
-        ObjectInputStream tempIn = null;
+        OutputStream tempOut = null;
+        FrameInputStream tempIn = null;
 
         try {
             this.socket = new Socket(serverAddress, serverPort);
             this.socket.setSoTimeout(400);
-            tempOut = new ObjectOutputStream(new BufferedOutputStream(socket.getOutputStream()));
-            tempOut.flush();
-            tempIn = new ObjectInputStream(new BufferedInputStream(socket.getInputStream()));
+            this.socket.setTcpNoDelay(true);
+            tempOut = new BufferedOutputStream(socket.getOutputStream(), STREAM_BUFFER_LENGTH);
+            tempIn = new FrameInputStream(new BufferedInputStream(socket.getInputStream(), STREAM_BUFFER_LENGTH));
         } catch (SocketException ex) {
             markConnectionAsDead();
             cbShowError.accept(ex.getMessage());
@@ -69,7 +77,8 @@ public class TCPHandler extends Thread {
         this.running = new AtomicBoolean(false);
 
         this.lastImageSync = Instant.now();
-        this.image = BgraImage.createTransparent(Globals.IMAGE_WIDTH, Globals.IMAGE_HEIGHT);
+        this.codecSelector = AdaptiveCodecSelector.fromSystemProperties();
+        this.image = BgraImage.createTransparent(Globals.IMAGE_WIDTH, Globals.IMAGE_HEIGHT, Globals.CANVAS_ALPHA_MODE);
     }
 
     @Override
@@ -110,7 +119,7 @@ public class TCPHandler extends Thread {
         }
     }
 
-    private void sendMessage(Message message) throws IOException {
+    private void sendMessage(ClientMessage message) throws IOException {
         synchronized (isConnectionDead) {
             if (isConnectionDead.get())
                 return;
@@ -118,7 +127,7 @@ public class TCPHandler extends Thread {
 
         synchronized (outputStream) {
             try {
-                outputStream.writeObject(message);
+                Frames.write(outputStream, message);
                 outputStream.flush();
             } catch (SocketException e) {
                 if (cbShowError != null)
@@ -133,7 +142,7 @@ public class TCPHandler extends Thread {
             if (messagesToSend.isEmpty()) return;
 
             while (!messagesToSend.isEmpty()) {
-                Message msg = messagesToSend.poll();
+                ClientMessage msg = messagesToSend.poll();
                 try {
                     sendMessage(msg);
                 } catch (IOException e) {
@@ -151,13 +160,12 @@ public class TCPHandler extends Thread {
 
         synchronized (inputStream) {
             try {
-                return (ServerMessage) this.inputStream.readObject();
+                Frame frame = this.inputStream.readFrame();
+                return frame == null ? null : Frames.toServerMessage(frame);
             } catch (SocketException e) {
                 this.running.set(false);
                 if (cbShowMessage != null) cbShowMessage.accept(e.getMessage());
-            } catch (SocketTimeoutException ignored) {
-
-            } catch (IOException | ClassNotFoundException e) {
+            } catch (IOException e) {
                 markConnectionAsDead();
                 if (cbShowError != null) cbShowError.accept(e.getMessage());
             }
@@ -215,13 +223,10 @@ public class TCPHandler extends Thread {
         cbGetCanvasImage.run();
         synchronized (image) {
             try {
-                byte[] imgBytes = Utilities.serializeAndCompress(image);
-                ClientMessage imgMessage = new ClientMessage(
-                        ClientCommands.SEND_IMAGE,
-                        imgBytes
-                );
+                ClientMessage imgMessage = prepareImageMessage();
+                if (imgMessage != null)
+                    queueMessage(imgMessage);
 
-                queueMessage(imgMessage);
                 lastImageSync = Instant.now();
             } catch (IOException e) {
                 throw new RuntimeException(e);
@@ -230,6 +235,31 @@ public class TCPHandler extends Thread {
 
     }
 
+    private ClientMessage prepareImageMessage() throws IOException {
+        // The connection is ordered and reliable, so whatever has been queued is what the server will hold
+        if (lastSentImage == null
+                || lastSentImage.getWidth() != image.getWidth()
+                || lastSentImage.getHeight() != image.getHeight()) {
+            if (lastSentImage != null)
+                lastSentImage.recycle();
+            lastSentImage = image;
+            byte[] imageBytes = ImageCodec.encodeSparse(SparseBgraImage.fromDense(image), codecSelector);
+            return new ClientMessage(ClientCommands.SEND_IMAGE, imageBytes);
+        }
+
+        if (lastSentImage == image)
+            return null;
+
+        ImagePatch patch = ImagePatch.diff(lastSentImage, image);
+        lastSentImage.recycle();
+        lastSentImage = image;
+
+        if (patch.isEmpty())
+            return null;
+
+        return new ClientMessage(ClientCommands.SEND_IMAGE_TILES, ImageCodec.encodePatch(patch, codecSelector));
+    }
+
     public synchronized void stopHandler() {
         markConnectionAsDead();
         try {
@@ -286,11 +316,12 @@ public class TCPHandler extends Thread {
     private void handleSendMiddleGround(ServerMessage message) {
         byte[] imgBytes = message.getPayload();
         try {
-            BgraImage img = (BgraImage) Utilities.decompressAndDeserialize(imgBytes);
+            BgraImage img = ImageCodec.decode(imgBytes);
+            img.toAlphaMode(Globals.CANVAS_ALPHA_MODE);
             if (cbSetMiddleGround != null) {
                 cbSetMiddleGround.accept(img);
             }
-        } catch (IOException | ClassNotFoundException e) {
+        } catch (IOException e) {
             markConnectionAsDead();
         }
     }
@@ -320,7 +351,12 @@ public class TCPHandler extends Thread {
 
     public void setImage(BgraImage image) {
         synchronized (this.image) {
+            BgraImage previous = this.image;
             this.image = image;
+
+            // A snapshot that was never uploaded is not referenced anywhere else
+            if (previous != lastSentImage && previous != image)
+                previous.recycle();
         }
     }
 
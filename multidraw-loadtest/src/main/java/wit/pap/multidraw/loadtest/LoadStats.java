@@ -0,0 +1,104 @@
+package wit.pap.multidraw.loadtest;
+
+import wit.pap.multidraw.server.metrics.Histogram;
+
+import java.util.concurrent.atomic.LongAdder;
+
+// Everything the simulated users measure, shared by all of them
+public class LoadStats {
+    private final Histogram handshakeDuration, freshness;
+    private final LongAdder connected, rejected, failed, dropped;
+    private final LongAdder strokesSent, strokeBytesSent;
+    private final LongAdder middlegroundsReceived, middlegroundBytesReceived;
+
+    public LoadStats() {
+        this.handshakeDuration = Histogram.forLatency();
+        this.freshness = Histogram.forLatency();
+        this.connected = new LongAdder();
+        this.rejected = new LongAdder();
+        this.failed = new LongAdder();
+        this.dropped = new LongAdder();
+        this.strokesSent = new LongAdder();
+        this.strokeBytesSent = new LongAdder();
+        this.middlegroundsReceived = new LongAdder();
+        this.middlegroundBytesReceived = new LongAdder();
+    }
+
+    // Methods ---------------------------------------------------------------------------------------------------------
+
+    public void recordHandshake(long nanos) {
+        handshakeDuration.observeNanos(nanos);
+        connected.increment();
+    }
+
+    public void recordRejected() {
+        rejected.increment();
+    }
+
+    // Could not connect or never got an answer to the handshake
+    public void recordFailed() {
+        failed.increment();
+    }
+
+    // Lost the connection after joining, before the test was over
+    public void recordDropped() {
+        dropped.increment();
+    }
+
+    public void recordStroke(int bytes) {
+        strokesSent.increment();
+        strokeBytesSent.add(bytes);
+    }
+
+    public void recordMiddleground(int bytes) {
+        middlegroundsReceived.increment();
+        middlegroundBytesReceived.add(bytes);
+    }
+
+    // From sending a stroke to seeing it in somebody else's middleground
+    public void recordFreshness(long nanos) {
+        freshness.observeNanos(nanos);
+    }
+
+    // Getters & Setters -----------------------------------------------------------------------------------------------
+
+    public Histogram getHandshakeDuration() {
+        return handshakeDuration;
+    }
+
+    public Histogram getFreshness() {
+        return freshness;
+    }
+
+    public long getConnected() {
+        return connected.sum();
+    }
+
+    public long getRejected() {
+        return rejected.sum();
+    }
+
+    public long getFailed() {
+        return failed.sum();
+    }
+
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    public long getStrokesSent() {
+        return strokesSent.sum();
+    }
+
+    public long getStrokeBytesSent() {
+        return strokeBytesSent.sum();
+    }
+
+    public long getMiddlegroundsReceived() {
+        return middlegroundsReceived.sum();
+    }
+
+    public long getMiddlegroundBytesReceived() {
+        return middlegroundBytesReceived.sum();
+    }
+}
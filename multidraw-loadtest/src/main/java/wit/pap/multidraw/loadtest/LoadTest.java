@@ -0,0 +1,98 @@
+package wit.pap.multidraw.loadtest;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+// Starts the simulated users over the ramp-up, lets them draw for the configured duration and writes the report.
+// Every user runs on virtual threads, so thousands of them fit in one JVM.
+public class LoadTest {
+    private static final Logger log = LogManager.getLogger(LoadTest.class.getName());
+    private static final long PROGRESS_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(5);
+    // How long stragglers get to hang up once the run is over
+    private static final long SHUTDOWN_GRACE_MILLIS = 10_000;
+
+    public static void main(String[] args) throws InterruptedException {
+        LoadTestConfig config = LoadTestConfig.parse(args);
+        LoadStats stats = new LoadStats();
+        ServerMetricsScraper scraper = new ServerMetricsScraper(config.metricsUrl());
+
+        Map<String, Double> serverBefore = scraper.scrape();
+        long start = System.nanoTime();
+        long end = start + TimeUnit.SECONDS.toNanos(config.rampUpSeconds() + config.durationSeconds());
+
+        SimulatedUser[][] roster = new SimulatedUser[config.rooms()][config.usersPerRoom()];
+        List<SimulatedUser> users = new ArrayList<>(config.users());
+        for (int id = 0; id < config.users(); ++id) {
+            int slot = id / config.rooms();
+            SimulatedUser user = new SimulatedUser(config, stats, id, isObserver(config, slot), roster, end);
+            roster[user.getRoomIndex()][slot] = user;
+            users.add(user);
+        }
+
+        System.out.println(String.format(Locale.ROOT, "Starting %d users in %d rooms against %s:%d",
+                config.users(), config.rooms(), config.host(), config.port()));
+
+        // Joins are spread evenly over the ramp-up
+        long startInterval = TimeUnit.SECONDS.toNanos(config.rampUpSeconds()) / config.users();
+        long nextProgress = start + PROGRESS_INTERVAL_NANOS;
+        List<Thread> threads = new ArrayList<>(users.size());
+        for (int idx = 0; idx < users.size(); ++idx) {
+            long wait = start + idx * startInterval - System.nanoTime();
+            if (wait > 0)
+                TimeUnit.NANOSECONDS.sleep(wait);
+
+            SimulatedUser user = users.get(idx);
+            threads.add(Thread.ofVirtual().name("load-user-" + user.getId()).start(user));
+
+            if (System.nanoTime() >= nextProgress) {
+                printProgress(stats, start);
+                nextProgress += PROGRESS_INTERVAL_NANOS;
+            }
+        }
+
+        while (System.nanoTime() < end) {
+            TimeUnit.NANOSECONDS.sleep(Math.min(end - System.nanoTime(), Math.max(0, nextProgress - System.nanoTime())));
+            if (System.nanoTime() >= nextProgress) {
+                printProgress(stats, start);
+                nextProgress += PROGRESS_INTERVAL_NANOS;
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+
+        long graceEnd = System.currentTimeMillis() + SHUTDOWN_GRACE_MILLIS;
+        for (Thread thread : threads)
+            thread.join(Math.max(1, graceEnd - System.currentTimeMillis()));
+
+        Map<String, Double> serverAfter = scraper.scrape();
+        String report = LoadTestReport.render(config, stats, elapsed, serverBefore, serverAfter);
+        System.out.print(report);
+
+        try {
+            Files.writeString(config.reportPath(), report);
+            System.out.println("Report written to " + config.reportPath().toAbsolutePath());
+        } catch (IOException e) {
+            log.error(e);
+        }
+    }
+
+    // The first users of every room observe, so each room gets its share of the observers
+    static boolean isObserver(LoadTestConfig config, int slot) {
+        if (config.observerFraction() <= 0)
+            return false;
+        return slot < Math.max(1, (int) Math.ceil(config.usersPerRoom() * config.observerFraction()));
+    }
+
+    private static void printProgress(LoadStats stats, long start) {
+        System.out.println(String.format(Locale.ROOT, "[%4.0f s] joined %d, strokes %d, middlegrounds %d, dropped %d",
+                (System.nanoTime() - start) / 1e9, stats.getConnected(), stats.getStrokesSent(),
+                stats.getMiddlegroundsReceived(), stats.getDropped()));
+    }
+}
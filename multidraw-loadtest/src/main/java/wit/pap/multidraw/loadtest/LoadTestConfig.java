@@ -0,0 +1,84 @@
+package wit.pap.multidraw.loadtest;
+
+import wit.pap.multidraw.shared.globals.Globals;
+
+import java.nio.file.Path;
+
+// What to throw at the server. Users are spread over the rooms round-robin.
+public record LoadTestConfig(
+        String host,
+        int port,
+        int users,
+        int rooms,
+        double strokesPerSecond,
+        int durationSeconds,
+        int rampUpSeconds,
+        double observerFraction,
+        String metricsUrl,
+        Path reportPath
+) {
+    public LoadTestConfig {
+        if (users <= 0 || rooms <= 0)
+            throw new IllegalArgumentException("User and room counts need to be positive!");
+        if (rooms > users)
+            throw new IllegalArgumentException("There cannot be more rooms than users!");
+        // Every user of a room owns one marker pixel in the top row of the canvas
+        if (Math.ceilDiv(users, rooms) > Globals.IMAGE_WIDTH)
+            throw new IllegalArgumentException("Too many users per room!");
+        if (strokesPerSecond < 0)
+            throw new IllegalArgumentException("Stroke rate cannot be negative!");
+        if (durationSeconds <= 0 || rampUpSeconds < 0)
+            throw new IllegalArgumentException("Durations cannot be negative!");
+        if (observerFraction < 0 || observerFraction > 1)
+            throw new IllegalArgumentException("Observer fraction needs to be between 0 and 1!");
+    }
+
+    // Methods ---------------------------------------------------------------------------------------------------------
+
+    public static LoadTestConfig parse(String[] args) {
+        String host = "localhost";
+        int port = 12345;
+        int users = 100, rooms = 10;
+        double strokesPerSecond = 2;
+        int durationSeconds = 60, rampUpSeconds = 10;
+        double observerFraction = 0.1;
+        String metricsUrl = "http://localhost:9464/metrics";
+        Path reportPath = Path.of("loadtest-report.txt");
+
+        for (String arg : args) {
+            if (arg.startsWith("--host="))
+                host = arg.substring("--host=".length());
+            else if (arg.startsWith("--port="))
+                port = Integer.parseInt(arg.substring("--port=".length()));
+            else if (arg.startsWith("--users="))
+                users = Integer.parseInt(arg.substring("--users=".length()));
+            else if (arg.startsWith("--rooms="))
+                rooms = Integer.parseInt(arg.substring("--rooms=".length()));
+            else if (arg.startsWith("--strokes-per-second="))
+                strokesPerSecond = Double.parseDouble(arg.substring("--strokes-per-second=".length()));
+            else if (arg.startsWith("--duration="))
+                durationSeconds = Integer.parseInt(arg.substring("--duration=".length()));
+            else if (arg.startsWith("--ramp-up="))
+                rampUpSeconds = Integer.parseInt(arg.substring("--ramp-up=".length()));
+            else if (arg.startsWith("--observers="))
+                observerFraction = Double.parseDouble(arg.substring("--observers=".length()));
+            else if (arg.startsWith("--metrics-url="))
+                metricsUrl = arg.substring("--metrics-url=".length());
+            else if (arg.startsWith("--report="))
+                reportPath = Path.of(arg.substring("--report=".length()));
+            else
+                throw new IllegalArgumentException("Unknown option \"" + arg + "\"!");
+        }
+
+        return new LoadTestConfig(host, port, users, rooms, strokesPerSecond, durationSeconds, rampUpSeconds,
+                observerFraction, metricsUrl, reportPath);
+    }
+
+    public int usersPerRoom() {
+        return Math.ceilDiv(users, rooms);
+    }
+
+    public String roomName(int roomIndex) {
+        return "load-" + roomIndex;
+    }
+}
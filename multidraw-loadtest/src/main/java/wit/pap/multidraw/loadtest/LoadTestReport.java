@@ -0,0 +1,132 @@
+package wit.pap.multidraw.loadtest;
+
+import wit.pap.multidraw.server.metrics.Histogram;
+
+import java.util.Locale;
+import java.util.Map;
+
+// Plain-text summary of a run, meant for both the console and a file kept next to the results of other runs
+public class LoadTestReport {
+    private static final double[] PERCENTILES = { 0.5, 0.95, 0.99 };
+
+    private LoadTestReport() { }
+
+    // Methods ---------------------------------------------------------------------------------------------------------
+
+    public static String render(LoadTestConfig config, LoadStats stats, long elapsedNanos,
+                                Map<String, Double> serverBefore, Map<String, Double> serverAfter) {
+        double seconds = elapsedNanos / 1e9;
+        StringBuilder sb = new StringBuilder();
+
+        sb.append("MultiDraw load test\n");
+        line(sb, "Target", config.host() + ":" + config.port());
+        line(sb, "Users", String.format(Locale.ROOT, "%d in %d rooms, %d observing",
+                config.users(), config.rooms(), countObservers(config)));
+        line(sb, "Stroke rate", format(config.strokesPerSecond()) + " per user per second");
+        line(sb, "Run time", String.format(Locale.ROOT, "%.1f s (%d s ramp-up, %d s load)",
+                seconds, config.rampUpSeconds(), config.durationSeconds()));
+
+        sb.append("\nConnections\n");
+        line(sb, "Joined", stats.getConnected() + " / " + config.users());
+        line(sb, "Rejected", String.valueOf(stats.getRejected()));
+        line(sb, "Failed", String.valueOf(stats.getFailed()));
+        line(sb, "Dropped", String.valueOf(stats.getDropped()));
+        latency(sb, "Handshake", stats.getHandshakeDuration());
+
+        sb.append("\nTraffic\n");
+        line(sb, "Strokes sent", String.format(Locale.ROOT, "%d (%s/s, %s/s)", stats.getStrokesSent(),
+                format(stats.getStrokesSent() / seconds), bytes(stats.getStrokeBytesSent() / seconds)));
+        line(sb, "Middlegrounds", String.format(Locale.ROOT, "%d (%s/s, %s/s)", stats.getMiddlegroundsReceived(),
+                format(stats.getMiddlegroundsReceived() / seconds), bytes(stats.getMiddlegroundBytesReceived() / seconds)));
+        line(sb, "Per user", format(stats.getConnected() == 0 ? 0
+                : stats.getMiddlegroundsReceived() / (double) stats.getConnected() / seconds) + " middlegrounds/s");
+
+        sb.append("\nFreshness (stroke sent to stroke seen by another user)\n");
+        latency(sb, "Freshness", stats.getFreshness());
+
+        sb.append("\nServer\n");
+        if (serverBefore.isEmpty() || serverAfter.isEmpty()) {
+            sb.append("  metrics endpoint not available\n");
+        } else {
+            serverRate(sb, "Messages in", "multidraw_received_messages_total", serverBefore, serverAfter, seconds);
+            serverRate(sb, "Messages out", "multidraw_sent_messages_total", serverBefore, serverAfter, seconds);
+            double bytesOut = delta("multidraw_sent_bytes_total", serverBefore, serverAfter);
+            line(sb, "Bytes out", bytes(bytesOut / seconds) + "/s");
+            line(sb, "Handshake timeouts",
+                    format(delta("multidraw_handshake_timeouts_total", serverBefore, serverAfter)));
+            line(sb, "Dead user removals",
+                    format(delta("multidraw_dead_user_removals_total", serverBefore, serverAfter)));
+        }
+
+        return sb.toString();
+    }
+
+    public static int countObservers(LoadTestConfig config) {
+        int observers = 0;
+        for (int id = 0; id < config.users(); ++id) {
+            if (LoadTest.isObserver(config, id / config.rooms()))
+                ++observers;
+        }
+        return observers;
+    }
+
+    private static void latency(StringBuilder sb, String name, Histogram histogram) {
+        if (histogram.getCount() == 0) {
+            line(sb, name, "no samples");
+            return;
+        }
+
+        StringBuilder value = new StringBuilder()
+                .append(histogram.getCount()).append(" samples, mean ").append(millis(histogram.getMean()));
+        for (double percentile : PERCENTILES)
+            value.append(", p").append((int) Math.round(percentile * 100)).append(" <= ")
+                    .append(millis(percentile(histogram, percentile)));
+        value.append(", max ").append(millis(histogram.getMax()));
+
+        line(sb, name, value.toString());
+    }
+
+    // Upper bound of the bucket the percentile falls into, or the maximum when that is the +Inf bucket
+    private static double percentile(Histogram histogram, double percentile) {
+        double[] bounds = histogram.getBounds();
+        long[] counts = histogram.getBucketCounts();
+        long target = (long) Math.ceil(percentile * histogram.getCount());
+
+        long cumulative = 0;
+        for (int idx = 0; idx < bounds.length; ++idx) {
+            cumulative += counts[idx];
+            if (cumulative >= target)
+                return Math.min(bounds[idx], histogram.getMax());
+        }
+        return histogram.getMax();
+    }
+
+    private static void serverRate(StringBuilder sb, String label, String metric,
+                                   Map<String, Double> before, Map<String, Double> after, double seconds) {
+        line(sb, label, format(delta(metric, before, after) / seconds) + "/s");
+    }
+
+    private static double delta(String metric, Map<String, Double> before, Map<String, Double> after) {
+        return after.getOrDefault(metric, 0.0) - before.getOrDefault(metric, 0.0);
+    }
+
+    private static void line(StringBuilder sb, String name, String value) {
+        sb.append(String.format(Locale.ROOT, "  %-20s %s%n", name, value));
+    }
+
+    private static String millis(double seconds) {
+        return String.format(Locale.ROOT, "%.1f ms", seconds * 1000);
+    }
+
+    private static String format(double value) {
+        return String.format(Locale.ROOT, "%.1f", value);
+    }
+
+    private static String bytes(double bytes) {
+        if (bytes >= 1024 * 1024)
+            return String.format(Locale.ROOT, "%.2f MiB", bytes / (1024 * 1024));
+        if (bytes >= 1024)
+            return String.format(Locale.ROOT, "%.1f KiB", bytes / 1024);
+        return String.format(Locale.ROOT, "%.0f B", bytes);
+    }
+}
@@ -0,0 +1,72 @@
+package wit.pap.multidraw.loadtest;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+
+// Reads the server's Prometheus endpoint, so that the report can show what the server itself did during the run
+public class ServerMetricsScraper {
+    private static final Logger log = LogManager.getLogger(ServerMetricsScraper.class.getName());
+    private static final Duration TIMEOUT = Duration.ofSeconds(5);
+
+    private final String url;
+    private final HttpClient client;
+
+    public ServerMetricsScraper(String url) {
+        this.url = url;
+        this.client = url.isEmpty() ? null : HttpClient.newBuilder().connectTimeout(TIMEOUT).build();
+    }
+
+    // Methods ---------------------------------------------------------------------------------------------------------
+
+    // Every sample summed up per metric name, labels dropped; empty when the endpoint cannot be read
+    public Map<String, Double> scrape() {
+        Map<String, Double> totals = new HashMap<>();
+        if (client == null)
+            return totals;
+
+        try {
+            HttpRequest request = HttpRequest.newBuilder(URI.create(url)).timeout(TIMEOUT).GET().build();
+            HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+            if (response.statusCode() != 200) {
+                log.warn(new StringBuilder("Metrics endpoint ").append(url).append(" answered ")
+                        .append(response.statusCode()));
+                return totals;
+            }
+
+            for (String line : response.body().split("\n")) {
+                if (line.isEmpty() || line.startsWith("#"))
+                    continue;
+
+                int nameEnd = line.indexOf('{');
+                int valueStart = line.lastIndexOf(' ');
+                if (valueStart < 0)
+                    continue;
+                if (nameEnd < 0 || nameEnd > valueStart)
+                    nameEnd = valueStart;
+
+                try {
+                    totals.merge(line.substring(0, nameEnd), Double.parseDouble(line.substring(valueStart + 1)),
+                            Double::sum);
+                } catch (NumberFormatException e) {
+                    // NaN and friends are fine to skip
+                }
+            }
+        } catch (IOException | IllegalArgumentException e) {
+            log.warn(new StringBuilder("Could not read server metrics from ").append(url).append(": ")
+                    .append(e.getMessage()));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        return totals;
+    }
+}
@@ -0,0 +1,237 @@
+package wit.pap.multidraw.loadtest;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import wit.pap.multidraw.shared.BgraImage;
+import wit.pap.multidraw.shared.ImageCodec;
+import wit.pap.multidraw.shared.communication.ClientCommands;
+import wit.pap.multidraw.shared.communication.ClientMessage;
+import wit.pap.multidraw.shared.communication.Frame;
+import wit.pap.multidraw.shared.communication.FrameInputStream;
+import wit.pap.multidraw.shared.communication.Frames;
+import wit.pap.multidraw.shared.communication.ServerMessage;
+import wit.pap.multidraw.shared.globals.Globals;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.SplittableRandom;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// One headless client speaking the same protocol as the desktop TCPHandler: a handshake, then a stroke patch
+// every so often, while its own virtual thread reads whatever the server sends back.
+//
+// Observers also decode their middlegrounds and read the marker pixels of the other users of their room,
+// which tells them the newest stroke of each user they can see and so how long it took to show up.
+public class SimulatedUser implements Runnable {
+    private static final Logger log = LogManager.getLogger(SimulatedUser.class.getName());
+    private static final int STREAM_BUFFER_LENGTH = 64 * 1024;
+    private static final int CONNECT_TIMEOUT_MILLIS = 5000;
+    // Strokes whose send time is remembered; anything older is too stale to be seen for the first time
+    private static final int SENT_HISTORY = 1024;
+
+    private final LoadTestConfig config;
+    private final LoadStats stats;
+    private final int id, roomIndex, slot;
+    private final boolean observer;
+    // Every user by room and slot, for observers to look up the send times of what they see
+    private final SimulatedUser[][] roster;
+    private final long endNanos;
+
+    private final StrokeGenerator strokes;
+    private final AtomicLongArray sentAt;
+    private volatile int sequence;
+    private volatile boolean finished;
+
+    public SimulatedUser(LoadTestConfig config, LoadStats stats, int id, boolean observer,
+                         SimulatedUser[][] roster, long endNanos) {
+        this.config = config;
+        this.stats = stats;
+        this.id = id;
+        this.roomIndex = id % config.rooms();
+        this.slot = id / config.rooms();
+        this.observer = observer;
+        this.roster = roster;
+        this.endNanos = endNanos;
+        this.strokes = new StrokeGenerator(new SplittableRandom(id), slot);
+        this.sentAt = new AtomicLongArray(SENT_HISTORY);
+        this.sequence = 0;
+        this.finished = false;
+    }
+
+    // Methods ---------------------------------------------------------------------------------------------------------
+
+    @Override
+    public void run() {
+        long connectStart = System.nanoTime();
+        boolean joined = false;
+
+        try (Socket socket = new Socket()) {
+            socket.connect(new InetSocketAddress(config.host(), config.port()), CONNECT_TIMEOUT_MILLIS);
+            socket.setTcpNoDelay(true);
+            socket.setSoTimeout(Globals.HANDSHAKE_TIMEOUT_SECONDS * 1000);
+
+            OutputStream out = new BufferedOutputStream(socket.getOutputStream(), STREAM_BUFFER_LENGTH);
+            FrameInputStream in = new FrameInputStream(new BufferedInputStream(socket.getInputStream(), STREAM_BUFFER_LENGTH));
+
+            send(out, ClientCommands.SET_NICKNAME, ("load-user-" + id).getBytes(StandardCharsets.UTF_8));
+            send(out, ClientCommands.JOIN_CREATE_ROOM, config.roomName(roomIndex).getBytes(StandardCharsets.UTF_8));
+
+            if (!awaitAcceptance(in))
+                return;
+            joined = true;
+            stats.recordHandshake(System.nanoTime() - connectStart);
+            socket.setSoTimeout(0);
+
+            Thread reader = Thread.ofVirtual().name("load-user-" + id + "-reader").start(() -> readLoop(in));
+            drawUntilDone(out);
+
+            finished = true;
+            send(out, ClientCommands.DISCONNECT, new byte[0]);
+            socket.close();
+            reader.join();
+        } catch (IOException e) {
+            log.debug(e);
+            // Once joined, the reader sees the same broken connection and counts it as dropped
+            if (!joined)
+                stats.recordFailed();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // False when the server said no or did not answer in time
+    private boolean awaitAcceptance(FrameInputStream in) throws IOException {
+        while (true) {
+            Frame frame = in.readFrame();
+            if (frame == null) {
+                stats.recordFailed();
+                return false;
+            }
+
+            switch (Frames.toServerMessage(frame).getServerCommand()) {
+                case ACCEPT_INT0_ROOM -> {
+                    return true;
+                }
+                case REJECT_FROM_ROOM -> {
+                    stats.recordRejected();
+                    return false;
+                }
+                default -> {}
+            }
+        }
+    }
+
+    private void drawUntilDone(OutputStream out) throws IOException, InterruptedException {
+        if (config.strokesPerSecond() <= 0) {
+            Thread.sleep(Math.max(0, (endNanos - System.nanoTime()) / 1_000_000));
+            return;
+        }
+
+        long interval = (long) (1e9 / config.strokesPerSecond());
+        // Spread the users over the interval, so that they do not all draw at the same instant
+        long next = System.nanoTime() + new SplittableRandom(id).nextLong(interval);
+
+        while (next < endNanos && !finished) {
+            long wait = next - System.nanoTime();
+            if (wait > 0)
+                Thread.sleep(wait / 1_000_000, (int) (wait % 1_000_000));
+
+            int stroke = ++sequence;
+            byte[] patch = ImageCodec.encodePatch(strokes.next(stroke));
+            sentAt.set(stroke % SENT_HISTORY, System.nanoTime());
+            send(out, ClientCommands.SEND_IMAGE_TILES, patch);
+            stats.recordStroke(patch.length + Frames.HEADER_LENGTH);
+
+            next += interval;
+        }
+    }
+
+    private void readLoop(FrameInputStream in) {
+        int[] lastSeen = new int[roster[roomIndex].length];
+
+        try {
+            while (!finished) {
+                Frame frame = in.readFrame();
+                if (frame == null)
+                    continue;
+
+                ServerMessage message = Frames.toServerMessage(frame);
+                switch (message.getServerCommand()) {
+                    case SEND_MIDDLEGROUND -> {
+                        stats.recordMiddleground(message.getPayload().length + Frames.HEADER_LENGTH);
+                        if (observer)
+                            observe(message.getPayload(), lastSeen);
+                    }
+                    default -> {}
+                }
+            }
+        } catch (IOException e) {
+            if (!finished) {
+                log.debug(e);
+                stats.recordDropped();
+                finished = true;
+            }
+        }
+    }
+
+    private void observe(byte[] middleground, int[] lastSeen) throws IOException {
+        long receivedAt = System.nanoTime();
+        BgraImage image = ImageCodec.decode(middleground);
+
+        try {
+            byte[] pixels = image.getImageArr();
+            SimulatedUser[] roommates = roster[roomIndex];
+
+            for (int other = 0; other < roommates.length; ++other) {
+                if (other == slot || roommates[other] == null)
+                    continue;
+
+                int seen = StrokeGenerator.readMarker(pixels, other);
+                if (seen <= 0 || seen == lastSeen[other])
+                    continue;
+                lastSeen[other] = seen;
+
+                long sent = roommates[other].sentAtOf(seen);
+                if (sent != 0)
+                    stats.recordFreshness(receivedAt - sent);
+            }
+        } finally {
+            image.recycle();
+        }
+    }
+
+    // 0 when the stroke is too old to still be remembered
+    private long sentAtOf(int stroke) {
+        if (sequence - stroke >= SENT_HISTORY)
+            return 0;
+        return sentAt.get(stroke % SENT_HISTORY);
+    }
+
+    private static void send(OutputStream out, ClientCommands command, byte[] payload) throws IOException {
+        Frames.write(out, new ClientMessage(command, payload));
+        out.flush();
+    }
+
+    // Getters & Setters -----------------------------------------------------------------------------------------------
+
+    public int getId() {
+        return id;
+    }
+
+    public int getRoomIndex() {
+        return roomIndex;
+    }
+
+    public int getSlot() {
+        return slot;
+    }
+
+    public boolean isObserver() {
+        return observer;
+    }
+}
@@ -0,0 +1,70 @@
+package wit.pap.multidraw.loadtest;
+
+import wit.pap.multidraw.shared.ImagePatch;
+import wit.pap.multidraw.shared.SparseBgraImage;
+import wit.pap.multidraw.shared.globals.Globals;
+
+import java.util.random.RandomGenerator;
+
+// Synthetic brush strokes: a random walk of round dabs, about what a quick freehand line looks like.
+// Every patch also carries the user's marker pixel, so observers can tell which stroke they are looking at.
+public class StrokeGenerator {
+    private static final int STROKE_POINTS = 24;
+    private static final int MAX_STEP = 12;
+    private static final int BRUSH_RADIUS = 3;
+    // Strokes stay clear of the marker row
+    private static final int MARGIN = 8;
+
+    private final RandomGenerator random;
+    private final int markerX;
+
+    public StrokeGenerator(RandomGenerator random, int markerX) {
+        this.random = random;
+        this.markerX = markerX;
+    }
+
+    // Methods ---------------------------------------------------------------------------------------------------------
+
+    // The tiles of one stroke, painted over transparent tiles so that a long run does not grow the user's memory;
+    // the server keeps whatever the patch does not touch
+    public ImagePatch next(int sequence) {
+        SparseBgraImage tiles = new SparseBgraImage(Globals.IMAGE_WIDTH, Globals.IMAGE_HEIGHT, Globals.CANVAS_ALPHA_MODE);
+
+        byte b = (byte) random.nextInt(256), g = (byte) random.nextInt(256), r = (byte) random.nextInt(256);
+        int x = random.nextInt(MARGIN, Globals.IMAGE_WIDTH - MARGIN);
+        int y = random.nextInt(MARGIN, Globals.IMAGE_HEIGHT - MARGIN);
+
+        for (int point = 0; point < STROKE_POINTS; ++point) {
+            dab(tiles, x, y, b, g, r);
+            x = Math.clamp(x + random.nextInt(-MAX_STEP, MAX_STEP + 1), MARGIN, Globals.IMAGE_WIDTH - MARGIN - 1);
+            y = Math.clamp(y + random.nextInt(-MAX_STEP, MAX_STEP + 1), MARGIN, Globals.IMAGE_HEIGHT - MARGIN - 1);
+        }
+
+        writeMarker(tiles, markerX, sequence);
+        return tiles.toPatch();
+    }
+
+    // Opaque, so premultiplying leaves the colour, and with it the sequence number, as it is
+    public static void writeMarker(SparseBgraImage image, int x, int sequence) {
+        image.setBGRA(x, 0, (byte) sequence, (byte) (sequence >>> 8), (byte) (sequence >>> 16),
+                (byte) Globals.MAX_PIXEL);
+    }
+
+    // The sequence in the marker at x of a decoded middleground, -1 when nobody has drawn it yet
+    public static int readMarker(byte[] pixels, int x) {
+        int idx = x * Globals.BGRA_CHANNELS;
+        if ((pixels[idx + 3] & 0xFF) != Globals.MAX_PIXEL)
+            return -1;
+
+        return (pixels[idx] & 0xFF) | (pixels[idx + 1] & 0xFF) << 8 | (pixels[idx + 2] & 0xFF) << 16;
+    }
+
+    private static void dab(SparseBgraImage image, int cx, int cy, byte b, byte g, byte r) {
+        for (int dy = -BRUSH_RADIUS; dy <= BRUSH_RADIUS; ++dy) {
+            for (int dx = -BRUSH_RADIUS; dx <= BRUSH_RADIUS; ++dx) {
+                if (dx * dx + dy * dy <= BRUSH_RADIUS * BRUSH_RADIUS)
+                    image.setBGRA(cx + dx, cy + dy, b, g, r, (byte) Globals.MAX_PIXEL);
+            }
+        }
+    }
+}
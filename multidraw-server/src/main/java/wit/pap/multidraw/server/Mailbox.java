@@ -0,0 +1,43 @@
+package wit.pap.multidraw.server;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.LockSupport;
+
+// Lock-free multi-producer, single-consumer queue. Producers never block; the consumer parks while it is empty.
+class Mailbox<T> {
+    private final ConcurrentLinkedQueue<T> queue;
+    private volatile Thread consumer;
+
+    Mailbox() {
+        this.queue = new ConcurrentLinkedQueue<>();
+        this.consumer = null;
+    }
+
+    // Methods ---------------------------------------------------------------------------------------------------------
+
+    void post(T item) {
+        queue.add(item);
+
+        // An unpark before the consumer parks is remembered, so the wake-up cannot be lost
+        Thread thread = consumer;
+        if (thread != null)
+            LockSupport.unpark(thread);
+    }
+
+    // Consumer only. Null when interrupted.
+    T take() {
+        consumer = Thread.currentThread();
+
+        T item;
+        while ((item = queue.poll()) == null) {
+            if (Thread.currentThread().isInterrupted())
+                return null;
+            LockSupport.park(this);
+        }
+        return item;
+    }
+
+    T poll() {
+        return queue.poll();
+    }
+}
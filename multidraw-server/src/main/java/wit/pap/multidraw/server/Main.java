@@ -1,8 +1,86 @@
 package wit.pap.multidraw.server;
 
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import wit.pap.multidraw.server.cluster.ClusterNode;
+import wit.pap.multidraw.server.cluster.Router;
+import wit.pap.multidraw.server.metrics.MetricsEndpoint;
+import wit.pap.multidraw.server.metrics.ServerMetrics;
+import wit.pap.multidraw.server.persistence.CanvasStore;
+import wit.pap.multidraw.server.transport.TransportMode;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
 public class Main {
+    private static final Logger log = LogManager.getLogger(Main.class.getName());
+    private static final int DEFAULT_PORT = 12345;
+    private static final int DEFAULT_METRICS_PORT = 9464;
+
     public static void main(String[] args) {
-        MultiDrawServer server = new MultiDrawServer(12345);
+        String mode = "server";
+        int port = DEFAULT_PORT;
+        List<ClusterNode> nodes = new ArrayList<>();
+        TransportMode transportMode = TransportMode.NIO;
+        int metricsPort = DEFAULT_METRICS_PORT;
+        // Persistence is off unless a directory is given
+        String snapshotDir = "";
+        boolean keepDepartedStrokes = false;
+
+        for (String arg : args) {
+            if (arg.startsWith("--mode="))
+                mode = arg.substring("--mode=".length());
+            else if (arg.startsWith("--port="))
+                port = Integer.parseInt(arg.substring("--port=".length()));
+            else if (arg.startsWith("--nodes=")) {
+                for (String node : arg.substring("--nodes=".length()).split(",")) {
+                    if (!node.isBlank())
+                        nodes.add(ClusterNode.parse(node.strip()));
+                }
+            }
+            else if (arg.startsWith("--transport="))
+                transportMode = TransportMode.fromString(arg.substring("--transport=".length()));
+            else if (arg.startsWith("--metrics-port="))
+                metricsPort = Integer.parseInt(arg.substring("--metrics-port=".length()));
+            else if (arg.startsWith("--snapshot-dir="))
+                snapshotDir = arg.substring("--snapshot-dir=".length());
+            else if (arg.equals("--keep-departed-strokes"))
+                keepDepartedStrokes = true;
+        }
+
+        // A router only forwards connections, so it has no rooms to measure or persist
+        if (mode.equalsIgnoreCase("router")) {
+            try {
+                new Router(port, nodes).start();
+            } catch (IOException e) {
+                log.error(e);
+            }
+            return;
+        }
+        if (!mode.equalsIgnoreCase("server"))
+            throw new IllegalArgumentException("Unknown mode \"" + mode + "\"!");
+
+        // 0 turns the endpoint off; the MBeans are registered either way
+        if (metricsPort > 0) {
+            try {
+                new MetricsEndpoint(metricsPort, ServerMetrics.instance()).start();
+            } catch (IOException e) {
+                log.error(e);
+            }
+        }
+
+        CanvasStore canvasStore = null;
+        if (!snapshotDir.isEmpty()) {
+            try {
+                canvasStore = new CanvasStore(Path.of(snapshotDir), keepDepartedStrokes);
+            } catch (IOException e) {
+                log.error(e);
+            }
+        }
+
+        MultiDrawServer server = new MultiDrawServer(port, transportMode, canvasStore);
         server.start();
     }
 }
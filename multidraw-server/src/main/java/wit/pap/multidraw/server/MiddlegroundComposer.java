@@ -0,0 +1,308 @@
+package wit.pap.multidraw.server;
+
+import wit.pap.multidraw.shared.AlphaMode;
+import wit.pap.multidraw.shared.BgraImage;
+import wit.pap.multidraw.shared.SparseBgraImage;
+import wit.pap.multidraw.shared.compositing.Compositor;
+import wit.pap.multidraw.shared.globals.Globals;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Keeps a segment tree over the ordered user layers. Every inner node caches the composite of its range,
+// so "all layers except one" is assembled from O(log N) cached nodes and a changed layer only invalidates
+// the tiles it touched in the nodes on its way to the root.
+//
+// Joins append a leaf and leaves empty theirs, so both only invalidate one path. A full tree doubles by
+// becoming the left half of a new root, which keeps every cached node; emptied leaves are only squeezed out
+// when the tree would otherwise grow while at least half of it is empty.
+public class MiddlegroundComposer {
+    private final int width, height;
+    private final AlphaMode alphaMode;
+
+    // Heap layout: the root is 1, the children of k are 2k and 2k + 1, leaves start at leafOffset
+    private SparseBgraImage[] nodes;
+    // layerCount includes emptied leaves, liveLayers does not
+    private int leafOffset, layerCount, liveLayers, tileCount;
+    private final Map<SparseBgraImage, Integer> layerIndices;
+    // Tiles of each inner node that need recomposing, null for an up-to-date node
+    private BitSet[] dirtyTiles;
+    // Tiles of the full composite that changed since the last takeChangedTiles()
+    private BitSet changedTiles;
+
+    public MiddlegroundComposer(int width, int height, AlphaMode alphaMode) {
+        this.width = width;
+        this.height = height;
+        this.alphaMode = alphaMode;
+        this.nodes = new SparseBgraImage[2];
+        this.leafOffset = 1;
+        this.layerCount = 0;
+        this.liveLayers = 0;
+        this.layerIndices = new IdentityHashMap<>();
+        this.tileCount = new SparseBgraImage(width, height, alphaMode).getTileCount();
+        this.dirtyTiles = new BitSet[1];
+        this.changedTiles = new BitSet(tileCount);
+    }
+
+    // Methods ---------------------------------------------------------------------------------------------------------
+
+    // Rebuilds the tree for layers ordered bottom to top
+    public void setLayers(List<SparseBgraImage> layers) {
+        for (SparseBgraImage layer : layers) {
+            if (layer == null)
+                throw new IllegalArgumentException("Layers cannot be null!");
+            checkCompatible(layer);
+        }
+
+        rebuild(layers, layers.size() <= 1 ? 1 : Integer.highestOneBit(layers.size() - 1) << 1);
+        changedTiles = allTiles();
+    }
+
+    // Puts the layer on top of the others
+    public void addLayer(SparseBgraImage layer) {
+        if (layer == null)
+            throw new IllegalArgumentException("Layers cannot be null!");
+        checkCompatible(layer);
+        if (layerIndices.containsKey(layer))
+            throw new IllegalArgumentException("Layer is already part of the composer!");
+
+        if (layerCount == leafOffset) {
+            if (2 * liveLayers <= leafOffset)
+                rebuild(getLayers(), leafOffset);
+            else
+                grow();
+        }
+
+        int index = layerCount++;
+        nodes[leafOffset + index] = layer;
+        layerIndices.put(layer, index);
+        ++liveLayers;
+        markChanged(index, populatedTiles(layer));
+    }
+
+    // Empties the layer's leaf; the layers above it keep their places
+    public void removeLayer(SparseBgraImage layer) {
+        Integer index = layerIndices.remove(layer);
+        if (index == null)
+            return;
+
+        --liveLayers;
+        markChanged(index, populatedTiles(layer));
+        nodes[leafOffset + index] = null;
+    }
+
+    public void setLayer(int index, SparseBgraImage layer) {
+        if (layer == null)
+            throw new IllegalArgumentException("Layers cannot be null!");
+        checkCompatible(layer);
+        checkIndex(index);
+
+        SparseBgraImage previous = nodes[leafOffset + index];
+        if (previous == null)
+            throw new IllegalArgumentException("Layer was removed!");
+
+        layerIndices.remove(previous);
+        layerIndices.put(layer, index);
+        nodes[leafOffset + index] = layer;
+        markChanged(index);
+    }
+
+    // The layer at index has been modified in place
+    public void markChanged(int index) {
+        markChanged(index, allTiles());
+    }
+
+    public void markChanged(int index, BitSet tiles) {
+        checkIndex(index);
+
+        for (int node = (leafOffset + index) >> 1; node >= 1; node >>= 1) {
+            if (dirtyTiles[node] == null)
+                dirtyTiles[node] = new BitSet(tileCount);
+            dirtyTiles[node].or(tiles);
+        }
+        changedTiles.or(tiles);
+    }
+
+    // Position of the layer in the stacking order, -1 when it is not part of the composer.
+    // Positions only move when emptied leaves are squeezed out.
+    public int indexOf(SparseBgraImage layer) {
+        Integer index = layerIndices.get(layer);
+        return index == null ? -1 : index;
+    }
+
+    // Composites every layer except the excluded one into a pooled image the caller recycles;
+    // an index outside of the layers composites all of them
+    public BgraImage composeExcluding(int excluded) {
+        refresh();
+
+        List<SparseBgraImage> sources = new ArrayList<>();
+        if (excluded < 0 || excluded >= layerCount) {
+            addIfPresent(sources, nodes[1]);
+        } else {
+            List<SparseBgraImage> below = new ArrayList<>();
+
+            for (int node = leafOffset + excluded; node > 1; node >>= 1) {
+                SparseBgraImage sibling = nodes[node ^ 1];
+                if ((node & 1) == 1)
+                    addIfPresent(below, sibling);
+                else
+                    addIfPresent(sources, sibling);
+            }
+
+            // Siblings further up cover ranges further away, so the ones below are collected in reverse
+            Collections.reverse(below);
+            below.addAll(sources);
+            sources = below;
+        }
+
+        BgraImage middleGround = new BgraImage(width, height, alphaMode);
+        Compositor.overlayAllInto(middleGround, sources.toArray(new SparseBgraImage[0]));
+        return middleGround;
+    }
+
+    // The composite of every layer, owned by the composer and only valid until the layers change again;
+    // null when there are no layers
+    public SparseBgraImage composeAll() {
+        refresh();
+        // With a single layer the root is that layer's leaf
+        return liveLayers == 0 ? null : nodes[1];
+    }
+
+    // The layers in stacking order
+    public List<SparseBgraImage> getLayers() {
+        List<SparseBgraImage> layers = new ArrayList<>(liveLayers);
+        for (int idx = 0; idx < layerCount; ++idx) {
+            if (nodes[leafOffset + idx] != null)
+                layers.add(nodes[leafOffset + idx]);
+        }
+        return layers;
+    }
+
+    // Tiles of the full composite changed since the previous call
+    public BitSet takeChangedTiles() {
+        BitSet tiles = changedTiles;
+        changedTiles = new BitSet(tileCount);
+        return tiles;
+    }
+
+    // Recomposes the dirty tiles of inner nodes bottom-up, so that children are always fresh before their parent
+    private void refresh() {
+        for (int node = leafOffset - 1; node >= 1; --node) {
+            BitSet tiles = dirtyTiles[node];
+            if (tiles == null)
+                continue;
+            dirtyTiles[node] = null;
+
+            SparseBgraImage left = nodes[2 * node], right = nodes[2 * node + 1];
+            if (left == null && right == null) {
+                nodes[node] = null;
+                continue;
+            }
+
+            // Inner nodes are owned by the tree, leaves are the layers themselves
+            if (nodes[node] == null) {
+                nodes[node] = new SparseBgraImage(width, height, alphaMode);
+                tiles = null;
+            }
+
+            if (left == null)
+                Compositor.overlayTilesInto(nodes[node], tiles, right);
+            else if (right == null)
+                Compositor.overlayTilesInto(nodes[node], tiles, left);
+            else
+                Compositor.overlayTilesInto(nodes[node], tiles, left, right);
+        }
+    }
+
+    private void rebuild(List<SparseBgraImage> layers, int leafOffset) {
+        this.layerCount = layers.size();
+        this.liveLayers = layerCount;
+        this.leafOffset = leafOffset;
+
+        nodes = new SparseBgraImage[2 * leafOffset];
+        layerIndices.clear();
+        for (int idx = 0; idx < layerCount; ++idx) {
+            nodes[leafOffset + idx] = layers.get(idx);
+            layerIndices.put(layers.get(idx), idx);
+        }
+
+        dirtyTiles = new BitSet[leafOffset];
+        for (int node = 1; node < leafOffset; ++node)
+            dirtyTiles[node] = allTiles();
+    }
+
+    // Doubles the leaves by hanging the current tree under a new root as its left half. A node at depth d
+    // moves from k to k + 2^d; only the new root has to be composed.
+    private void grow() {
+        SparseBgraImage[] grownNodes = new SparseBgraImage[4 * leafOffset];
+        BitSet[] grownDirtyTiles = new BitSet[2 * leafOffset];
+
+        for (int node = 1; node < 2 * leafOffset; ++node) {
+            int moved = node + Integer.highestOneBit(node);
+            grownNodes[moved] = nodes[node];
+            if (node < leafOffset)
+                grownDirtyTiles[moved] = dirtyTiles[node];
+        }
+        grownDirtyTiles[1] = allTiles();
+
+        nodes = grownNodes;
+        dirtyTiles = grownDirtyTiles;
+        leafOffset *= 2;
+    }
+
+    private BitSet populatedTiles(SparseBgraImage layer) {
+        BitSet tiles = new BitSet(tileCount);
+        for (int idx = 0; idx < tileCount; ++idx) {
+            if (layer.getTile(idx) != null)
+                tiles.set(idx);
+        }
+        return tiles;
+    }
+
+    private BitSet allTiles() {
+        BitSet tiles = new BitSet(tileCount);
+        tiles.set(0, tileCount);
+        return tiles;
+    }
+
+    private static void addIfPresent(List<SparseBgraImage> list, SparseBgraImage image) {
+        if (image != null && !image.isTransparent())
+            list.add(image);
+    }
+
+    private void checkCompatible(SparseBgraImage layer) {
+        if (layer.getWidth() != width || layer.getHeight() != height)
+            throw new IllegalArgumentException("Image dimensions do not match!");
+        if (layer.getAlphaMode() != alphaMode)
+            throw new IllegalArgumentException("Alpha modes do not match!");
+        if (layer.getTileSize() != Globals.TILE_SIZE)
+            throw new IllegalArgumentException("Tile sizes do not match!");
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= layerCount)
+            throw new IndexOutOfBoundsException(index);
+    }
+
+    // Getters & Setters -----------------------------------------------------------------------------------------------
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public AlphaMode getAlphaMode() {
+        return alphaMode;
+    }
+
+    public int getLayerCount() {
+        return liveLayers;
+    }
+}
@@ -2,41 +2,70 @@ package wit.pap.multidraw.server;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import wit.pap.multidraw.server.metrics.ServerMetrics;
+import wit.pap.multidraw.server.persistence.CanvasStore;
+import wit.pap.multidraw.server.transport.Connection;
+import wit.pap.multidraw.server.transport.Transport;
+import wit.pap.multidraw.server.transport.TransportMode;
+import wit.pap.multidraw.shared.PixelBufferPool;
 import wit.pap.multidraw.shared.communication.ClientMessage;
 import wit.pap.multidraw.shared.globals.Globals;
 
 import java.io.IOException;
 import java.net.InetAddress;
-import java.net.ServerSocket;
-import java.net.Socket;
 import java.net.SocketException;
 import java.time.Duration;
-import java.time.Instant;
 import java.util.*;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class MultiDrawServer {
     public static final Logger log = LogManager.getLogger(MultiDrawServer.class.getName());
 
+    private static final Duration HANDSHAKE_POLL_TIMEOUT = Duration.ofMillis(400);
+    private static final Duration HANDSHAKE_TIMEOUT = Duration.ofSeconds(Globals.HANDSHAKE_TIMEOUT_SECONDS);
+
     private final int port;
-    private final ServerSocket serverSocket;
+    private final Transport transport;
     private final AtomicBoolean isRunning;
 
-    private final Thread userAssigner, deadRoomCleaner;
-
+    // Periodic work for the server and its rooms; the rooms themselves sleep until they are woken up
+    private final ScheduledExecutorService maintenance;
+    // At most MAX_CONCURRENT_HANDSHAKES connections negotiate at once and MAX_PENDING_HANDSHAKES wait for a turn,
+    // anything beyond that is turned away
+    private final ExecutorService handshakeExecutor;
+    private final AtomicLong timedOutHandshakes, rejectedHandshakes;
+    // Null when room canvases are not persisted
+    private final CanvasStore canvasStore;
 
     private final Set<Room> rooms;
     private final Map<String, Room> nameRoomMap;
     private final Map<Room, Thread> roomThreadMap;
-    private final Queue<Socket> toBeUsers;
-
-    Instant lastDeadRoomCheck;
+    private final Map<Room, List<ScheduledFuture<?>>> roomScheduleMap;
 
     public MultiDrawServer(int port) {
+        this(port, TransportMode.NIO);
+    }
+
+    public MultiDrawServer(int port, TransportMode transportMode) {
+        this(port, transportMode, null);
+    }
+
+    public MultiDrawServer(int port, TransportMode transportMode, CanvasStore canvasStore) {
         this.port = port;
+        this.canvasStore = canvasStore;
         try {
-            this.serverSocket = new ServerSocket(this.port);
+            this.transport = transportMode.open(this.port);
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
@@ -44,31 +73,47 @@ public class MultiDrawServer {
         this.rooms = new HashSet<>();
         this.nameRoomMap = new HashMap<>();
         this.roomThreadMap = new HashMap<>();
-        this.toBeUsers = new ConcurrentLinkedQueue<>();
-
-        this.lastDeadRoomCheck = Instant.now();
-
-        this.userAssigner = new Thread(() -> {
-            while (isRunning.get())
-                assignUsers();
-        });
-
-        this.deadRoomCleaner = new Thread(() -> {
-           while (isRunning.get()) {
-               clearDeadRooms();
-           }
+        this.roomScheduleMap = new HashMap<>();
+
+        AtomicInteger handshakeThreadCount = new AtomicInteger();
+        this.handshakeExecutor = new ThreadPoolExecutor(
+                Globals.MAX_CONCURRENT_HANDSHAKES, Globals.MAX_CONCURRENT_HANDSHAKES, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(Globals.MAX_PENDING_HANDSHAKES),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "handshake-" + handshakeThreadCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+        );
+        this.timedOutHandshakes = new AtomicLong();
+        this.rejectedHandshakes = new AtomicLong();
+
+        this.maintenance = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "maintenance");
+            thread.setDaemon(true);
+            return thread;
         });
     }
 
     public void start() {
         isRunning.set(true);
-        log.info(new StringBuilder("Server started on port ").append(port));
+        log.info(new StringBuilder("Server started on port ").append(port)
+                .append(" using the ").append(transport.getMode()).append(" transport"));
         run();
     }
 
     public void run() {
-        userAssigner.start();
-        deadRoomCleaner.start();
+        // A periodic task that throws is never run again, so failures stop here
+        maintenance.scheduleAtFixedRate(
+                () -> {
+                    try {
+                        clearDeadRooms();
+                    } catch (Exception e) {
+                        log.error(e);
+                    }
+                },
+                Globals.DEAD_ROOM_CHECK_INTERVAL_SECONDS, Globals.DEAD_ROOM_CHECK_INTERVAL_SECONDS, TimeUnit.SECONDS
+        );
 
         while (isRunning.get()) {
             waitForUser();
@@ -78,64 +123,117 @@ public class MultiDrawServer {
 
     private void waitForUser() {
         try {
-            Socket userSocket = serverSocket.accept();
-            log.info(new StringBuilder("Accepted connection from ").append(userSocket.getInetAddress()));
-            toBeUsers.add(userSocket);
+            Connection connection = transport.accept();
+            log.info(new StringBuilder("Accepted connection from ").append(connection.getRemoteAddress()));
+            long acceptedAt = System.nanoTime();
+            try {
+                handshakeExecutor.execute(() -> assignUser(connection, acceptedAt));
+            } catch (RejectedExecutionException e) {
+                connection.close();
+                log.warn(new StringBuilder("Turned away ").append(connection.getRemoteAddress())
+                        .append(", too many handshakes are waiting. Turned away so far: ")
+                        .append(rejectedHandshakes.incrementAndGet()));
+                ServerMetrics.instance().recordRejectedHandshake();
+            }
         } catch (IOException e) {
             log.error(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            isRunning.set(false);
         }
     }
 
-    private void assignUsers() {
-        while (!toBeUsers.isEmpty()) {
-            Socket socket = toBeUsers.poll();
-
-            User user = new User(socket, null, null);
-            log.info(new StringBuilder("Created initial user for ").append(socket.getInetAddress()));
+    // Waits for the nickname and the room name, then puts the user in the room. Gives up on connections
+    // that have not joined a room HANDSHAKE_TIMEOUT after being accepted, time spent queueing for a handshake
+    // thread included, so they cannot hold a handshake thread forever.
+    private void assignUser(Connection connection, long acceptedAt) {
+        User user = new User(connection, null, null);
+        log.info(new StringBuilder("Created initial user for ").append(connection.getRemoteAddress()));
+
+        long deadline = acceptedAt + HANDSHAKE_TIMEOUT.toNanos();
+        String nickname = null, roomName = null;
+
+        while (nickname == null || roomName == null) {
+            Duration remaining = Duration.ofNanos(deadline - System.nanoTime());
+            if (remaining.isNegative() || remaining.isZero()) {
+                timeOutHandshake(connection);
+                return;
+            }
 
-            String nickname = null, roomName = null;
+            try {
+                ClientMessage message = user.receiveMessage(
+                        remaining.compareTo(HANDSHAKE_POLL_TIMEOUT) < 0 ? remaining : HANDSHAKE_POLL_TIMEOUT
+                );
+                if (user.getIsDead()) {
+                    connection.close();
+                    return;
+                }
+                if (message == null)
+                    continue;
 
-            while (nickname == null || roomName == null) {
-                try {
-                    ClientMessage message = user.receiveMessage();
-                    logClientMessage(socket.getInetAddress(), message);
+                logClientMessage(connection.getRemoteAddress(), message);
 
-                    switch (message.getClientCommand()) {
-                        case SET_NICKNAME -> nickname = new String(message.getPayload());
-                        case JOIN_CREATE_ROOM -> roomName = new String(message.getPayload());
-                    }
-                } catch (SocketException e) {
-                    log.error(e);
-                    return;
+                switch (message.getClientCommand()) {
+                    case SET_NICKNAME -> nickname = new String(message.getPayload());
+                    case JOIN_CREATE_ROOM -> roomName = new String(message.getPayload());
                 }
+            } catch (SocketException e) {
+                log.error(e);
+                connection.close();
+                return;
             }
+        }
 
-            Room room = null;
-            synchronized (nameRoomMap) {
-                room = nameRoomMap.getOrDefault(roomName, null);
-            }
+        user.setNickname(nickname);
 
-            if (room == null) {
-                room = createRoom(roomName);
-            }
+        // A room that stopped in the meantime is replaced by a fresh one under the same name
+        while (true) {
+            Room room = roomFor(roomName);
 
             try {
-                user.setNickname(nickname);
-                user.setRoom(room);
+                user.setRoom(room, Duration.ofNanos(Math.max(0, deadline - System.nanoTime())));
+                ServerMetrics.instance().recordHandshake(System.nanoTime() - acceptedAt);
 
-                log.info(new StringBuilder(socket.getInetAddress().toString())
+                log.info(new StringBuilder(connection.getRemoteAddress().toString())
                         .append(" became User ").append(nickname).append(" in room ").append(roomName));
+                return;
             } catch (DuplicateNicknameException e) {
                 log.error(
                         new StringBuilder("User ").append(nickname).append(" could not be added to room ")
                                 .append(roomName).append(". Rejecting...")
                 );
+                return;
+            } catch (RoomClosedException e) {
+                synchronized (nameRoomMap) {
+                    nameRoomMap.remove(roomName, room);
+                }
+            } catch (TimeoutException e) {
+                timeOutHandshake(connection);
+                return;
             }
         }
     }
 
+    private void timeOutHandshake(Connection connection) {
+        connection.close();
+        log.warn(new StringBuilder("Handshake with ").append(connection.getRemoteAddress())
+                .append(" timed out after ").append(HANDSHAKE_TIMEOUT.toSeconds()).append("s. Timed out so far: ")
+                .append(timedOutHandshakes.incrementAndGet()));
+        ServerMetrics.instance().recordTimedOutHandshake();
+    }
+
+    // Concurrent handshakes for a new room name must end up in the same room
+    private Room roomFor(String roomName) {
+        synchronized (nameRoomMap) {
+            Room room = nameRoomMap.getOrDefault(roomName, null);
+            if (room == null || !room.isRunning())
+                room = createRoom(roomName);
+            return room;
+        }
+    }
+
     private Room createRoom(String name) {
-        Room room = new Room(name);
+        Room room = new Room(name, canvasStore);
 
         synchronized (rooms) {
             rooms.add(room);
@@ -152,53 +250,87 @@ public class MultiDrawServer {
         }
 
         roomThread.start();
+
+        List<ScheduledFuture<?>> schedules = new ArrayList<>(List.of(
+                maintenance.scheduleAtFixedRate(
+                        room::requestMiddlegrounds,
+                        Globals.MIDDLEGROUND_CREATION_INTERVAL_SECONDS, Globals.MIDDLEGROUND_CREATION_INTERVAL_SECONDS,
+                        TimeUnit.SECONDS
+                ),
+                maintenance.scheduleAtFixedRate(
+                        room::requestUserCheck,
+                        Globals.DEAD_USERS_CHECK_INTERVAL_SECONDS, Globals.DEAD_USERS_CHECK_INTERVAL_SECONDS,
+                        TimeUnit.SECONDS
+                )
+        ));
+        if (canvasStore != null)
+            schedules.add(maintenance.scheduleAtFixedRate(
+                    room::requestCheckpoint,
+                    Globals.CANVAS_CHECKPOINT_INTERVAL_SECONDS, Globals.CANVAS_CHECKPOINT_INTERVAL_SECONDS,
+                    TimeUnit.SECONDS
+            ));
+        synchronized (roomScheduleMap) {
+            roomScheduleMap.put(room, schedules);
+        }
+
         log.info(new StringBuilder("Room ").append(name).append(" has started execution!"));
 
         return room;
     }
 
     private void clearDeadRooms() {
-        if (Duration.between(lastDeadRoomCheck, Instant.now()).toSeconds() < Globals.DEAD_ROOM_CHECK_INTERVAL_SECONDS)
-            return;
-
         log.info("Searching for dead rooms...");
 
+        // Collected first and cleaned up outside the rooms lock, since roomFor takes nameRoomMap before rooms
+        List<Room> deadRooms = new ArrayList<>();
         synchronized (rooms) {
             Iterator<Room> deadRoomIterator = rooms.iterator();
 
             while (deadRoomIterator.hasNext()) {
                 Room r = deadRoomIterator.next();
 
-                if (!r.isRunning()){
-                    synchronized (roomThreadMap) {
-                        Thread thread = roomThreadMap.getOrDefault(r, null);
-                        if (thread != null) {
-                            try {
-                                thread.interrupt();
-                                roomThreadMap.remove(r);
-                            } catch (Exception e) {
-                                log.error(e);
-                            }
-                        }
-                    }
-
+                if (!r.isRunning()) {
+                    deadRooms.add(r);
                     deadRoomIterator.remove();
-                    log.info(new StringBuilder("Dead Room \"").append(r.getName()).append("\" removed!"));
                 }
             }
         }
-        lastDeadRoomCheck = Instant.now();
+
+        for (Room r : deadRooms) {
+            synchronized (roomThreadMap) {
+                Thread thread = roomThreadMap.getOrDefault(r, null);
+                if (thread != null) {
+                    try {
+                        thread.interrupt();
+                        roomThreadMap.remove(r);
+                    } catch (Exception e) {
+                        log.error(e);
+                    }
+                }
+            }
+
+            synchronized (roomScheduleMap) {
+                List<ScheduledFuture<?>> schedules = roomScheduleMap.remove(r);
+                if (schedules != null)
+                    schedules.forEach(schedule -> schedule.cancel(false));
+            }
+
+            synchronized (nameRoomMap) {
+                nameRoomMap.remove(r.getName(), r);
+            }
+
+            log.info(new StringBuilder("Dead Room \"").append(r.getName()).append("\" removed!"));
+        }
         log.info("Searching for dead rooms complete!");
+        log.info(new StringBuilder("Canvas buffer pool: ").append(PixelBufferPool.canvasPool().getStats()));
     }
 
-    private void logClientMessage(ClientMessage message) {
-        log.info(new StringBuilder("Message received: ").append(message.getClientCommand().name()).append(" ")
-                .append(new String(message.getPayload())));
+    public long getTimedOutHandshakes() {
+        return timedOutHandshakes.get();
     }
 
     private void logClientMessage(InetAddress address, ClientMessage message) {
-        log.info(new StringBuilder("[").append(address.toString()).append("] Message received: ").append(message.getClientCommand().name()).append(" ")
-                .append(new String(message.getPayload())));
+        log.info(new StringBuilder("[").append(address.toString()).append("] Message received: ").append(message));
     }
 
 }
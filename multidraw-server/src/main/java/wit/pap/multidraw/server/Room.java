@@ -2,11 +2,21 @@ package wit.pap.multidraw.server;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import wit.pap.multidraw.server.metrics.RoomMetrics;
+import wit.pap.multidraw.server.metrics.ServerMetrics;
+import wit.pap.multidraw.server.persistence.CanvasSnapshot;
+import wit.pap.multidraw.server.persistence.CanvasStore;
+import wit.pap.multidraw.server.persistence.RoomSnapshot;
+import wit.pap.multidraw.server.transport.Connection;
 import wit.pap.multidraw.shared.BgraImage;
-import wit.pap.multidraw.shared.Utilities;
+import wit.pap.multidraw.shared.ImageCodec;
+import wit.pap.multidraw.shared.ImagePatch;
+import wit.pap.multidraw.shared.SparseBgraImage;
 import wit.pap.multidraw.shared.communication.ClientMessage;
 import wit.pap.multidraw.shared.communication.ServerCommands;
 import wit.pap.multidraw.shared.communication.ServerMessage;
+import wit.pap.multidraw.shared.compositing.Compositor;
+import wit.pap.multidraw.shared.compression.AdaptiveCodecSelector;
 import wit.pap.multidraw.shared.globals.Globals;
 
 import java.io.IOException;
@@ -15,58 +25,109 @@ import java.security.InvalidParameterException;
 import java.time.Duration;
 import java.time.Instant;
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.CRC32C;
 
+// A single-writer actor: other threads only post RoomEvents to the mailbox, and all room state below
+// is touched by the room thread alone, so none of it needs locking.
 public class Room implements Runnable {
     private static final Logger log = LogManager.getLogger(Room.class.getName());
+    // Messages taken from one user per event, so a flooding user cannot starve the others
+    private static final int MAX_MESSAGES_PER_USER_PASS = 16;
     private final String name;
-    private final Set<User> users;
-    private final Queue<ClientMessage> messagesToHandle;
-    private final Map<ClientMessage, User> messageSenders;
-    private final Queue<ServerMessage> messagesToSend;
-    private final Map<ServerMessage, User> messageRecipients;
-    private final Map<User, BgraImage> userImages;
+    private final Mailbox<RoomEvent> mailbox;
     private final AtomicBoolean isRunning;
+    private final RoomMetrics metrics;
+
+    // Room thread only -------------------------------------------------------------------------------------------------
 
-    private Instant lastUserRemoval, lastDeadUserCheck, lastImageMerge;
+    private final Set<User> users;
+    // Users on a transport without an inbox; while there are any, the room polls instead of sleeping
+    private int pollingUsers;
+    // Join order, which is also the stacking order of the layers (first joiner at the bottom)
+    private final Map<User, SparseBgraImage> userImages;
+    // Every layer change takes a new stamp, so a middleground is stale
+    // once any layer under it carries a stamp newer than the one it was built from.
+    private final Map<User, Long> layerStamps, sentViewStamps, uploadChecksums;
+    private long lastLayerStamp;
+    private final AdaptiveCodecSelector codecSelector;
+    private final MiddlegroundComposer composer;
+    // The encoded composite of every layer, which is exactly what a user without strokes of their own sees;
+    // null once any layer has changed since it was encoded
+    private byte[] keyframe;
+
+    // Null when rooms are not persisted. The snapshot is opened, and the canvas restored, on the first join.
+    private final CanvasStore store;
+    private RoomSnapshot snapshot;
+    private boolean restored;
+    // Where each user's layer is saved, and its tiles changed since the last checkpoint
+    private final Map<User, CanvasSnapshot> savedLayers;
+    private final Map<User, BitSet> unsavedTiles;
+    private int nextLayerOrder;
+    // Layers restored from the snapshot, by their order there. Nobody draws on them, not even their authors.
+    private final Map<Integer, RestoredLayer> restoredLayers;
+    // Only when the store keeps departed strokes: the restored canvas plus the layers of users who have left,
+    // the bottom layer when present
+    private SparseBgraImage baseLayer;
+
+    private Instant lastUserRemoval;
+
+    private record RestoredLayer(String nickname, SparseBgraImage image, Instant expiry) {}
 
     public Room(String name) {
+        this(name, null);
+    }
+
+    public Room(String name, CanvasStore store) {
         if (name == null)
             throw new InvalidParameterException("Name cannot be null!");
 
         this.name = name;
+        this.mailbox = new Mailbox<>();
+        // Running from the start, so a room whose thread has not been scheduled yet does not look dead
+        this.isRunning = new AtomicBoolean(true);
         this.users = new LinkedHashSet<>();
-        this.messagesToHandle = new ConcurrentLinkedQueue<>();
-        this.messageSenders = new ConcurrentHashMap<>();
-        this.messagesToSend = new ConcurrentLinkedQueue<>();
-        this.messageRecipients = new ConcurrentHashMap<>();
-        this.userImages = new ConcurrentHashMap<>();
-        this.isRunning = new AtomicBoolean(false);
-        this.lastDeadUserCheck = Instant.now();
+        this.pollingUsers = 0;
+        this.userImages = new LinkedHashMap<>();
+        this.layerStamps = new HashMap<>();
+        this.sentViewStamps = new HashMap<>();
+        this.uploadChecksums = new HashMap<>();
+        this.lastLayerStamp = 0;
+        this.codecSelector = AdaptiveCodecSelector.fromSystemProperties();
+        this.composer = new MiddlegroundComposer(Globals.IMAGE_WIDTH, Globals.IMAGE_HEIGHT, Globals.CANVAS_ALPHA_MODE);
+        this.keyframe = null;
+        this.store = store;
+        this.snapshot = null;
+        this.restored = false;
+        this.savedLayers = new HashMap<>();
+        this.unsavedTiles = new HashMap<>();
+        this.nextLayerOrder = 0;
+        this.restoredLayers = new LinkedHashMap<>();
+        this.baseLayer = null;
         this.lastUserRemoval = Instant.now();
-        this.lastImageMerge = Instant.now();
+        this.metrics = ServerMetrics.instance().registerRoom(name);
     }
 
     @Override
     public void run() {
-        isRunning.set(true);
         while (isRunning.get()) {
             try {
-                catchDeadUsers();
+                RoomEvent event = pollingUsers > 0 ? mailbox.poll() : mailbox.take();
+                if (event == null && Thread.currentThread().isInterrupted())
+                    preventLinger(true);
 
-                boolean performActivities = false;
-                synchronized (users) {
-                    performActivities = !users.isEmpty();
-                }
+                long tickStart = System.nanoTime();
+                boolean handled = event != null;
+                for (; event != null; event = mailbox.poll())
+                    handleEvent(event);
 
-                if (performActivities) {
-                    receiveMessages();
-                    prepareMiddleGrounds();
-                    handleMessages();
-                    sendMessages();
-                }
+                if (pollingUsers > 0)
+                    pollUsers();
+
+                // Idle polling passes would only drown the real ticks
+                if (handled)
+                    metrics.recordTick(System.nanoTime() - tickStart);
 
                 preventLinger(false);
             }
@@ -74,236 +135,300 @@ public class Room implements Runnable {
                 log.error(e);
                 preventLinger(true);
             }
-
         }
+
+        rejectPendingEvents();
+        closeSnapshot();
+        ServerMetrics.instance().unregisterRoom(metrics);
         log.info(new StringBuilder("Room \"").append(name).append("\" ceases to operate!"));
     }
 
-    public void addUser(User user) throws DuplicateNicknameException {
-        synchronized (users) {
-            if (this.users.stream().anyMatch(connectedUser -> connectedUser.getNickname().equals(user.getNickname())))
-                throw new DuplicateNicknameException(
-                        (new StringBuilder("User called \""))
-                                .append(user.getNickname())
-                                .append("\" already exists!").toString()
-                );
-            else {
-                users.add(user);
-                log.info(
-                        new StringBuilder("New user in Room ")
-                                .append(name)
-                                .append(". Current user count: ")
-                                .append(users.size())
-                );
-                synchronized (userImages) {
-                    userImages.put(user, BgraImage.createTransparent(Globals.IMAGE_WIDTH, Globals.IMAGE_HEIGHT));
-                }
-                try {
-                    user.sendMessage(new ServerMessage(ServerCommands.ACCEPT_INT0_ROOM, null));
-                } catch (SocketException e) {
-                    log.error(e);
-                    removeUser(user);
-                }
-            }
-
-        }
+    // Methods ---------------------------------------------------------------------------------------------------------
 
+    // Any thread. The returned future completes once the room has taken the user in.
+    public CompletableFuture<Void> addUser(User user) {
+        CompletableFuture<Void> result = new CompletableFuture<>();
+        post(new RoomEvent.Join(user, result));
+        return result;
     }
 
+    // Any thread
     public void removeUser(User user) {
-        synchronized (users) {
-            users.remove(user);
-            synchronized (userImages) {
-                userImages.remove(user);
-            }
+        post(new RoomEvent.Leave(user));
+    }
 
-            synchronized (messageRecipients) {
-                List<ServerMessage> messagesToRemove = messageRecipients
-                        .entrySet()
-                        .parallelStream()
-                        .filter(pair -> pair.getValue() == user)
-                        .map(Map.Entry::getKey)
-                        .toList();
+    // Called by the server's scheduler
+    public void requestMiddlegrounds() {
+        post(new RoomEvent.MiddlegroundTick());
+    }
 
-                for (ServerMessage msg: messagesToRemove) {
-                    messageRecipients.remove(msg);
-                }
-            }
+    // Called by the server's scheduler
+    public void requestUserCheck() {
+        post(new RoomEvent.UserCheck());
+    }
 
-            try {
-                user.close();
-            } catch (IOException e) {
-                log.error(e);
-            }
+    // Called by the server's scheduler
+    public void requestCheckpoint() {
+        post(new RoomEvent.Checkpoint());
+    }
+
+    private void post(RoomEvent event) {
+        mailbox.post(event);
+
+        // The room may have stopped right before the event went in, and nobody would ever handle it then
+        if (!isRunning.get())
+            rejectPendingEvents();
+    }
+
+    // Joins that will never be handled are failed, so that nobody waits for them
+    private void rejectPendingEvents() {
+        RoomEvent event;
+        while ((event = mailbox.poll()) != null) {
+            if (event instanceof RoomEvent.Join join)
+                join.result().completeExceptionally(new RoomClosedException(
+                        new StringBuilder("Room \"").append(name).append("\" is closed.").toString()
+                ));
+        }
+    }
 
-            log.info(
-                    new StringBuilder("User ")
+    private void handleEvent(RoomEvent event) {
+        switch (event) {
+            case RoomEvent.Join join -> handleJoin(join.user(), join.result());
+            case RoomEvent.Leave leave -> dropUser(leave.user());
+            case RoomEvent.Readable readable -> receiveMessages(readable.user());
+            case RoomEvent.MiddlegroundTick tick -> prepareMiddleGrounds();
+            case RoomEvent.UserCheck check -> catchDeadUsers();
+            case RoomEvent.Checkpoint checkpoint -> checkpoint();
+        }
+    }
+
+    private void handleJoin(User user, CompletableFuture<Void> result) {
+        restoreIfNeeded();
+
+        if (isConnected(user.getNickname())) {
+            result.completeExceptionally(new DuplicateNicknameException(
+                    (new StringBuilder("User called \""))
                             .append(user.getNickname())
-                            .append(" left the Room ").append(name).append(". Current user count: ")
-                            .append(users.size())
-            );
+                            .append("\" already exists!").toString()
+            ));
+            return;
+        }
+
+        users.add(user);
+        log.info(
+                new StringBuilder("New user in Room ")
+                        .append(name)
+                        .append(". Current user count: ")
+                        .append(users.size())
+        );
+
+        // Even a user back after a restart starts on a layer of their own: their client comes back with a blank
+        // canvas and uploads it in full, which must not wipe what they drew before
+        SparseBgraImage layer = new SparseBgraImage(Globals.IMAGE_WIDTH, Globals.IMAGE_HEIGHT, Globals.CANVAS_ALPHA_MODE);
+        composer.addLayer(layer);
+        userImages.put(user, layer);
+        layerStamps.put(user, 0L);
+        openLayerSnapshot(user);
+        publishConnections();
+
+        Connection connection = user.getConnection();
+        if (connection.needsPolling())
+            ++pollingUsers;
+        else
+            connection.setMessageListener(() -> post(new RoomEvent.Readable(user)));
+
+        result.complete(null);
+
+        // The newcomer's layer is empty, so it changes nobody else's view and leaving it out of the newcomer's
+        // changes nothing either: only the newcomer gets a frame, the cached keyframe
+        try {
+            user.sendMessage(new ServerMessage(ServerCommands.ACCEPT_INT0_ROOM, null));
+            user.sendMessage(new ServerMessage(ServerCommands.SEND_MIDDLEGROUND, keyframe()));
+            sentViewStamps.put(user, viewStampOf(user));
+        } catch (IOException e) {
+            log.error(e);
+            dropUser(user);
         }
-        lastUserRemoval = Instant.now();
     }
 
-    private void catchDeadUsers() {
-        if (Duration.between(lastDeadUserCheck, Instant.now()).toSeconds() < Globals.DEAD_USERS_CHECK_INTERVAL_SECONDS)
+    private void dropUser(User user) {
+        if (!users.remove(user))
             return;
 
-        synchronized (users) {
-            Iterator<User> uIt = users.iterator();
-            while (uIt.hasNext()) {
-                User u = uIt.next();
-                boolean shouldDelete = u.getIsDead();
-
-                if (!shouldDelete) {
-                    try {
-                        u.sendMessage(new ServerMessage(ServerCommands.POKE, null));
-                    } catch (Exception e) {
-                        log.error(e);
-                        shouldDelete = true;
-                    }
-                }
+        Connection connection = user.getConnection();
+        if (connection.needsPolling())
+            --pollingUsers;
+        else
+            connection.setMessageListener(null);
+
+        SparseBgraImage layer = userImages.remove(user);
+        if (layer != null) {
+            if (store != null && store.keepsDepartedStrokes() && !layer.isTransparent())
+                foldIntoBase(layer);
+            else if (!layer.isTransparent())
+                keyframe = null;
+            composer.removeLayer(layer);
+        }
+        unsavedTiles.remove(user);
+        CanvasSnapshot savedLayer = savedLayers.remove(user);
+        if (savedLayer != null && snapshot != null)
+            snapshot.deleteLayer(savedLayer.getOrder());
+        // What the user drew before a restart leaves with them too
+        for (Map.Entry<Integer, RestoredLayer> pair : List.copyOf(restoredLayers.entrySet())) {
+            if (pair.getValue().nickname().equals(user.getNickname()))
+                dropRestoredLayer(pair.getKey());
+        }
 
-                if (shouldDelete)
-                    removeUser(u);
-            }
+        layerStamps.remove(user);
+        uploadChecksums.remove(user);
+        publishConnections();
+        // Everybody else was looking at the layer that is now gone
+        sentViewStamps.clear();
+
+        try {
+            user.close();
+        } catch (IOException e) {
+            log.error(e);
         }
 
-        lastDeadUserCheck = Instant.now();
+        log.info(
+                new StringBuilder("User ")
+                        .append(user.getNickname())
+                        .append(" left the Room ").append(name).append(". Current user count: ")
+                        .append(users.size())
+        );
+        lastUserRemoval = Instant.now();
     }
 
-    private void receiveMessages() {
-        synchronized (users) {
-            if (users.isEmpty()) {
-                log.info(new StringBuilder("Room \"").append(name).append("\" has no users to receive messages from!"));
-                return;
-            }
+    private void catchDeadUsers() {
+        dropExpiredLayers();
 
-            Set<ClientMessage> toAdd = new HashSet<>();
-            Map<ClientMessage, User> senders = new HashMap<>();
+        // dropUser modifies users, so walk a copy
+        for (User u : new ArrayList<>(users)) {
+            boolean shouldDelete = u.getIsDead();
 
-            for (User u : users) {
+            if (!shouldDelete) {
                 try {
-                    ClientMessage message = u.receiveMessage();
-                    if (message != null) {
-                        toAdd.add(message);
-                        senders.put(message, u);
-                    }
-                } catch (SocketException e) {
+                    u.sendMessage(new ServerMessage(ServerCommands.POKE, null));
+                } catch (Exception e) {
                     log.error(e);
-                    removeUser(u);
+                    shouldDelete = true;
                 }
             }
-            synchronized (messagesToHandle) {
-                messagesToHandle.addAll(toAdd);
-            }
-            synchronized (messageSenders) {
-                messageSenders.putAll(senders);
-            }
 
-            if (!toAdd.isEmpty()) {
-                log.info(new StringBuilder("Room \"").append(name).append("\": messages received!"));
+            if (shouldDelete) {
+                ServerMetrics.instance().recordDeadUserRemoval();
+                dropUser(u);
+                continue;
             }
+
+            Connection connection = u.getConnection();
+            if (connection.getOutboundBacklog() > 0 || connection.getSupersededMiddlegrounds() > 0)
+                log.info(new StringBuilder("[").append(u).append("] Outbound backlog: ")
+                        .append(connection.getOutboundBacklog()).append(" messages, ")
+                        .append(connection.getOutboundBacklogBytes()).append(" bytes, ")
+                        .append(connection.getSupersededMiddlegrounds()).append(" middlegrounds superseded"));
         }
+
+        log.info(new StringBuilder("Room \"").append(name).append("\" compression: ").append(codecSelector));
     }
 
-    private void prepareMiddleGrounds() {
-        if (Duration.between(lastImageMerge, Instant.now()).toSeconds() < Globals.MIDDLEGROUND_CREATION_INTERVAL_SECONDS)
+    // Handles what has arrived for the user, up to MAX_MESSAGES_PER_USER_PASS
+    private void receiveMessages(User user) {
+        if (!users.contains(user))
             return;
 
-        Map<User, BgraImage> middleGrounds = new HashMap<>();
-
-        synchronized (users){
-            if (users.isEmpty()) {
-                log.info(new StringBuilder("Room \"").append(name).append("\" has no users to prepare middleGrounds for!"));
-                return;
+        try {
+            int received = 0;
+            ClientMessage message;
+            while (received < MAX_MESSAGES_PER_USER_PASS && (message = user.receiveMessage()) != null) {
+                handleMessage(user, message);
+                ++received;
             }
 
-            synchronized (userImages) {
-                for (User destinationUser: users) {
-                    List<BgraImage> sourceImagesTemp = userImages.entrySet()
-                            .stream()
-                            .filter(pair -> pair.getKey() != destinationUser)
-                            .map(Map.Entry::getValue)
-                            .filter(Objects::nonNull)
-                            .toList()
-                            .reversed();
-
-
-                    List<BgraImage> sourceImages = null;
-
-                    if (!sourceImagesTemp.isEmpty()) {
-                        sourceImages = sourceImagesTemp;
-                    } else {
-                        sourceImages = new ArrayList<>(List.of(BgraImage.createTransparent(
-                                Globals.IMAGE_WIDTH,
-                                Globals.IMAGE_HEIGHT
-                        )));
-                        sourceImages.addAll(sourceImagesTemp);
-                    }
-
-                    BgraImage[] sourceImagesArr = sourceImages.toArray(new BgraImage[0]);
-                    BgraImage middleGround = BgraImage.overlayAll(sourceImagesArr);
-                    middleGrounds.put(destinationUser, middleGround);
-                }
-            }
+            // Whatever is left in the inbox gets its turn after the other users' events
+            if (received == MAX_MESSAGES_PER_USER_PASS)
+                mailbox.post(new RoomEvent.Readable(user));
+        } catch (SocketException e) {
+            log.error(e);
+            ServerMetrics.instance().recordDeadUserRemoval();
+            dropUser(user);
+            return;
         }
 
-        log.info(new StringBuilder("Room \"").append(name).append("\" merged images into middlegrounds"));
-
-        synchronized (messagesToSend) {
-            synchronized (messageRecipients) {
-                for (Map.Entry<User, BgraImage> pair: middleGrounds.entrySet()) {
-                    User user = pair.getKey();
-                    BgraImage mgImage = pair.getValue();
-
-                    try {
-                        byte[] mgImageBytes = Utilities.serializeAndCompress(mgImage);
-                        ServerMessage message = new ServerMessage(ServerCommands.SEND_MIDDLEGROUND, mgImageBytes);
-                        messagesToSend.add(message);
-                        messageRecipients.put(message, user);
-                    } catch (IOException e) {
-                        log.error(e);
-                        user.markAsDead();
-                    }
-                }
-            }
+        // A DISCONNECT has already removed the user, so only connections that died are left here
+        if (user.getIsDead() && users.contains(user)) {
+            ServerMetrics.instance().recordDeadUserRemoval();
+            dropUser(user);
         }
+    }
 
-        lastImageMerge = Instant.now();
-        log.info(new StringBuilder("Room \"").append(name).append("\" prepared middlegrounds for sending."));
+    // Users without an inbox are only read here; each read blocks for up to the poll timeout
+    private void pollUsers() {
+        for (User u : new ArrayList<>(users)) {
+            if (u.getConnection().needsPolling())
+                receiveMessages(u);
+        }
     }
 
-    private void sendMessages() {
-        synchronized (users) {
-            if (users.isEmpty()) {
-                log.info(new StringBuilder("Room \"").append(name).append("\" has no users to send messages to!"));
-                return;
+    private void prepareMiddleGrounds() {
+        if (users.isEmpty())
+            return;
+
+        Map<User, BgraImage> middleGrounds = new HashMap<>();
+        List<User> keyframeUsers = new ArrayList<>();
+
+        long compositeStart = System.nanoTime();
+        for (User destinationUser: users) {
+            long viewStamp = viewStampOf(destinationUser);
+            Long sentViewStamp = sentViewStamps.get(destinationUser);
+            if (sentViewStamp != null && sentViewStamp == viewStamp)
+                continue;
+
+            // Leaving out an empty layer changes nothing, so these users all share the keyframe
+            SparseBgraImage layer = userImages.get(destinationUser);
+            if (layer == null || layer.isTransparent())
+                keyframeUsers.add(destinationUser);
+            else
+                middleGrounds.put(destinationUser, composer.composeExcluding(layerIndexOf(destinationUser)));
+            sentViewStamps.put(destinationUser, viewStamp);
+        }
+
+        for (User user : keyframeUsers) {
+            try {
+                user.sendMessage(new ServerMessage(ServerCommands.SEND_MIDDLEGROUND, keyframe()));
+            } catch (IOException e) {
+                log.error(e);
+                user.markAsDead();
             }
         }
 
+        if (middleGrounds.isEmpty())
+            return;
+        metrics.recordComposite(System.nanoTime() - compositeStart);
 
-        log.info(new StringBuilder("Room \"").append(name).append("\": sending messages..."));
-        synchronized (messagesToSend) {
-            synchronized (messageRecipients) {
-                while (!messagesToSend.isEmpty()) {
-                    ServerMessage message = messagesToSend.poll();
-                    User recipient = messageRecipients.get(message);
+        log.debug(new StringBuilder("Room \"").append(name).append("\" merged images into middlegrounds"));
 
-                    try {
-                        recipient.sendMessage(message);
-                        messageRecipients.remove(message);
-                    } catch (SocketException e) {
-                        log.error(e);
-                        removeUser(recipient);
-                    }
+        for (Map.Entry<User, BgraImage> pair: middleGrounds.entrySet()) {
+            User user = pair.getKey();
+            BgraImage mgImage = pair.getValue();
 
-                }
+            try {
+                long encodeStart = System.nanoTime();
+                byte[] mgImageBytes = ImageCodec.encode(mgImage, codecSelector);
+                ServerMetrics.instance().recordEncode(
+                        System.nanoTime() - encodeStart, Globals.IMAGE_ARR_LENGTH, mgImageBytes.length
+                );
+                user.sendMessage(new ServerMessage(ServerCommands.SEND_MIDDLEGROUND, mgImageBytes));
+            } catch (IOException e) {
+                log.error(e);
+                user.markAsDead();
+            } finally {
+                mgImage.recycle();
             }
         }
 
-        log.info(new StringBuilder("Room \"").append(name).append("\": sending complete!"));
+        log.debug(new StringBuilder("Room \"").append(name).append("\" sent middlegrounds."));
     }
 
     private void handleMessage(User sender, ClientMessage message) {
@@ -312,19 +437,8 @@ public class Room implements Runnable {
         switch (message.getClientCommand()) {
             case POKE, SET_NICKNAME, JOIN_CREATE_ROOM -> {}
             case SEND_IMAGE -> {handleSendImage(sender, message);}
-            case DISCONNECT -> removeUser(sender);
-        }
-    }
-
-    private void handleMessages() {
-        synchronized (messagesToHandle) {
-            while (!messagesToHandle.isEmpty()) {
-                ClientMessage message = messagesToHandle.poll();
-                User sender = messageSenders.get(message);
-
-                handleMessage(sender, message);
-                messageSenders.remove(message);
-            }
+            case SEND_IMAGE_TILES -> {handleSendImageTiles(sender, message);}
+            case DISCONNECT -> dropUser(sender);
         }
     }
 
@@ -332,28 +446,298 @@ public class Room implements Runnable {
         Instant now = Instant.now();
         Duration timeSinceLastRemoval = Duration.between(lastUserRemoval, now);
 
-        synchronized (users) {
-            if (force || (users.isEmpty() && timeSinceLastRemoval.toMinutes() >= Globals.MAX_ROOM_LINGER_MINUTES)) {
-                isRunning.set(false);
-                log.info(new StringBuilder("Room \"").append(name).append("\" set to stop"));
-            }
+        if (force || (users.isEmpty() && timeSinceLastRemoval.toMinutes() >= Globals.MAX_ROOM_LINGER_MINUTES)) {
+            // A replacement room may open the same snapshot as soon as this one stops running
+            closeSnapshot();
+            isRunning.set(false);
+            log.info(new StringBuilder("Room \"").append(name).append("\" set to stop"));
         }
-
-
     }
 
     // Message handlers
 
     private void handleSendImage(User sender, ClientMessage message) {
         byte[] imageBytes = message.getPayload();
+        if (imageBytes == null)
+            return;
+
+        CRC32C crc = new CRC32C();
+        crc.update(imageBytes);
+        long checksum = crc.getValue();
+
+        Long previousChecksum = uploadChecksums.get(sender);
+        if (previousChecksum != null && previousChecksum == checksum)
+            return;
+
         try {
-            BgraImage image = (BgraImage) Utilities.decompressAndDeserialize(imageBytes);
-            synchronized (userImages) {
+            long decodeStart = System.nanoTime();
+            SparseBgraImage image = ImageCodec.decodeSparse(imageBytes);
+            ServerMetrics.instance().recordDecode(
+                    System.nanoTime() - decodeStart, imageBytes.length, image.getPixelBytes()
+            );
+            image.toAlphaMode(Globals.CANVAS_ALPHA_MODE);
+            if (userImages.containsKey(sender)) {
+                composer.setLayer(layerIndexOf(sender), image);
+                keyframe = null;
                 userImages.put(sender, image);
+                markUnsaved(sender, 0, image.getTileCount());
+                uploadChecksums.put(sender, checksum);
+                layerStamps.put(sender, ++lastLayerStamp);
+            }
+        } catch (IOException | IllegalArgumentException e) {
+            log.error(e);
+        }
+    }
+
+    private void handleSendImageTiles(User sender, ClientMessage message) {
+        byte[] patchBytes = message.getPayload();
+        try {
+            long decodeStart = System.nanoTime();
+            ImagePatch patch = ImageCodec.decodePatch(patchBytes);
+            ServerMetrics.instance().recordDecode(
+                    System.nanoTime() - decodeStart, patchBytes.length, patch.getPixelBytes()
+            );
+            SparseBgraImage image = userImages.get(sender);
+            if (image != null && !patch.isEmpty()) {
+                image.apply(patch);
+
+                BitSet changedTiles = new BitSet(image.getTileCount());
+                for (int idx = 0; idx < patch.getTileCount(); ++idx)
+                    changedTiles.set(patch.getTileIndex(idx));
+
+                composer.markChanged(layerIndexOf(sender), changedTiles);
+                markUnsaved(sender, changedTiles);
+                keyframe = null;
+                // The layer no longer matches the last full upload
+                uploadChecksums.remove(sender);
+                layerStamps.put(sender, ++lastLayerStamp);
+            }
+        } catch (IOException | IllegalArgumentException e) {
+            log.error(e);
+        }
+    }
+
+    // Encoded at most once per layer change, however many users it goes to
+    private byte[] keyframe() throws IOException {
+        if (keyframe != null)
+            return keyframe;
+
+        BgraImage composite = composer.composeExcluding(-1);
+        try {
+            long encodeStart = System.nanoTime();
+            keyframe = ImageCodec.encode(composite, codecSelector);
+            ServerMetrics.instance().recordEncode(
+                    System.nanoTime() - encodeStart, Globals.IMAGE_ARR_LENGTH, keyframe.length
+            );
+        } finally {
+            composite.recycle();
+        }
+        return keyframe;
+    }
+
+    // The base layer under the others, which keep their order
+    private void rebuildLayers() {
+        List<SparseBgraImage> layers = new ArrayList<>(composer.getLayerCount() + 1);
+        if (baseLayer != null)
+            layers.add(baseLayer);
+        for (SparseBgraImage layer : composer.getLayers()) {
+            if (layer != baseLayer)
+                layers.add(layer);
+        }
+        composer.setLayers(layers);
+    }
+
+    private void foldIntoBase(SparseBgraImage layer) {
+        SparseBgraImage folded = new SparseBgraImage(
+                Globals.IMAGE_WIDTH, Globals.IMAGE_HEIGHT, Globals.CANVAS_ALPHA_MODE
+        );
+        if (baseLayer == null) {
+            Compositor.overlayAllInto(folded, layer);
+            baseLayer = folded;
+            // The base goes under everybody, which only a rebuild can do
+            rebuildLayers();
+        } else {
+            Compositor.overlayAllInto(folded, baseLayer, layer);
+            composer.setLayer(composer.indexOf(baseLayer), folded);
+            baseLayer = folded;
+        }
+        keyframe = null;
+    }
+
+    // Persistence -----------------------------------------------------------------------------------------------------
+
+    // Users are not connected while their room is restored. If the room keeps departed strokes, their layers are
+    // already in the composite, which becomes the base layer. Otherwise every layer comes back as a layer nobody
+    // owns: it stays for as long as its author is back and leaves with them, and if they do not come back it leaves
+    // RESTORED_LAYER_GRACE_MINUTES after it was last saved, just as if they had left then.
+    private void restoreIfNeeded() {
+        if (restored || store == null)
+            return;
+        restored = true;
+
+        try {
+            snapshot = store.open(name, Globals.IMAGE_WIDTH, Globals.IMAGE_HEIGHT, Globals.TILE_SIZE,
+                    Globals.CANVAS_ALPHA_MODE);
+
+            for (int order : snapshot.getLayers().keySet())
+                nextLayerOrder = Math.max(nextLayerOrder, order + 1);
+
+            List<SparseBgraImage> layers = new ArrayList<>();
+            if (store.keepsDepartedStrokes()) {
+                baseLayer = snapshot.getComposite().restore();
+                if (baseLayer != null)
+                    layers.add(baseLayer);
+                for (int order : List.copyOf(snapshot.getLayers().keySet()))
+                    snapshot.deleteLayer(order);
+            } else {
+                Instant now = Instant.now();
+                // Bottom layer first, as the snapshot lists them
+                for (Map.Entry<Integer, CanvasSnapshot> pair : List.copyOf(snapshot.getLayers().entrySet())) {
+                    Instant expiry = Instant.ofEpochMilli(pair.getValue().getSavedAt())
+                            .plus(Duration.ofMinutes(Globals.RESTORED_LAYER_GRACE_MINUTES));
+                    SparseBgraImage layer = expiry.isAfter(now) ? pair.getValue().restore() : null;
+                    if (layer == null) {
+                        snapshot.deleteLayer(pair.getKey());
+                        continue;
+                    }
+                    restoredLayers.put(pair.getKey(),
+                            new RestoredLayer(snapshot.getNickname(pair.getKey()), layer, expiry));
+                    layers.add(layer);
+                }
             }
-        } catch (IOException | ClassNotFoundException e) {
+
+            if (!layers.isEmpty()) {
+                keyframe = null;
+                composer.setLayers(layers);
+                log.info(new StringBuilder("Room \"").append(name).append("\" restored ").append(layers.size())
+                        .append(layers.size() == 1 ? " layer" : " layers").append(" from its snapshot"));
+            }
+        } catch (IOException | RuntimeException e) {
+            // The room still works, it just starts from a blank canvas and is not persisted
+            log.error(e);
+            snapshot = null;
+        }
+    }
+
+    // Only needed when users take their strokes with them; otherwise the composite holds everything
+    private void openLayerSnapshot(User user) {
+        if (snapshot == null || store.keepsDepartedStrokes())
+            return;
+
+        try {
+            CanvasSnapshot layer = snapshot.openLayer(user.getNickname(), nextLayerOrder++);
+            layer.setSavedAt(System.currentTimeMillis());
+            savedLayers.put(user, layer);
+            unsavedTiles.put(user, new BitSet());
+        } catch (IOException e) {
+            // Only this user's layer goes unsaved
+            log.error(e);
+        }
+    }
+
+    private void markUnsaved(User user, int fromTile, int toTile) {
+        BitSet tiles = unsavedTiles.get(user);
+        if (tiles != null)
+            tiles.set(fromTile, toTile);
+    }
+
+    private void markUnsaved(User user, BitSet changedTiles) {
+        BitSet tiles = unsavedTiles.get(user);
+        if (tiles != null)
+            tiles.or(changedTiles);
+    }
+
+    // Restored layers of users who did not come back in time leave, as their users would have
+    private void dropExpiredLayers() {
+        Instant now = Instant.now();
+        for (Map.Entry<Integer, RestoredLayer> pair : List.copyOf(restoredLayers.entrySet())) {
+            if (pair.getValue().expiry().isBefore(now) && !isConnected(pair.getValue().nickname()))
+                dropRestoredLayer(pair.getKey());
+        }
+    }
+
+    private void dropRestoredLayer(int order) {
+        RestoredLayer layer = restoredLayers.remove(order);
+        composer.removeLayer(layer.image());
+        keyframe = null;
+        // Everybody was looking at the layer that is now gone
+        sentViewStamps.clear();
+        if (snapshot != null)
+            snapshot.deleteLayer(order);
+    }
+
+    private boolean isConnected(String nickname) {
+        return users.stream().anyMatch(user -> user.getNickname().equals(nickname));
+    }
+
+    // Copies the tiles that changed since the last checkpoint into the snapshot, of the composite when departed
+    // strokes are kept and of every connected user's layer otherwise, and leaves the flush to the store
+    private void checkpoint() {
+        if (snapshot == null)
+            return;
+
+        if (snapshot.getComposite() != null) {
+            BitSet tiles = composer.takeChangedTiles();
+            if (!tiles.isEmpty())
+                snapshot.getComposite().write(composer.composeAll(), tiles);
+        }
+
+        long now = System.currentTimeMillis();
+        for (Map.Entry<User, CanvasSnapshot> pair : savedLayers.entrySet()) {
+            BitSet tiles = unsavedTiles.get(pair.getKey());
+            if (!tiles.isEmpty()) {
+                pair.getValue().write(userImages.get(pair.getKey()), tiles);
+                tiles.clear();
+            }
+            // Vouches for the layer even when it did not change, so it counts as fresh should the server stop now
+            pair.getValue().setSavedAt(now);
+        }
+        // A restored layer is as fresh as its author's presence
+        for (Map.Entry<Integer, RestoredLayer> pair : restoredLayers.entrySet()) {
+            CanvasSnapshot layer = snapshot.getLayers().get(pair.getKey());
+            if (layer != null && isConnected(pair.getValue().nickname()))
+                layer.setSavedAt(now);
+        }
+
+        store.flushLater(snapshot);
+    }
+
+    private void closeSnapshot() {
+        if (snapshot == null)
+            return;
+
+        try {
+            checkpoint();
+            snapshot.close();
+        } catch (IOException | RuntimeException e) {
             log.error(e);
         }
+        snapshot = null;
+        savedLayers.clear();
+        unsavedTiles.clear();
+    }
+
+    private void publishConnections() {
+        List<Connection> connections = new ArrayList<>(users.size());
+        for (User u : users)
+            connections.add(u.getConnection());
+        metrics.setConnections(connections);
+    }
+
+    // Newest stamp among the layers in the user's middleground
+    private long viewStampOf(User user) {
+        long viewStamp = 0;
+        for (Map.Entry<User, Long> pair : layerStamps.entrySet()) {
+            if (pair.getKey() != user)
+                viewStamp = Math.max(viewStamp, pair.getValue());
+        }
+        return viewStamp;
+    }
+
+    // Position of the user's layer in the stacking order, -1 when the user has none
+    private int layerIndexOf(User user) {
+        SparseBgraImage layer = userImages.get(user);
+        return layer == null ? -1 : composer.indexOf(layer);
     }
 
     // Getters & Setters
@@ -366,4 +750,3 @@ public class Room implements Runnable {
         return isRunning.get();
     }
 }
-
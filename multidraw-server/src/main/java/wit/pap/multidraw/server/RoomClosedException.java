@@ -0,0 +1,11 @@
+package wit.pap.multidraw.server;
+
+public class RoomClosedException extends Exception {
+    public RoomClosedException(String message) {
+        super(message);
+    }
+
+    public RoomClosedException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
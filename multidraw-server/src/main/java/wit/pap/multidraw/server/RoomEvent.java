@@ -0,0 +1,20 @@
+package wit.pap.multidraw.server;
+
+import java.util.concurrent.CompletableFuture;
+
+// Everything a room reacts to. Events are posted from any thread and handled one at a time on the room thread.
+sealed interface RoomEvent {
+    // Completes once the user is in the room, or exceptionally with DuplicateNicknameException or RoomClosedException
+    record Join(User user, CompletableFuture<Void> result) implements RoomEvent { }
+
+    record Leave(User user) implements RoomEvent { }
+
+    // The user's connection has received a message or has been closed
+    record Readable(User user) implements RoomEvent { }
+
+    record MiddlegroundTick() implements RoomEvent { }
+
+    record UserCheck() implements RoomEvent { }
+
+    record Checkpoint() implements RoomEvent { }
+}
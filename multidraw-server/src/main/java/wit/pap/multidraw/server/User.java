@@ -2,55 +2,46 @@ package wit.pap.multidraw.server;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
+import wit.pap.multidraw.server.metrics.RateLimitedLog;
+import wit.pap.multidraw.server.metrics.ServerMetrics;
+import wit.pap.multidraw.server.transport.Connection;
 import wit.pap.multidraw.shared.communication.ClientMessage;
+import wit.pap.multidraw.shared.communication.Frames;
+import wit.pap.multidraw.shared.communication.Message;
 import wit.pap.multidraw.shared.communication.ServerCommands;
 import wit.pap.multidraw.shared.communication.ServerMessage;
+import wit.pap.multidraw.shared.globals.Globals;
 
 import java.io.*;
-import java.net.Socket;
 import java.net.SocketException;
-import java.net.SocketTimeoutException;
+import java.time.Duration;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 public class User {
     private static final Logger log = LogManager.getLogger(User.class.getName());
-    private final Socket socket;
+    // Per-message lines are debug output, and even then only a few per second reach the log
+    private static final RateLimitedLog messageLog = new RateLimitedLog(20, 1000);
+    private static final RateLimitedLog deadUserLog = new RateLimitedLog(5, 1000);
+    private final Connection connection;
     private String nickname;
     private Room room;
 
-    private final ObjectInputStream in;
-    private final ObjectOutputStream out;
     private final AtomicBoolean isDead;
 
-    public User(Socket socket, String nickname, Room room) {
-        this.socket = socket;
-        try {
-            this.socket.setSoTimeout(400);
-        } catch (SocketException e) {
-            log.error(e);
-        }
+    private static final Duration JOIN_TIMEOUT = Duration.ofSeconds(Globals.HANDSHAKE_TIMEOUT_SECONDS);
+
+    public User(Connection connection, String nickname, Room room) {
+        this.connection = connection;
         this.nickname = nickname;
         this.isDead = new AtomicBoolean(false);
 
-        ObjectInputStream tempIn = null;
-        ObjectOutputStream tempOut = null;
-
-        try {
-            tempOut = new ObjectOutputStream(new BufferedOutputStream(this.socket.getOutputStream()));
-            tempOut.flush();
-            tempIn = new ObjectInputStream(new BufferedInputStream(this.socket.getInputStream()));
-        } catch (IOException e) {
-            log.error(e);
-            markAsDead();
-        }
-
-        in = tempIn;
-        out = tempOut;
-
         if (room != null) {
             try {
-                setRoom(room);
-            } catch (DuplicateNicknameException e) {
+                setRoom(room, JOIN_TIMEOUT);
+            } catch (DuplicateNicknameException | RoomClosedException | TimeoutException e) {
                 this.isDead.set(true);
             }
         }
@@ -59,20 +50,37 @@ public class User {
     public ClientMessage receiveMessage() throws SocketException {
         synchronized (isDead) {
             if (isDead.get()) {
-                log.warn(new StringBuilder("User ").append(this).append(" is dead, ignoring message receive order."));
+                logDeadUser("receive");
                 return null;
             }
         }
 
         try {
-            synchronized (in) {
-                ClientMessage msg = (ClientMessage) in.readObject();
-                log.info(new StringBuilder("[").append(this).append("] Message received: ").append(msg));
-                return msg;
+            ClientMessage msg = connection.poll();
+            if (msg != null) {
+                recordReceived(msg);
+                logMessage("Message received", msg);
             }
-        } catch (SocketTimeoutException e) {
+            return msg;
+        } catch (IOException e) {
+            log.error(e);
+            this.isDead.set(true);
+        }
+
+        return null;
+    }
+
+    // Waits up to timeout for a message, for callers that have nothing else to do in the meantime
+    public ClientMessage receiveMessage(Duration timeout) throws SocketException {
+        if (getIsDead())
+            return null;
 
-        } catch (IOException | ClassNotFoundException e) {
+        try {
+            ClientMessage msg = connection.receive(timeout);
+            if (msg != null)
+                recordReceived(msg);
+            return msg;
+        } catch (IOException e) {
             log.error(e);
             this.isDead.set(true);
         }
@@ -82,33 +90,62 @@ public class User {
 
     public void sendMessage(ServerMessage message) throws SocketException {
         if (isDead.get()) {
-            log.warn(new StringBuilder("User ").append(this).append(" is dead, ignoring message send order."));
+            logDeadUser("send");
             return;
         }
 
         try {
-            synchronized (out) {
-                if (message == null) return;
+            if (message == null) return;
 
-                out.writeObject(message);
-                out.flush();
-            }
-            log.info(new StringBuilder("[").append(this).append("] Sent message: ").append(message));
+            connection.send(message);
+            ServerMetrics.instance().recordSent(
+                    message.getServerCommand(), Frames.HEADER_LENGTH + (long) message.getPayload().length
+            );
+            logMessage("Sent message", message);
         } catch (IOException e) {
             log.error(e);
             this.isDead.set(true);
         }
     }
 
+    // The message is only turned into text once the line is known to be written
+    private void logMessage(String what, Message message) {
+        if (!log.isDebugEnabled())
+            return;
+
+        long suppressed = messageLog.acquire();
+        if (suppressed < 0)
+            return;
+
+        StringBuilder sb = new StringBuilder("[").append(this).append("] ").append(what).append(": ").append(message);
+        if (suppressed > 0)
+            sb.append(" (").append(suppressed).append(" message lines suppressed)");
+        log.debug(sb);
+    }
+
+    private void logDeadUser(String order) {
+        long suppressed = deadUserLog.acquire();
+        if (suppressed < 0)
+            return;
+
+        StringBuilder sb = new StringBuilder("User ").append(this).append(" is dead, ignoring message ")
+                .append(order).append(" order.");
+        if (suppressed > 0)
+            sb.append(" (").append(suppressed).append(" similar lines suppressed)");
+        log.warn(sb);
+    }
+
+    private static void recordReceived(ClientMessage message) {
+        ServerMetrics.instance().recordReceived(
+                message.getClientCommand(), Frames.HEADER_LENGTH + (long) message.getPayload().length
+        );
+    }
+
     public void close() throws IOException {
         markAsDead();
 
         synchronized (this) {
-            try {
-                if (out != null) out.close();
-                if (in != null) in.close();
-                if (socket != null) socket.close();
-            } catch (SocketException ignored) { }
+            connection.close();
         }
     }
 
@@ -117,13 +154,17 @@ public class User {
         return new StringBuilder("USER {")
                 .append(room == null ? "<NO ROOM>" : room.getName())
                 .append("/")
-                .append(nickname == null ? "<NO NICKNAME | " + socket.getInetAddress() + ">" : nickname)
+                .append(nickname == null ? "<NO NICKNAME | " + connection.getRemoteAddress() + ">" : nickname)
                 .append("}")
                 .toString();
     }
 
     // Getters & Setters
 
+    public Connection getConnection() {
+        return connection;
+    }
+
     public String getNickname() {
         return nickname;
     }
@@ -136,24 +177,36 @@ public class User {
         return room;
     }
 
-    public void setRoom(Room room) throws DuplicateNicknameException {
+    // Waits up to timeout for the room thread to take the user in. A room that does not answer in time
+    // is asked to let the user go again, in case it takes the user in later on.
+    public void setRoom(Room room, Duration timeout)
+            throws DuplicateNicknameException, RoomClosedException, TimeoutException {
         try {
-            room.addUser(this);
-            synchronized (out) {
-                out.reset();
-            }
-        } catch (DuplicateNicknameException e) {
-            log.error(e);
+            room.addUser(this).get(timeout.toNanos(), TimeUnit.NANOSECONDS);
+        } catch (TimeoutException e) {
+            room.removeUser(this);
+            markAsDead();
+            throw e;
+        } catch (InterruptedException e) {
+            // Given up on the same way as a timeout, retrying another room would only be interrupted again
+            Thread.currentThread().interrupt();
+            room.removeUser(this);
+            markAsDead();
+            throw new TimeoutException("Interrupted while joining the room!");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RoomClosedException closed)
+                throw closed;
+            if (!(e.getCause() instanceof DuplicateNicknameException duplicate))
+                throw new IllegalStateException(e.getCause());
+
+            log.error(duplicate);
             try {
-                sendMessage(new ServerMessage(ServerCommands.REJECT_FROM_ROOM, e.getMessage().getBytes()));
+                sendMessage(new ServerMessage(ServerCommands.REJECT_FROM_ROOM, duplicate.getMessage().getBytes()));
             } catch (SocketException ex) {
                 log.error(ex);
                 markAsDead();
             }
-            throw e;
-        } catch (IOException e) {
-            log.error(e);
-            markAsDead();
+            throw duplicate;
         }
         this.room = room;
     }
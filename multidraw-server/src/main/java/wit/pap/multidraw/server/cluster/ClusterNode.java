@@ -0,0 +1,37 @@
+package wit.pap.multidraw.server.cluster;
+
+import java.net.InetSocketAddress;
+
+// A backend MultiDrawServer the router can send rooms to
+public record ClusterNode(String host, int port) {
+    public ClusterNode {
+        if (host == null || host.isBlank())
+            throw new IllegalArgumentException("Host cannot be empty!");
+        if (port <= 0 || port > 0xFFFF)
+            throw new IllegalArgumentException("Port is out of range!");
+    }
+
+    // Methods ---------------------------------------------------------------------------------------------------------
+
+    // Parses "host:port"
+    public static ClusterNode parse(String address) {
+        int colon = address.lastIndexOf(':');
+        if (colon <= 0 || colon == address.length() - 1)
+            throw new IllegalArgumentException("Node address \"" + address + "\" is not host:port!");
+
+        try {
+            return new ClusterNode(address.substring(0, colon), Integer.parseInt(address.substring(colon + 1)));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Node address \"" + address + "\" is not host:port!");
+        }
+    }
+
+    public InetSocketAddress toSocketAddress() {
+        return new InetSocketAddress(host, port);
+    }
+
+    @Override
+    public String toString() {
+        return host + ":" + port;
+    }
+}
@@ -0,0 +1,95 @@
+package wit.pap.multidraw.server.cluster;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+
+// Consistent hashing of room names onto nodes. Every node owns virtualNodes points on the ring, so adding or
+// removing a node only moves the rooms between it and its neighbours, about 1/N of them, and the load stays even.
+// Lookups read an immutable ring, changes swap in a new one.
+public class HashRing {
+    private final int virtualNodes;
+    private volatile NavigableMap<Long, ClusterNode> ring;
+    private volatile Set<ClusterNode> members;
+
+    public HashRing(int virtualNodes) {
+        if (virtualNodes <= 0)
+            throw new IllegalArgumentException("Virtual node count needs to be positive!");
+
+        this.virtualNodes = virtualNodes;
+        this.ring = Collections.emptyNavigableMap();
+        this.members = Set.of();
+    }
+
+    // Methods ---------------------------------------------------------------------------------------------------------
+
+    // False when the node was already on the ring
+    public synchronized boolean add(ClusterNode node) {
+        if (members.contains(node))
+            return false;
+
+        NavigableMap<Long, ClusterNode> next = new TreeMap<>(ring);
+        for (int idx = 0; idx < virtualNodes; ++idx)
+            next.putIfAbsent(hash(node + "#" + idx), node);
+
+        swap(next);
+        return true;
+    }
+
+    // False when the node was not on the ring
+    public synchronized boolean remove(ClusterNode node) {
+        if (!members.contains(node))
+            return false;
+
+        NavigableMap<Long, ClusterNode> next = new TreeMap<>(ring);
+        next.values().removeIf(node::equals);
+
+        swap(next);
+        return true;
+    }
+
+    private void swap(NavigableMap<Long, ClusterNode> next) {
+        ring = Collections.unmodifiableNavigableMap(next);
+        members = Collections.unmodifiableSet(new LinkedHashSet<>(next.values()));
+    }
+
+    // The first node clockwise from the key's point, null when the ring is empty
+    public ClusterNode nodeFor(String key) {
+        NavigableMap<Long, ClusterNode> current = ring;
+        if (current.isEmpty())
+            return null;
+
+        Map.Entry<Long, ClusterNode> owner = current.ceilingEntry(hash(key));
+        return owner != null ? owner.getValue() : current.firstEntry().getValue();
+    }
+
+    public boolean contains(ClusterNode node) {
+        return members.contains(node);
+    }
+
+    public Set<ClusterNode> getNodes() {
+        return members;
+    }
+
+    public boolean isEmpty() {
+        return ring.isEmpty();
+    }
+
+    // String.hashCode clusters similar room names, so the points come from a real digest
+    private static long hash(String key) {
+        try {
+            byte[] digest = MessageDigest.getInstance("MD5").digest(key.getBytes(StandardCharsets.UTF_8));
+            return ByteBuffer.wrap(digest).getLong();
+        } catch (NoSuchAlgorithmException e) {
+            // Every JDK ships MD5
+            throw new IllegalStateException(e);
+        }
+    }
+}
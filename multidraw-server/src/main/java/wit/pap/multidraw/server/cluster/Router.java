@@ -0,0 +1,386 @@
+package wit.pap.multidraw.server.cluster;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import wit.pap.multidraw.shared.communication.ClientMessage;
+import wit.pap.multidraw.shared.communication.Frame;
+import wit.pap.multidraw.shared.communication.FrameInputStream;
+import wit.pap.multidraw.shared.communication.Frames;
+import wit.pap.multidraw.shared.communication.ServerCommands;
+import wit.pap.multidraw.shared.communication.ServerMessage;
+import wit.pap.multidraw.shared.globals.Globals;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+// The front end of a cluster. It reads the handshake itself, picks the node that owns the room on the hash ring,
+// replays the handshake to that node and from then on only copies bytes, so neither clients nor nodes can tell
+// it is there. Every connection is served by a pair of virtual threads.
+//
+// A room with live connections stays on its node even if the ring changes under it or the node is taken out,
+// so a room is never split between two nodes; it only moves once it has emptied. A connection its room's node
+// refuses is rejected rather than sent elsewhere, unless nobody else is in the room. Nodes that refuse
+// connections leave the ring until a probe reaches them again.
+public class Router implements Closeable {
+    private static final Logger log = LogManager.getLogger(Router.class.getName());
+    private static final int STREAM_BUFFER_LENGTH = 64 * 1024;
+    private static final Duration HANDSHAKE_POLL_TIMEOUT = Duration.ofMillis(400);
+    private static final Duration HANDSHAKE_TIMEOUT = Duration.ofSeconds(Globals.HANDSHAKE_TIMEOUT_SECONDS);
+
+    private final int port;
+    private final ServerSocket serverSocket;
+    private final AtomicBoolean isRunning;
+
+    // Every node the router knows of; the ring only holds the reachable ones
+    private final Set<ClusterNode> nodes;
+    private final HashRing ring;
+    private final Map<String, Placement> placements;
+    private final ScheduledExecutorService prober;
+
+    private final AtomicLong openConnections, rejectedConnections;
+
+    // Where a room lives while it has connections
+    private static final class Placement {
+        private final ClusterNode node;
+        private int connections;
+
+        private Placement(ClusterNode node) {
+            this.node = node;
+            this.connections = 0;
+        }
+    }
+
+    public Router(int port, Collection<ClusterNode> nodes) throws IOException {
+        if (nodes == null || nodes.isEmpty())
+            throw new IllegalArgumentException("A router needs at least one node!");
+
+        this.port = port;
+        this.serverSocket = new ServerSocket(port);
+        this.isRunning = new AtomicBoolean(false);
+        this.nodes = ConcurrentHashMap.newKeySet();
+        this.ring = new HashRing(Globals.CLUSTER_VIRTUAL_NODES);
+        this.placements = new HashMap<>();
+        this.openConnections = new AtomicLong();
+        this.rejectedConnections = new AtomicLong();
+
+        // Nodes are assumed up until a connection to them fails
+        for (ClusterNode node : nodes)
+            addNode(node);
+
+        this.prober = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "node-prober");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    // Methods ---------------------------------------------------------------------------------------------------------
+
+    public void start() {
+        isRunning.set(true);
+        log.info(new StringBuilder("Router started on port ").append(port).append(" in front of ").append(nodes));
+
+        // A periodic task that throws is never run again, so failures stop here
+        prober.scheduleWithFixedDelay(
+                () -> {
+                    try {
+                        probeMissingNodes();
+                    } catch (Exception e) {
+                        log.error(e);
+                    }
+                },
+                Globals.CLUSTER_NODE_PROBE_INTERVAL_SECONDS, Globals.CLUSTER_NODE_PROBE_INTERVAL_SECONDS,
+                TimeUnit.SECONDS
+        );
+
+        while (isRunning.get()) {
+            try {
+                Socket client = serverSocket.accept();
+                Thread.ofVirtual()
+                        .name(new StringBuilder("route-").append(client.getRemoteSocketAddress()).toString())
+                        .start(() -> route(client));
+            } catch (IOException e) {
+                if (isRunning.get())
+                    log.error(e);
+            }
+        }
+    }
+
+    // Brings a node into the ring; the rooms it now owns move to it once they are empty
+    public void addNode(ClusterNode node) {
+        nodes.add(node);
+        if (ring.add(node))
+            log.info(new StringBuilder("Node ").append(node).append(" joined the ring"));
+    }
+
+    // Takes a node out for good; rooms live on it stay there, and keep taking connections, until they empty
+    public void removeNode(ClusterNode node) {
+        nodes.remove(node);
+        if (ring.remove(node))
+            log.info(new StringBuilder("Node ").append(node).append(" left the ring"));
+    }
+
+    // The node new connections to the room go to, null when no node is reachable
+    public ClusterNode nodeFor(String roomName) {
+        synchronized (placements) {
+            Placement placement = placements.get(roomName);
+            if (placement != null)
+                return placement.node;
+        }
+        return ring.nodeFor(roomName);
+    }
+
+    @Override
+    public void close() throws IOException {
+        isRunning.set(false);
+        prober.shutdownNow();
+        serverSocket.close();
+    }
+
+    private void route(Socket client) {
+        ClusterNode node = null;
+        String roomName = null;
+
+        try (client) {
+            client.setTcpNoDelay(true);
+            InputStream clientIn = new BufferedInputStream(client.getInputStream(), STREAM_BUFFER_LENGTH);
+
+            List<Frame> handshake = new ArrayList<>();
+            roomName = readHandshake(client, new FrameInputStream(clientIn, true), handshake);
+            if (roomName == null)
+                return;
+
+            Socket backend = null;
+            while (backend == null) {
+                node = place(roomName);
+                if (node == null) {
+                    reject(client, roomName);
+                    return;
+                }
+
+                try {
+                    backend = connect(node);
+                } catch (IOException e) {
+                    nodeDown(node, e);
+                    boolean live = release(roomName, node);
+                    node = null;
+                    // The rest of the room is still on that node, so going anywhere else would split it
+                    if (live) {
+                        reject(client, roomName);
+                        return;
+                    }
+                }
+            }
+
+            try (Socket connected = backend) {
+                // The node sees the same frames the client sent, in the same order
+                OutputStream backendOut = new BufferedOutputStream(connected.getOutputStream(), STREAM_BUFFER_LENGTH);
+                for (Frame frame : handshake)
+                    Frames.write(backendOut, Frames.toClientMessage(frame));
+                backendOut.flush();
+
+                log.info(new StringBuilder(client.getRemoteSocketAddress().toString()).append(" routed to node ")
+                        .append(node).append(" for room ").append(roomName));
+
+                openConnections.incrementAndGet();
+                try {
+                    proxy(client, clientIn, connected);
+                } finally {
+                    openConnections.decrementAndGet();
+                }
+            }
+        } catch (IOException e) {
+            log.error(e);
+        } finally {
+            if (node != null)
+                release(roomName, node);
+        }
+    }
+
+    // Forwards every frame up to the room name; null when the client gave up or ran out of time
+    private String readHandshake(Socket client, FrameInputStream in, List<Frame> handshake) throws IOException {
+        client.setSoTimeout((int) HANDSHAKE_POLL_TIMEOUT.toMillis());
+        Instant deadline = Instant.now().plus(HANDSHAKE_TIMEOUT);
+
+        while (Instant.now().isBefore(deadline)) {
+            Frame frame = in.readFrame();
+            if (frame == null)
+                continue;
+
+            handshake.add(frame);
+            ClientMessage message = Frames.toClientMessage(frame);
+            switch (message.getClientCommand()) {
+                case JOIN_CREATE_ROOM -> {
+                    client.setSoTimeout(0);
+                    return new String(message.getPayload());
+                }
+                case DISCONNECT -> {
+                    return null;
+                }
+                default -> {}
+            }
+        }
+
+        log.warn(new StringBuilder("Handshake with ").append(client.getRemoteSocketAddress())
+                .append(" timed out after ").append(HANDSHAKE_TIMEOUT.toSeconds()).append("s"));
+        return null;
+    }
+
+    private Socket connect(ClusterNode node) throws IOException {
+        Socket backend = new Socket();
+        try {
+            backend.connect(node.toSocketAddress(), Globals.CLUSTER_CONNECT_TIMEOUT_MILLIS);
+            backend.setTcpNoDelay(true);
+            return backend;
+        } catch (IOException e) {
+            backend.close();
+            throw e;
+        }
+    }
+
+    // Copies both directions until either side closes, then closes the other one too
+    private void proxy(Socket client, InputStream clientIn, Socket backend) throws IOException {
+        InputStream backendIn = backend.getInputStream();
+        OutputStream backendOut = backend.getOutputStream(), clientOut = client.getOutputStream();
+
+        Thread upstream = Thread.ofVirtual()
+                .name(new StringBuilder("proxy-").append(client.getRemoteSocketAddress()).append("-up").toString())
+                .start(() -> pump(clientIn, backendOut, client, backend));
+        pump(backendIn, clientOut, client, backend);
+
+        try {
+            upstream.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void pump(InputStream in, OutputStream out, Socket client, Socket backend) {
+        try {
+            in.transferTo(out);
+        } catch (IOException e) {
+            // Either side going away ends the session, which is not worth a stack trace
+        } finally {
+            closeQuietly(client);
+            closeQuietly(backend);
+        }
+    }
+
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            log.error(e);
+        }
+    }
+
+    private void reject(Socket client, String roomName) throws IOException {
+        log.warn(new StringBuilder("No node is reachable for room ").append(roomName).append(". Rejecting ")
+                .append(client.getRemoteSocketAddress()).append(". Rejected so far: ")
+                .append(rejectedConnections.incrementAndGet()));
+
+        OutputStream out = client.getOutputStream();
+        String reason = new StringBuilder("No server is available for room \"").append(roomName).append("\".").toString();
+        Frames.write(out, new ServerMessage(ServerCommands.REJECT_FROM_ROOM, reason.getBytes(StandardCharsets.UTF_8)));
+        out.flush();
+    }
+
+    // Room placement --------------------------------------------------------------------------------------------------
+
+    // The room's node, chosen on the ring unless the room is already live on a node
+    private ClusterNode place(String roomName) {
+        synchronized (placements) {
+            Placement placement = placements.get(roomName);
+            if (placement == null) {
+                ClusterNode node = ring.nodeFor(roomName);
+                if (node == null)
+                    return null;
+
+                placement = new Placement(node);
+                placements.put(roomName, placement);
+            }
+
+            ++placement.connections;
+            return placement.node;
+        }
+    }
+
+    // True when the room still has other connections on the node
+    private boolean release(String roomName, ClusterNode node) {
+        synchronized (placements) {
+            Placement placement = placements.get(roomName);
+            if (placement == null || !placement.node.equals(node))
+                return false;
+
+            if (--placement.connections > 0)
+                return true;
+
+            placements.remove(roomName);
+            return false;
+        }
+    }
+
+    private void nodeDown(ClusterNode node, IOException cause) {
+        if (ring.remove(node))
+            log.warn(new StringBuilder("Node ").append(node).append(" is unreachable (").append(cause.getMessage())
+                    .append("), its rooms move to the other nodes once they empty"));
+    }
+
+    // Only nodes that are out of the ring are probed; the ones in it are checked by every routed connection
+    private void probeMissingNodes() {
+        for (ClusterNode node : nodes) {
+            if (ring.contains(node))
+                continue;
+
+            try (Socket probe = connect(node)) {
+                if (nodes.contains(node) && ring.add(node))
+                    log.info(new StringBuilder("Node ").append(node).append(" is reachable again and rejoined the ring"));
+            } catch (IOException e) {
+                log.debug(new StringBuilder("Node ").append(node).append(" is still unreachable"));
+            }
+        }
+    }
+
+    // Getters & Setters -----------------------------------------------------------------------------------------------
+
+    public int getPort() {
+        return port;
+    }
+
+    public Set<ClusterNode> getNodes() {
+        return Set.copyOf(nodes);
+    }
+
+    public Set<ClusterNode> getReachableNodes() {
+        return ring.getNodes();
+    }
+
+    public long getOpenConnections() {
+        return openConnections.get();
+    }
+
+    public long getRejectedConnections() {
+        return rejectedConnections.get();
+    }
+}
@@ -0,0 +1,96 @@
+package wit.pap.multidraw.server.metrics;
+
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+// Fixed-bucket histogram in the shape Prometheus expects. Recording never locks, so it is cheap on hot paths.
+public class Histogram {
+    // Seconds, from half a millisecond up to ten seconds
+    public static final double[] LATENCY_BUCKETS = {
+            0.0005, 0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10
+    };
+
+    // Bytes, from a bare frame header up to the largest payload a frame may carry
+    public static final double[] SIZE_BUCKETS = {
+            16, 64, 256, 1024, 4096, 16384, 65536, 262144, 1048576, 4194304, 16777216, 67108864
+    };
+
+    private final double[] bounds;
+    private final LongAdder[] buckets;
+    private final LongAdder count;
+    private final DoubleAdder sum;
+    private final LongAccumulator max;
+
+    public Histogram(double[] bounds) {
+        if (bounds == null || bounds.length == 0)
+            throw new IllegalArgumentException("Histogram needs at least one bucket!");
+
+        this.bounds = bounds.clone();
+        // The last bucket is +Inf
+        this.buckets = new LongAdder[bounds.length + 1];
+        for (int idx = 0; idx < buckets.length; ++idx)
+            buckets[idx] = new LongAdder();
+        this.count = new LongAdder();
+        this.sum = new DoubleAdder();
+        this.max = new LongAccumulator(Math::max, Long.MIN_VALUE);
+    }
+
+    public static Histogram forLatency() {
+        return new Histogram(LATENCY_BUCKETS);
+    }
+
+    public static Histogram forSize() {
+        return new Histogram(SIZE_BUCKETS);
+    }
+
+    // Methods ---------------------------------------------------------------------------------------------------------
+
+    public void observe(double value) {
+        int idx = 0;
+        while (idx < bounds.length && value > bounds[idx])
+            ++idx;
+
+        buckets[idx].increment();
+        count.increment();
+        sum.add(value);
+        max.accumulate(Double.doubleToLongBits(value));
+    }
+
+    public void observeNanos(long nanos) {
+        observe(nanos / 1e9);
+    }
+
+    // Getters & Setters -----------------------------------------------------------------------------------------------
+
+    public double[] getBounds() {
+        return bounds.clone();
+    }
+
+    // Non-cumulative counts per bucket, the last one being +Inf
+    public long[] getBucketCounts() {
+        long[] counts = new long[buckets.length];
+        for (int idx = 0; idx < buckets.length; ++idx)
+            counts[idx] = buckets[idx].sum();
+        return counts;
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    public double getSum() {
+        return sum.sum();
+    }
+
+    public double getMean() {
+        long n = count.sum();
+        return n == 0 ? 0 : sum.sum() / n;
+    }
+
+    // Non-negative doubles order the same way as their bit patterns
+    public double getMax() {
+        long bits = max.get();
+        return bits == Long.MIN_VALUE ? 0 : Double.longBitsToDouble(bits);
+    }
+}
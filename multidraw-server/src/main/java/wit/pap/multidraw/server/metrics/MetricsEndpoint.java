@@ -0,0 +1,69 @@
+package wit.pap.multidraw.server.metrics;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Executors;
+
+// Serves GET /metrics in the Prometheus text format. Binds to the loopback interface only.
+public class MetricsEndpoint implements Closeable {
+    private static final Logger log = LogManager.getLogger(MetricsEndpoint.class.getName());
+    public static final String PATH = "/metrics";
+
+    private final HttpServer server;
+    private final ServerMetrics metrics;
+
+    public MetricsEndpoint(int port, ServerMetrics metrics) throws IOException {
+        this.metrics = metrics;
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        this.server.createContext(PATH, this::handle);
+        this.server.setExecutor(Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "metrics-endpoint");
+            thread.setDaemon(true);
+            return thread;
+        }));
+    }
+
+    // Methods ---------------------------------------------------------------------------------------------------------
+
+    public void start() {
+        server.start();
+        log.info(new StringBuilder("Metrics available at http://").append(server.getAddress().getHostString())
+                .append(":").append(server.getAddress().getPort()).append(PATH));
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            if (!"GET".equals(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+
+            byte[] body = PrometheusFormat.render(metrics).getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", PrometheusFormat.CONTENT_TYPE);
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        }
+    }
+
+    // Getters & Setters -----------------------------------------------------------------------------------------------
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+}
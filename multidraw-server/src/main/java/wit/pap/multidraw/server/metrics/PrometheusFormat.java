@@ -0,0 +1,147 @@
+package wit.pap.multidraw.server.metrics;
+
+import wit.pap.multidraw.shared.communication.ClientCommands;
+import wit.pap.multidraw.shared.communication.ServerCommands;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+// Renders ServerMetrics in the Prometheus text exposition format, version 0.0.4.
+// Room names are picked by the clients, so per-room series are labelled with the room's id instead, which JMX
+// maps back to the name, and only the MAX_LABELLED_ROOMS most crowded rooms get series of their own.
+public final class PrometheusFormat {
+    public static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+    public static final int MAX_LABELLED_ROOMS = 100;
+
+    private PrometheusFormat() { }
+
+    public static String render(ServerMetrics metrics) {
+        StringBuilder sb = new StringBuilder();
+        List<RoomMetrics> rooms = labelledRooms(metrics);
+
+        gauge(sb, "multidraw_rooms", "Rooms currently open", metrics.getRoomCount());
+        gauge(sb, "multidraw_users", "Users currently in a room", metrics.getUserCount());
+
+        header(sb, "multidraw_room_users", "gauge", "Users in the room");
+        for (RoomMetrics room : rooms)
+            sample(sb, "multidraw_room_users", roomLabel(room), room.getUserCount());
+
+        header(sb, "multidraw_room_outbound_queue_messages", "gauge", "Messages waiting to be written to the room's users");
+        for (RoomMetrics room : rooms)
+            sample(sb, "multidraw_room_outbound_queue_messages", roomLabel(room), room.getOutboundBacklog());
+
+        header(sb, "multidraw_room_outbound_queue_bytes", "gauge", "Payload bytes waiting to be written to the room's users");
+        for (RoomMetrics room : rooms)
+            sample(sb, "multidraw_room_outbound_queue_bytes", roomLabel(room), room.getOutboundBacklogBytes());
+
+        header(sb, "multidraw_room_tick_seconds", "histogram", "Time spent handling one batch of room events");
+        for (RoomMetrics room : rooms)
+            histogram(sb, "multidraw_room_tick_seconds", roomLabel(room), room.getTickDuration());
+
+        header(sb, "multidraw_room_composite_seconds", "histogram", "Time spent compositing the middlegrounds of one tick");
+        for (RoomMetrics room : rooms)
+            histogram(sb, "multidraw_room_composite_seconds", roomLabel(room), room.getCompositeDuration());
+
+        header(sb, "multidraw_encode_seconds", "histogram", "Image encoding time");
+        histogram(sb, "multidraw_encode_seconds", null, metrics.getEncodeDuration());
+        header(sb, "multidraw_decode_seconds", "histogram", "Image decoding time");
+        histogram(sb, "multidraw_decode_seconds", null, metrics.getDecodeDuration());
+
+        counter(sb, "multidraw_codec_raw_bytes_total", "Pixel bytes before encoding or after decoding", metrics.getRawBytes());
+        counter(sb, "multidraw_codec_encoded_bytes_total", "Bytes after encoding or before decoding", metrics.getEncodedBytes());
+        gauge(sb, "multidraw_compression_ratio", "Encoded bytes per raw pixel byte", metrics.getCompressionRatio());
+
+        byCommand(sb, "multidraw_received_bytes_total", "Frame bytes received, by command", metrics.getBytesInByCommand());
+        byCommand(sb, "multidraw_received_messages_total", "Messages received, by command", metrics.getMessagesInByCommand());
+        byCommand(sb, "multidraw_sent_bytes_total", "Frame bytes queued for sending, by command", metrics.getBytesOutByCommand());
+        byCommand(sb, "multidraw_sent_messages_total", "Messages queued for sending, by command", metrics.getMessagesOutByCommand());
+
+        header(sb, "multidraw_received_frame_bytes", "histogram", "Size of received frames, by command");
+        for (ClientCommands command : ClientCommands.values())
+            histogram(sb, "multidraw_received_frame_bytes", label("command", command.name()),
+                    metrics.getReceivedSizes(command));
+        header(sb, "multidraw_sent_frame_bytes", "histogram", "Size of frames queued for sending, by command");
+        for (ServerCommands command : ServerCommands.values())
+            histogram(sb, "multidraw_sent_frame_bytes", label("command", command.name()),
+                    metrics.getSentSizes(command));
+
+        header(sb, "multidraw_handshake_seconds", "histogram", "Time from accepting a connection to joining a room");
+        histogram(sb, "multidraw_handshake_seconds", null, metrics.getHandshakeDuration());
+        counter(sb, "multidraw_handshake_timeouts_total", "Connections closed for not finishing the handshake in time",
+                metrics.getTimedOutHandshakes());
+        counter(sb, "multidraw_handshake_rejections_total", "Connections turned away because too many were waiting to shake hands",
+                metrics.getRejectedHandshakes());
+        counter(sb, "multidraw_dead_user_removals_total", "Users removed after their connection died",
+                metrics.getDeadUserRemovals());
+
+        return sb.toString();
+    }
+
+    private static void header(StringBuilder sb, String name, String type, String help) {
+        sb.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        sb.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private static void gauge(StringBuilder sb, String name, String help, double value) {
+        header(sb, name, "gauge", help);
+        sample(sb, name, null, value);
+    }
+
+    private static void counter(StringBuilder sb, String name, String help, double value) {
+        header(sb, name, "counter", help);
+        sample(sb, name, null, value);
+    }
+
+    private static void byCommand(StringBuilder sb, String name, String help, Map<String, Long> values) {
+        header(sb, name, "counter", help);
+        for (Map.Entry<String, Long> pair : values.entrySet())
+            sample(sb, name, label("command", pair.getKey()), pair.getValue());
+    }
+
+    private static void histogram(StringBuilder sb, String name, String labels, Histogram histogram) {
+        double[] bounds = histogram.getBounds();
+        long[] counts = histogram.getBucketCounts();
+        String prefix = labels == null ? "" : labels + ",";
+
+        long cumulative = 0;
+        for (int idx = 0; idx < counts.length; ++idx) {
+            cumulative += counts[idx];
+            String le = idx < bounds.length ? Double.toString(bounds[idx]) : "+Inf";
+            sample(sb, name + "_bucket", prefix + label("le", le), cumulative);
+        }
+
+        // Taken after the buckets, so _count is never below the +Inf bucket of the same scrape
+        sample(sb, name + "_sum", labels, histogram.getSum());
+        sample(sb, name + "_count", labels, Math.max(cumulative, histogram.getCount()));
+    }
+
+    private static void sample(StringBuilder sb, String name, String labels, double value) {
+        sb.append(name);
+        if (labels != null)
+            sb.append('{').append(labels).append('}');
+        sb.append(' ');
+        if (value == Math.rint(value) && !Double.isInfinite(value))
+            sb.append((long) value);
+        else
+            sb.append(value);
+        sb.append('\n');
+    }
+
+    private static List<RoomMetrics> labelledRooms(ServerMetrics metrics) {
+        return metrics.getRooms().stream()
+                .sorted(Comparator.comparingInt(RoomMetrics::getUserCount).reversed()
+                        .thenComparingLong(RoomMetrics::getId))
+                .limit(MAX_LABELLED_ROOMS)
+                .toList();
+    }
+
+    private static String roomLabel(RoomMetrics room) {
+        return label("room", Long.toString(room.getId()));
+    }
+
+    private static String label(String name, String value) {
+        String escaped = value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+        return name + "=\"" + escaped + "\"";
+    }
+}
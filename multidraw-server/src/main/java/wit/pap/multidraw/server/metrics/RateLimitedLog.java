@@ -0,0 +1,41 @@
+package wit.pap.multidraw.server.metrics;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Lets through at most a fixed number of log lines per interval and counts the rest, so per-message
+// logging cannot dominate a busy room. Windows are approximate under contention, which is fine for logs.
+public class RateLimitedLog {
+    private final int linesPerInterval;
+    private final long intervalNanos;
+    private final AtomicLong windowStart;
+    private final AtomicInteger linesInWindow;
+    private final AtomicLong suppressed;
+
+    public RateLimitedLog(int linesPerInterval, long intervalMillis) {
+        if (linesPerInterval <= 0 || intervalMillis <= 0)
+            throw new IllegalArgumentException("Rate limits need to be positive!");
+
+        this.linesPerInterval = linesPerInterval;
+        this.intervalNanos = intervalMillis * 1_000_000;
+        this.windowStart = new AtomicLong(System.nanoTime());
+        this.linesInWindow = new AtomicInteger();
+        this.suppressed = new AtomicLong();
+    }
+
+    // Methods ---------------------------------------------------------------------------------------------------------
+
+    // -1 when the line should be dropped, otherwise the number of lines dropped since the last one let through
+    public long acquire() {
+        long now = System.nanoTime();
+        long start = windowStart.get();
+        if (now - start >= intervalNanos && windowStart.compareAndSet(start, now))
+            linesInWindow.set(0);
+
+        if (linesInWindow.incrementAndGet() > linesPerInterval) {
+            suppressed.incrementAndGet();
+            return -1;
+        }
+        return suppressed.getAndSet(0);
+    }
+}
@@ -0,0 +1,110 @@
+package wit.pap.multidraw.server.metrics;
+
+import wit.pap.multidraw.server.transport.Connection;
+
+import java.util.List;
+
+// Published by a room thread, read by JMX and the metrics endpoint
+public class RoomMetrics implements RoomMetricsMXBean {
+    // Unique for the life of the process, unlike the name, which a replacement room reuses
+    private final long id;
+    private final String name;
+    private final Histogram tickDuration, compositeDuration;
+    // Replaced as a whole by the room thread whenever its users change
+    private volatile List<Connection> connections;
+
+    public RoomMetrics(long id, String name) {
+        this.id = id;
+        this.name = name;
+        this.tickDuration = Histogram.forLatency();
+        this.compositeDuration = Histogram.forLatency();
+        this.connections = List.of();
+    }
+
+    // Methods ---------------------------------------------------------------------------------------------------------
+
+    // Time spent handling one batch of room events
+    public void recordTick(long nanos) {
+        tickDuration.observeNanos(nanos);
+    }
+
+    // Time spent compositing the middlegrounds of one tick
+    public void recordComposite(long nanos) {
+        compositeDuration.observeNanos(nanos);
+    }
+
+    public void setConnections(List<Connection> connections) {
+        this.connections = List.copyOf(connections);
+    }
+
+    // Getters & Setters -----------------------------------------------------------------------------------------------
+
+    @Override
+    public long getId() {
+        return id;
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public int getUserCount() {
+        return connections.size();
+    }
+
+    @Override
+    public int getOutboundBacklog() {
+        int backlog = 0;
+        for (Connection connection : connections)
+            backlog += connection.getOutboundBacklog();
+        return backlog;
+    }
+
+    @Override
+    public long getOutboundBacklogBytes() {
+        long bytes = 0;
+        for (Connection connection : connections)
+            bytes += connection.getOutboundBacklogBytes();
+        return bytes;
+    }
+
+    @Override
+    public long getTickCount() {
+        return tickDuration.getCount();
+    }
+
+    @Override
+    public double getTickMeanMillis() {
+        return tickDuration.getMean() * 1000;
+    }
+
+    @Override
+    public double getTickMaxMillis() {
+        return tickDuration.getMax() * 1000;
+    }
+
+    @Override
+    public long getCompositeCount() {
+        return compositeDuration.getCount();
+    }
+
+    @Override
+    public double getCompositeMeanMillis() {
+        return compositeDuration.getMean() * 1000;
+    }
+
+    @Override
+    public double getCompositeMaxMillis() {
+        return compositeDuration.getMax() * 1000;
+    }
+
+    public Histogram getTickDuration() {
+        return tickDuration;
+    }
+
+    public Histogram getCompositeDuration() {
+        return compositeDuration;
+    }
+}
@@ -0,0 +1,25 @@
+package wit.pap.multidraw.server.metrics;
+
+public interface RoomMetricsMXBean {
+    long getId();
+
+    String getName();
+
+    int getUserCount();
+
+    int getOutboundBacklog();
+
+    long getOutboundBacklogBytes();
+
+    long getTickCount();
+
+    double getTickMeanMillis();
+
+    double getTickMaxMillis();
+
+    long getCompositeCount();
+
+    double getCompositeMeanMillis();
+
+    double getCompositeMaxMillis();
+}
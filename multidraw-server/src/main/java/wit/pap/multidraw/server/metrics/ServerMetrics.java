@@ -0,0 +1,294 @@
+package wit.pap.multidraw.server.metrics;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import wit.pap.multidraw.shared.communication.ClientCommands;
+import wit.pap.multidraw.shared.communication.ServerCommands;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+// Process-wide server metrics, registered as MBeans under wit.pap.multidraw and rendered by the metrics endpoint
+public class ServerMetrics implements ServerMetricsMXBean {
+    private static final Logger log = LogManager.getLogger(ServerMetrics.class.getName());
+    public static final String JMX_DOMAIN = "wit.pap.multidraw";
+
+    private static final ServerMetrics INSTANCE = new ServerMetrics();
+
+    private final Map<RoomMetrics, ObjectName> rooms;
+    private final AtomicLong roomIds;
+
+    private final Histogram handshakeDuration, encodeDuration, decodeDuration;
+    private final LongAdder timedOutHandshakes, rejectedHandshakes, deadUserRemovals;
+    private final LongAdder rawBytes, encodedBytes;
+    private final LongAdder[] bytesIn, messagesIn, bytesOut, messagesOut;
+    private final Histogram[] sizesIn, sizesOut;
+
+    private ServerMetrics() {
+        this.rooms = new ConcurrentHashMap<>();
+        this.roomIds = new AtomicLong();
+        this.handshakeDuration = Histogram.forLatency();
+        this.encodeDuration = Histogram.forLatency();
+        this.decodeDuration = Histogram.forLatency();
+        this.timedOutHandshakes = new LongAdder();
+        this.rejectedHandshakes = new LongAdder();
+        this.deadUserRemovals = new LongAdder();
+        this.rawBytes = new LongAdder();
+        this.encodedBytes = new LongAdder();
+        this.bytesIn = adders(ClientCommands.values().length);
+        this.messagesIn = adders(ClientCommands.values().length);
+        this.bytesOut = adders(ServerCommands.values().length);
+        this.messagesOut = adders(ServerCommands.values().length);
+        this.sizesIn = sizeHistograms(ClientCommands.values().length);
+        this.sizesOut = sizeHistograms(ServerCommands.values().length);
+
+        register(this, objectName("Server", null, null));
+    }
+
+    public static ServerMetrics instance() {
+        return INSTANCE;
+    }
+
+    // Methods ---------------------------------------------------------------------------------------------------------
+
+    public RoomMetrics registerRoom(String name) {
+        // Ids keep a replacement room apart from the stopped one it replaces until the latter is swept
+        RoomMetrics room = new RoomMetrics(roomIds.incrementAndGet(), name);
+        ObjectName objectName = objectName("Room", name, room.getId());
+        rooms.put(room, objectName);
+        register(room, objectName);
+        return room;
+    }
+
+    public void unregisterRoom(RoomMetrics room) {
+        ObjectName objectName = rooms.remove(room);
+        if (objectName == null)
+            return;
+
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+        } catch (JMException e) {
+            log.warn(e);
+        }
+    }
+
+    public void recordHandshake(long nanos) {
+        handshakeDuration.observeNanos(nanos);
+    }
+
+    public void recordTimedOutHandshake() {
+        timedOutHandshakes.increment();
+    }
+
+    public void recordRejectedHandshake() {
+        rejectedHandshakes.increment();
+    }
+
+    public void recordDeadUserRemoval() {
+        deadUserRemovals.increment();
+    }
+
+    public void recordEncode(long nanos, long raw, long encoded) {
+        encodeDuration.observeNanos(nanos);
+        rawBytes.add(raw);
+        encodedBytes.add(encoded);
+    }
+
+    public void recordDecode(long nanos, long encoded, long raw) {
+        decodeDuration.observeNanos(nanos);
+        rawBytes.add(raw);
+        encodedBytes.add(encoded);
+    }
+
+    public void recordReceived(ClientCommands command, long bytes) {
+        bytesIn[command.ordinal()].add(bytes);
+        messagesIn[command.ordinal()].increment();
+        sizesIn[command.ordinal()].observe(bytes);
+    }
+
+    public void recordSent(ServerCommands command, long bytes) {
+        bytesOut[command.ordinal()].add(bytes);
+        messagesOut[command.ordinal()].increment();
+        sizesOut[command.ordinal()].observe(bytes);
+    }
+
+    private static LongAdder[] adders(int count) {
+        LongAdder[] adders = new LongAdder[count];
+        for (int idx = 0; idx < count; ++idx)
+            adders[idx] = new LongAdder();
+        return adders;
+    }
+
+    private static Histogram[] sizeHistograms(int count) {
+        Histogram[] histograms = new Histogram[count];
+        for (int idx = 0; idx < count; ++idx)
+            histograms[idx] = Histogram.forSize();
+        return histograms;
+    }
+
+    private static ObjectName objectName(String type, String name, Long id) {
+        StringBuilder sb = new StringBuilder(JMX_DOMAIN).append(":type=").append(type);
+        if (name != null)
+            sb.append(",name=").append(ObjectName.quote(name));
+        if (id != null)
+            sb.append(",id=").append(id);
+
+        try {
+            return new ObjectName(sb.toString());
+        } catch (JMException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    // Metrics still work without JMX, so a failed registration is only logged
+    private static void register(Object mbean, ObjectName objectName) {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            server.registerMBean(mbean, objectName);
+        } catch (JMException e) {
+            log.warn(e);
+        }
+    }
+
+    private static Map<String, Long> byCommand(Enum<?>[] commands, LongAdder[] adders) {
+        Map<String, Long> result = new LinkedHashMap<>();
+        for (Enum<?> command : commands)
+            result.put(command.name(), adders[command.ordinal()].sum());
+        return result;
+    }
+
+    // Getters & Setters -----------------------------------------------------------------------------------------------
+
+    public Collection<RoomMetrics> getRooms() {
+        return Collections.unmodifiableCollection(rooms.keySet());
+    }
+
+    @Override
+    public int getRoomCount() {
+        return rooms.size();
+    }
+
+    @Override
+    public int getUserCount() {
+        int users = 0;
+        for (RoomMetrics room : rooms.keySet())
+            users += room.getUserCount();
+        return users;
+    }
+
+    @Override
+    public int getOutboundBacklog() {
+        int backlog = 0;
+        for (RoomMetrics room : rooms.keySet())
+            backlog += room.getOutboundBacklog();
+        return backlog;
+    }
+
+    @Override
+    public long getHandshakeCount() {
+        return handshakeDuration.getCount();
+    }
+
+    @Override
+    public double getHandshakeMeanMillis() {
+        return handshakeDuration.getMean() * 1000;
+    }
+
+    @Override
+    public double getHandshakeMaxMillis() {
+        return handshakeDuration.getMax() * 1000;
+    }
+
+    @Override
+    public long getTimedOutHandshakes() {
+        return timedOutHandshakes.sum();
+    }
+
+    @Override
+    public long getRejectedHandshakes() {
+        return rejectedHandshakes.sum();
+    }
+
+    @Override
+    public long getDeadUserRemovals() {
+        return deadUserRemovals.sum();
+    }
+
+    @Override
+    public long getEncodeCount() {
+        return encodeDuration.getCount();
+    }
+
+    @Override
+    public double getEncodeMeanMillis() {
+        return encodeDuration.getMean() * 1000;
+    }
+
+    @Override
+    public long getDecodeCount() {
+        return decodeDuration.getCount();
+    }
+
+    @Override
+    public double getDecodeMeanMillis() {
+        return decodeDuration.getMean() * 1000;
+    }
+
+    @Override
+    public double getCompressionRatio() {
+        long raw = rawBytes.sum();
+        return raw == 0 ? 0 : (double) encodedBytes.sum() / raw;
+    }
+
+    @Override
+    public Map<String, Long> getBytesInByCommand() {
+        return byCommand(ClientCommands.values(), bytesIn);
+    }
+
+    @Override
+    public Map<String, Long> getBytesOutByCommand() {
+        return byCommand(ServerCommands.values(), bytesOut);
+    }
+
+    public Map<String, Long> getMessagesInByCommand() {
+        return byCommand(ClientCommands.values(), messagesIn);
+    }
+
+    public Map<String, Long> getMessagesOutByCommand() {
+        return byCommand(ServerCommands.values(), messagesOut);
+    }
+
+    public Histogram getReceivedSizes(ClientCommands command) {
+        return sizesIn[command.ordinal()];
+    }
+
+    public Histogram getSentSizes(ServerCommands command) {
+        return sizesOut[command.ordinal()];
+    }
+
+    public Histogram getHandshakeDuration() {
+        return handshakeDuration;
+    }
+
+    public Histogram getEncodeDuration() {
+        return encodeDuration;
+    }
+
+    public Histogram getDecodeDuration() {
+        return decodeDuration;
+    }
+
+    public long getRawBytes() {
+        return rawBytes.sum();
+    }
+
+    public long getEncodedBytes() {
+        return encodedBytes.sum();
+    }
+}
@@ -0,0 +1,38 @@
+package wit.pap.multidraw.server.metrics;
+
+import java.util.Map;
+
+public interface ServerMetricsMXBean {
+    int getRoomCount();
+
+    int getUserCount();
+
+    int getOutboundBacklog();
+
+    long getHandshakeCount();
+
+    double getHandshakeMeanMillis();
+
+    double getHandshakeMaxMillis();
+
+    long getTimedOutHandshakes();
+
+    long getRejectedHandshakes();
+
+    long getDeadUserRemovals();
+
+    long getEncodeCount();
+
+    double getEncodeMeanMillis();
+
+    long getDecodeCount();
+
+    double getDecodeMeanMillis();
+
+    // Encoded bytes per raw pixel byte, over everything encoded and decoded so far
+    double getCompressionRatio();
+
+    Map<String, Long> getBytesInByCommand();
+
+    Map<String, Long> getBytesOutByCommand();
+}
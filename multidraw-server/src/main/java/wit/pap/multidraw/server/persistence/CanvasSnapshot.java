@@ -0,0 +1,195 @@
+package wit.pap.multidraw.server.persistence;
+
+import wit.pap.multidraw.shared.AlphaMode;
+import wit.pap.multidraw.shared.SparseBgraImage;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.BitSet;
+
+// A room canvas kept in a memory-mapped file. Every tile has a fixed slot, so a checkpoint only copies the
+// tiles that changed into the page cache; empty tiles are never written, which keeps the file sparse on disk.
+//
+// Layout: a 48-byte header (magic, version, width, height, tile size, alpha mode, tile count, order, saved-at
+// millis, reserved), one presence byte per tile, then the tile slots in tile order, each exactly as long as its tile.
+public class CanvasSnapshot implements Closeable {
+    private static final int MAGIC = 0x4D444356; // "MDCV"
+    private static final int VERSION = 2;
+    private static final int HEADER_LENGTH = 48;
+    private static final int ORDER_OFFSET = 28, SAVED_AT_OFFSET = 32;
+    private static final byte EMPTY = 0, POPULATED = 1;
+
+    private final FileChannel channel;
+    private final MappedByteBuffer buffer;
+    private final int width, height, tileSize, tileCount;
+    private final AlphaMode alphaMode;
+    // Slot offsets of every tile within the file
+    private final long[] slots;
+
+    private CanvasSnapshot(FileChannel channel, MappedByteBuffer buffer, SparseBgraImage geometry, long[] slots) {
+        this.channel = channel;
+        this.buffer = buffer;
+        this.width = geometry.getWidth();
+        this.height = geometry.getHeight();
+        this.tileSize = geometry.getTileSize();
+        this.tileCount = geometry.getTileCount();
+        this.alphaMode = geometry.getAlphaMode();
+        this.slots = slots;
+    }
+
+    // Methods ---------------------------------------------------------------------------------------------------------
+
+    // Opens the snapshot at file, starting it over when it is missing or was written for another canvas geometry
+    public static CanvasSnapshot open(Path file, int width, int height, int tileSize, AlphaMode alphaMode)
+            throws IOException {
+        SparseBgraImage geometry = new SparseBgraImage(width, height, tileSize, alphaMode);
+        int tileCount = geometry.getTileCount();
+
+        long[] slots = new long[tileCount];
+        long offset = HEADER_LENGTH + tileCount;
+        for (int tileIndex = 0; tileIndex < tileCount; ++tileIndex) {
+            slots[tileIndex] = offset;
+            offset += geometry.getTileLength(tileIndex);
+        }
+        long fileLength = offset;
+        if (fileLength > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("Canvas is too large to be mapped at once!");
+
+        FileChannel channel = FileChannel.open(
+                file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE
+        );
+        try {
+            boolean matches = channel.size() == fileLength;
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, fileLength);
+
+            matches = matches
+                    && buffer.getInt(0) == MAGIC
+                    && buffer.getInt(4) == VERSION
+                    && buffer.getInt(8) == width
+                    && buffer.getInt(12) == height
+                    && buffer.getInt(16) == tileSize
+                    && buffer.getInt(20) == alphaMode.ordinal()
+                    && buffer.getInt(24) == tileCount;
+
+            if (!matches) {
+                buffer.putInt(0, 0);
+                // Clearing the presence bytes is enough, slots are only read for populated tiles
+                for (int idx = 0; idx < tileCount; ++idx)
+                    buffer.put(HEADER_LENGTH + idx, EMPTY);
+
+                buffer.putInt(4, VERSION);
+                buffer.putInt(8, width);
+                buffer.putInt(12, height);
+                buffer.putInt(16, tileSize);
+                buffer.putInt(20, alphaMode.ordinal());
+                buffer.putInt(24, tileCount);
+                buffer.putInt(ORDER_OFFSET, 0);
+                buffer.putLong(SAVED_AT_OFFSET, 0);
+                // The magic goes last, so a torn header never looks valid
+                buffer.putInt(0, MAGIC);
+                buffer.force();
+            }
+
+            return new CanvasSnapshot(channel, buffer, geometry, slots);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    // False for files that were discarded, or never got as far as a complete header
+    public static boolean isValid(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(8);
+            while (header.hasRemaining()) {
+                if (channel.read(header) < 0)
+                    return false;
+            }
+            return header.getInt(0) == MAGIC && header.getInt(4) == VERSION;
+        }
+    }
+
+    // The stored canvas, or null when nothing has been drawn on it
+    public SparseBgraImage restore() {
+        SparseBgraImage image = new SparseBgraImage(width, height, tileSize, alphaMode);
+
+        for (int tileIndex = 0; tileIndex < tileCount; ++tileIndex) {
+            if (buffer.get(HEADER_LENGTH + tileIndex) != POPULATED)
+                continue;
+
+            byte[] tile = new byte[image.getTileLength(tileIndex)];
+            buffer.get((int) slots[tileIndex], tile);
+            image.setTile(tileIndex, tile);
+        }
+
+        return image.isTransparent() ? null : image;
+    }
+
+    // Copies the given tiles of canvas into the mapping; a null canvas clears them
+    public void write(SparseBgraImage canvas, BitSet tiles) {
+        if (canvas != null && (canvas.getWidth() != width || canvas.getHeight() != height
+                || canvas.getTileSize() != tileSize || canvas.getAlphaMode() != alphaMode))
+            throw new IllegalArgumentException("Canvas does not match the snapshot!");
+
+        for (int tileIndex = tiles.nextSetBit(0); tileIndex >= 0 && tileIndex < tileCount;
+             tileIndex = tiles.nextSetBit(tileIndex + 1)) {
+            byte[] tile = canvas == null ? null : canvas.getTile(tileIndex);
+
+            if (tile == null) {
+                buffer.put(HEADER_LENGTH + tileIndex, EMPTY);
+                continue;
+            }
+
+            // The slot is filled before the tile is marked present, so a crash never exposes half a tile
+            buffer.put(HEADER_LENGTH + tileIndex, EMPTY);
+            buffer.put((int) slots[tileIndex], tile);
+            buffer.put(HEADER_LENGTH + tileIndex, POPULATED);
+        }
+    }
+
+    // Flushes written tiles to the disk. Safe to call from another thread while the owner keeps writing.
+    public void force() {
+        buffer.force();
+    }
+
+    // Invalidates the header, for a file that cannot be deleted while it is still mapped
+    public void discard() {
+        buffer.putInt(0, 0);
+        force();
+    }
+
+    @Override
+    public void close() throws IOException {
+        force();
+        channel.close();
+    }
+
+    // Getters & Setters -----------------------------------------------------------------------------------------------
+
+    public int getTileCount() {
+        return tileCount;
+    }
+
+    // Free for the owner to use, e.g. for the stacking order of a layer
+    public int getOrder() {
+        return buffer.getInt(ORDER_OFFSET);
+    }
+
+    public void setOrder(int order) {
+        buffer.putInt(ORDER_OFFSET, order);
+    }
+
+    // When the owner last vouched for the contents, in epoch milliseconds; 0 if never
+    public long getSavedAt() {
+        return buffer.getLong(SAVED_AT_OFFSET);
+    }
+
+    public void setSavedAt(long millis) {
+        buffer.putLong(SAVED_AT_OFFSET, millis);
+    }
+}
@@ -0,0 +1,188 @@
+package wit.pap.multidraw.server.persistence;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import wit.pap.multidraw.shared.AlphaMode;
+import wit.pap.multidraw.shared.globals.Globals;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+// The directory holding one RoomSnapshot per room name. Flushing mapped pages to the disk happens on the
+// store's own thread, so a room only pays for copying its dirty tiles.
+//
+// Rooms that have not been opened for SNAPSHOT_RETENTION_DAYS are deleted, and at most MAX_SNAPSHOT_ROOMS are
+// kept: opening a new one deletes the least recently used closed ones, and fails when all of them are open.
+public class CanvasStore {
+    private static final Logger log = LogManager.getLogger(CanvasStore.class.getName());
+    private static final Duration RETENTION = Duration.ofDays(Globals.SNAPSHOT_RETENTION_DAYS);
+    private static final String ROOM_EXTENSION = ".room";
+
+    private final Path directory;
+    private final boolean keepDepartedStrokes;
+    private final ScheduledExecutorService flusher;
+    // Room directories currently open, which are never swept
+    private final Set<Path> open;
+
+    public CanvasStore(Path directory) throws IOException {
+        this(directory, false);
+    }
+
+    public CanvasStore(Path directory, boolean keepDepartedStrokes) throws IOException {
+        this.directory = Files.createDirectories(directory);
+        this.keepDepartedStrokes = keepDepartedStrokes;
+        this.open = new HashSet<>();
+        this.flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "canvas-flusher");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        // A periodic task that throws is never run again, so failures stop here
+        flusher.scheduleWithFixedDelay(
+                () -> {
+                    try {
+                        sweep();
+                    } catch (RuntimeException e) {
+                        log.error(e);
+                    }
+                },
+                0, Globals.SNAPSHOT_SWEEP_INTERVAL_MINUTES, TimeUnit.MINUTES
+        );
+    }
+
+    // Methods ---------------------------------------------------------------------------------------------------------
+
+    public RoomSnapshot open(String roomName, int width, int height, int tileSize, AlphaMode alphaMode)
+            throws IOException {
+        Path roomDirectory = directoryFor(roomName);
+
+        synchronized (open) {
+            if (!open.add(roomDirectory))
+                throw new IOException("Snapshot of room \"" + roomName + "\" is already open!");
+        }
+
+        try {
+            if (!Files.isDirectory(roomDirectory))
+                makeRoom();
+            return RoomSnapshot.open(this, roomDirectory, width, height, tileSize, alphaMode, keepDepartedStrokes);
+        } catch (IOException | RuntimeException e) {
+            synchronized (open) {
+                open.remove(roomDirectory);
+            }
+            throw e;
+        }
+    }
+
+    public void flushLater(RoomSnapshot snapshot) {
+        flusher.execute(() -> {
+            try {
+                snapshot.force();
+            } catch (RuntimeException e) {
+                log.error(e);
+            }
+        });
+    }
+
+    // Deletes closed rooms past the retention period, then the least recently used ones beyond the quota
+    public void sweep() {
+        synchronized (open) {
+            List<Map.Entry<Path, FileTime>> closed = closedRooms();
+            Instant expiry = Instant.now().minus(RETENTION);
+
+            int kept = open.size() + closed.size();
+            for (Map.Entry<Path, FileTime> room : closed) {
+                if (room.getValue().toInstant().isBefore(expiry) || kept > Globals.MAX_SNAPSHOT_ROOMS) {
+                    delete(room.getKey());
+                    --kept;
+                }
+            }
+        }
+    }
+
+    // Called by the snapshot once it is closed
+    void release(RoomSnapshot snapshot) {
+        synchronized (open) {
+            try {
+                // The last use is what the retention period counts from
+                Files.setLastModifiedTime(snapshot.getDirectory(), FileTime.from(Instant.now()));
+            } catch (IOException e) {
+                log.error(e);
+            }
+            open.remove(snapshot.getDirectory());
+        }
+    }
+
+    // Frees a slot for a room that has no directory yet
+    private void makeRoom() throws IOException {
+        synchronized (open) {
+            List<Map.Entry<Path, FileTime>> closed = closedRooms();
+            int excess = open.size() + closed.size() - Globals.MAX_SNAPSHOT_ROOMS;
+            if (excess > closed.size())
+                throw new IOException("All " + Globals.MAX_SNAPSHOT_ROOMS + " room snapshots are in use!");
+
+            for (int idx = 0; idx < excess; ++idx)
+                delete(closed.get(idx).getKey());
+        }
+    }
+
+    // Least recently used first
+    private List<Map.Entry<Path, FileTime>> closedRooms() {
+        List<Map.Entry<Path, FileTime>> rooms = new ArrayList<>();
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(directory, "*" + ROOM_EXTENSION)) {
+            for (Path entry : entries) {
+                if (Files.isDirectory(entry) && !open.contains(entry))
+                    rooms.add(Map.entry(entry, Files.getLastModifiedTime(entry)));
+            }
+        } catch (IOException e) {
+            log.error(e);
+        }
+
+        rooms.sort(Map.Entry.comparingByValue(Comparator.naturalOrder()));
+        return rooms;
+    }
+
+    private static void delete(Path roomDirectory) {
+        try (Stream<Path> files = Files.list(roomDirectory)) {
+            for (Path file : (Iterable<Path>) files::iterator)
+                Files.deleteIfExists(file);
+            Files.deleteIfExists(roomDirectory);
+            log.info(new StringBuilder("Deleted room snapshot ").append(roomDirectory.getFileName()));
+        } catch (IOException e) {
+            log.error(e);
+        }
+    }
+
+    // Room names may hold any character, so the directory name is their hex-encoded UTF-8
+    private Path directoryFor(String roomName) {
+        return directory.resolve(HexFormat.of().formatHex(roomName.getBytes(StandardCharsets.UTF_8)) + ROOM_EXTENSION);
+    }
+
+    // Getters & Setters -----------------------------------------------------------------------------------------------
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    // Whether what users drew stays in the room after they leave, instead of leaving with them
+    public boolean keepsDepartedStrokes() {
+        return keepDepartedStrokes;
+    }
+}
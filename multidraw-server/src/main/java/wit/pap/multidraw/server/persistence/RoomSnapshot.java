@@ -0,0 +1,193 @@
+package wit.pap.multidraw.server.persistence;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import wit.pap.multidraw.shared.AlphaMode;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeSet;
+
+// Everything persisted for one room, in a directory of its own: the layer of every user and, when the store keeps
+// departed strokes, the composite of the canvas, each a CanvasSnapshot. Layers are told apart by their stacking
+// order, which is never reused within a room, so files are named after it and the hex-encoded UTF-8 nickname of
+// their user. Only the room thread uses it; the store flushes it from its own thread.
+public class RoomSnapshot implements Closeable {
+    private static final Logger log = LogManager.getLogger(RoomSnapshot.class.getName());
+    private static final String COMPOSITE_FILE = "composite.canvas";
+    private static final String LAYER_EXTENSION = ".layer";
+
+    private final CanvasStore store;
+    private final Path directory;
+    private final int width, height, tileSize;
+    private final AlphaMode alphaMode;
+    // Null when the composite is not kept
+    private final CanvasSnapshot composite;
+    // By order. Written from the room thread and read by the flusher, hence replaced rather than changed.
+    private volatile Map<Integer, CanvasSnapshot> layers;
+    private final Map<Integer, String> nicknames;
+
+    private RoomSnapshot(CanvasStore store, Path directory, int width, int height, int tileSize, AlphaMode alphaMode,
+                         CanvasSnapshot composite, Map<Integer, CanvasSnapshot> layers, Map<Integer, String> nicknames) {
+        this.store = store;
+        this.directory = directory;
+        this.width = width;
+        this.height = height;
+        this.tileSize = tileSize;
+        this.alphaMode = alphaMode;
+        this.composite = composite;
+        this.layers = layers;
+        this.nicknames = nicknames;
+    }
+
+    // Methods ---------------------------------------------------------------------------------------------------------
+
+    // Layer files that were discarded while still mapped are deleted here, now that nothing maps them
+    static RoomSnapshot open(CanvasStore store, Path directory, int width, int height, int tileSize,
+                             AlphaMode alphaMode, boolean withComposite) throws IOException {
+        Files.createDirectories(directory);
+        Path compositeFile = directory.resolve(COMPOSITE_FILE);
+        CanvasSnapshot composite = null;
+        if (withComposite)
+            composite = CanvasSnapshot.open(compositeFile, width, height, tileSize, alphaMode);
+        else
+            Files.deleteIfExists(compositeFile);
+
+        Map<Integer, CanvasSnapshot> found = new HashMap<>();
+        Map<Integer, String> nicknames = new HashMap<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + LAYER_EXTENSION)) {
+            for (Path file : files) {
+                Map.Entry<Integer, String> name = parseLayerFile(file);
+                if (name == null || !CanvasSnapshot.isValid(file)) {
+                    Files.deleteIfExists(file);
+                    continue;
+                }
+
+                found.put(name.getKey(), CanvasSnapshot.open(file, width, height, tileSize, alphaMode));
+                nicknames.put(name.getKey(), name.getValue());
+            }
+        } catch (IOException | RuntimeException e) {
+            for (CanvasSnapshot layer : found.values())
+                layer.close();
+            if (composite != null)
+                composite.close();
+            throw e;
+        }
+
+        Map<Integer, CanvasSnapshot> layers = new LinkedHashMap<>();
+        for (Integer order : new TreeSet<>(found.keySet()))
+            layers.put(order, found.get(order));
+
+        return new RoomSnapshot(store, directory, width, height, tileSize, alphaMode, composite, layers, nicknames);
+    }
+
+    // A new layer for nickname at the given stacking order, which must not be in use yet
+    public CanvasSnapshot openLayer(String nickname, int order) throws IOException {
+        if (layers.containsKey(order))
+            throw new IllegalArgumentException("Layer order " + order + " is already in use!");
+
+        CanvasSnapshot layer = CanvasSnapshot.open(layerFile(nickname, order), width, height, tileSize, alphaMode);
+        layer.setOrder(order);
+
+        Map<Integer, CanvasSnapshot> changed = new LinkedHashMap<>(layers);
+        changed.put(order, layer);
+        layers = changed;
+        nicknames.put(order, nickname);
+        return layer;
+    }
+
+    // Some systems refuse to delete a file that is still mapped, and a mapping only goes away once it is garbage
+    // collected. The layer is discarded first, so whatever is left over is deleted on the next open.
+    public void deleteLayer(int order) {
+        CanvasSnapshot layer = layers.get(order);
+        if (layer == null)
+            return;
+
+        Map<Integer, CanvasSnapshot> changed = new LinkedHashMap<>(layers);
+        changed.remove(order);
+        layers = changed;
+        String nickname = nicknames.remove(order);
+
+        try {
+            layer.discard();
+            layer.close();
+        } catch (IOException e) {
+            log.error(e);
+        }
+
+        try {
+            Files.deleteIfExists(layerFile(nickname, order));
+        } catch (IOException e) {
+            log.debug(new StringBuilder("Layer ").append(order).append(" of ").append(directory.getFileName())
+                    .append(" is deleted on the next open: ").append(e.getMessage()));
+        }
+    }
+
+    // Flushes everything written so far to the disk. Safe to call from another thread while the room keeps writing.
+    public void force() {
+        if (composite != null)
+            composite.force();
+        for (CanvasSnapshot layer : layers.values())
+            layer.force();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            if (composite != null)
+                composite.close();
+            for (CanvasSnapshot layer : layers.values())
+                layer.close();
+        } finally {
+            store.release(this);
+        }
+    }
+
+    private Path layerFile(String nickname, int order) {
+        return directory.resolve(new StringBuilder().append(order).append('-')
+                .append(HexFormat.of().formatHex(nickname.getBytes(StandardCharsets.UTF_8)))
+                .append(LAYER_EXTENSION).toString());
+    }
+
+    // The order and nickname a layer file is named after, null for files that are not named like a layer
+    private static Map.Entry<Integer, String> parseLayerFile(Path file) {
+        String fileName = file.getFileName().toString();
+        int separator = fileName.indexOf('-');
+        try {
+            int order = Integer.parseInt(fileName, 0, separator, 10);
+            byte[] nickname = HexFormat.of().parseHex(fileName, separator + 1,
+                    fileName.length() - LAYER_EXTENSION.length());
+            return Map.entry(order, new String(nickname, StandardCharsets.UTF_8));
+        } catch (IndexOutOfBoundsException | IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    // Getters & Setters -----------------------------------------------------------------------------------------------
+
+    // Null when the store does not keep departed strokes
+    public CanvasSnapshot getComposite() {
+        return composite;
+    }
+
+    // The persisted layers by order, bottom layer first
+    public Map<Integer, CanvasSnapshot> getLayers() {
+        return layers;
+    }
+
+    public String getNickname(int order) {
+        return nicknames.get(order);
+    }
+
+    Path getDirectory() {
+        return directory;
+    }
+}
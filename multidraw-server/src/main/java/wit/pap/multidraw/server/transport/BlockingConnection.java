@@ -0,0 +1,126 @@
+package wit.pap.multidraw.server.transport;
+
+import wit.pap.multidraw.shared.communication.ClientMessage;
+import wit.pap.multidraw.shared.communication.Frame;
+import wit.pap.multidraw.shared.communication.FrameInputStream;
+import wit.pap.multidraw.shared.communication.Frames;
+import wit.pap.multidraw.shared.communication.ServerMessage;
+import wit.pap.multidraw.shared.globals.Globals;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.net.SocketException;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class BlockingConnection implements Connection {
+    public static final int POLL_TIMEOUT_MILLIS = 400;
+    private static final int STREAM_BUFFER_LENGTH = 64 * 1024;
+
+    private final Socket socket;
+    private final FrameInputStream in;
+    private final OutboundQueue outbox;
+    private final Thread writer;
+    private final AtomicBoolean isOpen;
+
+    public BlockingConnection(Socket socket) throws IOException {
+        this.socket = socket;
+        this.socket.setSoTimeout(POLL_TIMEOUT_MILLIS);
+        this.socket.setTcpNoDelay(true);
+        this.in = new FrameInputStream(new BufferedInputStream(socket.getInputStream(), STREAM_BUFFER_LENGTH), true);
+        this.outbox = new OutboundQueue(Globals.MAX_OUTBOUND_MESSAGES);
+        this.isOpen = new AtomicBoolean(true);
+        // Reads stay with the polling room, writes get their own thread so a slow client cannot stall the room
+        this.writer = StreamWriter.start(
+                "connection-" + socket.getRemoteSocketAddress() + "-writer", outbox,
+                new BufferedOutputStream(socket.getOutputStream(), STREAM_BUFFER_LENGTH), this::close
+        );
+    }
+
+    @Override
+    public ClientMessage poll() throws IOException {
+        checkOpen();
+
+        synchronized (in) {
+            Frame frame = in.readFrame();
+            return frame == null ? null : Frames.toClientMessage(frame);
+        }
+    }
+
+    @Override
+    public ClientMessage receive(Duration timeout) throws IOException {
+        checkOpen();
+
+        synchronized (in) {
+            socket.setSoTimeout((int) Math.max(1, timeout.toMillis()));
+            try {
+                Frame frame = in.readFrame();
+                return frame == null ? null : Frames.toClientMessage(frame);
+            } finally {
+                socket.setSoTimeout(POLL_TIMEOUT_MILLIS);
+            }
+        }
+    }
+
+    @Override
+    public void send(ServerMessage message) throws IOException {
+        checkOpen();
+
+        if (!outbox.offer(message)) {
+            close();
+            throw new SocketException("Outbound backlog exceeded, the client is not keeping up.");
+        }
+    }
+
+    @Override
+    public void setMessageListener(Runnable listener) { }
+
+    @Override
+    public boolean needsPolling() {
+        return true;
+    }
+
+    @Override
+    public int getOutboundBacklog() {
+        return outbox.size();
+    }
+
+    @Override
+    public long getOutboundBacklogBytes() {
+        return outbox.getBytes();
+    }
+
+    @Override
+    public long getSupersededMiddlegrounds() {
+        return outbox.getSupersededCount();
+    }
+
+    @Override
+    public boolean isOpen() {
+        return isOpen.get() && !socket.isClosed();
+    }
+
+    @Override
+    public InetAddress getRemoteAddress() {
+        return socket.getInetAddress();
+    }
+
+    @Override
+    public void close() {
+        if (!isOpen.getAndSet(false))
+            return;
+
+        try {
+            socket.close();
+        } catch (IOException ignored) { }
+        writer.interrupt();
+    }
+
+    private void checkOpen() throws SocketException {
+        if (!isOpen())
+            throw new SocketException("Connection is closed.");
+    }
+}
@@ -0,0 +1,27 @@
+package wit.pap.multidraw.server.transport;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+
+public class BlockingTransport implements Transport {
+    private final ServerSocket serverSocket;
+
+    public BlockingTransport(int port) throws IOException {
+        this.serverSocket = new ServerSocket(port);
+    }
+
+    @Override
+    public Connection accept() throws IOException {
+        return new BlockingConnection(serverSocket.accept());
+    }
+
+    @Override
+    public TransportMode getMode() {
+        return TransportMode.BLOCKING;
+    }
+
+    @Override
+    public void close() throws IOException {
+        serverSocket.close();
+    }
+}
@@ -0,0 +1,40 @@
+package wit.pap.multidraw.server.transport;
+
+import wit.pap.multidraw.shared.communication.ClientMessage;
+import wit.pap.multidraw.shared.communication.ServerMessage;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.time.Duration;
+
+// One client connection, independent of how its bytes are moved
+public interface Connection {
+    // The next message if one is ready, null otherwise. Transports without an inbox may wait up to their poll timeout.
+    ClientMessage poll() throws IOException;
+
+    // Waits up to timeout for the next message, null when none arrived
+    ClientMessage receive(Duration timeout) throws IOException;
+
+    // Queues the message for writing. Throws once the client has fallen too far behind, closing the connection.
+    void send(ServerMessage message) throws IOException;
+
+    // Messages queued but not yet handed to the socket
+    int getOutboundBacklog();
+
+    long getOutboundBacklogBytes();
+
+    // Middlegrounds that were replaced by a newer one before they could be written
+    long getSupersededMiddlegrounds();
+
+    // Called whenever a message lands in the inbox or the connection closes, so the reader can sleep in between
+    void setMessageListener(Runnable listener);
+
+    // Whether messages are only read while poll() is called, in which case the listener never fires
+    boolean needsPolling();
+
+    boolean isOpen();
+
+    InetAddress getRemoteAddress();
+
+    void close();
+}
@@ -0,0 +1,268 @@
+package wit.pap.multidraw.server.transport;
+
+import wit.pap.multidraw.shared.communication.ClientMessage;
+import wit.pap.multidraw.shared.communication.FrameDecoder;
+import wit.pap.multidraw.shared.communication.Frames;
+import wit.pap.multidraw.shared.communication.ServerMessage;
+import wit.pap.multidraw.shared.globals.Globals;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// Reads and writes happen on the owning NioLoop; rooms only see the inbox and the outbox.
+// A full inbox stops reading from the socket until the room has taken messages out, so a client that sends
+// faster than its room keeps up is held back by TCP instead of growing the inbox.
+public class NioConnection implements Connection {
+    private static final int READ_BUFFER_LENGTH = 64 * 1024;
+
+    private final SocketChannel channel;
+    private final NioLoop loop;
+    private final InetAddress remoteAddress;
+    private final AtomicBoolean isOpen;
+
+    private final BlockingQueue<ClientMessage> inbox;
+    private volatile Runnable messageListener;
+    private final OutboundQueue outbox;
+    private volatile boolean readPaused;
+    private final AtomicBoolean resumeRequested;
+
+    // Owned by the loop thread
+    private final ByteBuffer readBuffer;
+    private final FrameDecoder decoder;
+    private SelectionKey key;
+    // Messages decoded after the inbox filled up, at most one read buffer's worth
+    private final Queue<ClientMessage> overflow;
+    // The frame being written, taken off the outbox once its first byte may have gone out
+    private ByteBuffer[] writing;
+
+    NioConnection(SocketChannel channel, NioLoop loop) throws IOException {
+        this.channel = channel;
+        this.loop = loop;
+        this.remoteAddress = channel.socket().getInetAddress();
+        this.isOpen = new AtomicBoolean(true);
+        this.inbox = new LinkedBlockingQueue<>(Globals.MAX_INBOUND_MESSAGES);
+        this.outbox = new OutboundQueue(Globals.MAX_OUTBOUND_MESSAGES);
+        this.readPaused = false;
+        this.resumeRequested = new AtomicBoolean(false);
+        this.readBuffer = ByteBuffer.allocateDirect(READ_BUFFER_LENGTH);
+        this.decoder = new FrameDecoder(true);
+        this.overflow = new ArrayDeque<>();
+    }
+
+    @Override
+    public ClientMessage poll() throws IOException {
+        ClientMessage message = inbox.poll();
+        if (message == null)
+            checkOpen();
+        else
+            requestResume();
+        return message;
+    }
+
+    @Override
+    public ClientMessage receive(Duration timeout) throws IOException {
+        ClientMessage message;
+        try {
+            message = inbox.poll(timeout.toMillis(), TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+
+        if (message == null)
+            checkOpen();
+        else
+            requestResume();
+        return message;
+    }
+
+    @Override
+    public void send(ServerMessage message) throws IOException {
+        checkOpen();
+
+        if (!outbox.offer(message)) {
+            close();
+            throw new SocketException("Outbound backlog exceeded, the client is not keeping up.");
+        }
+        loop.requestWrite(this);
+    }
+
+    @Override
+    public void setMessageListener(Runnable listener) {
+        messageListener = listener;
+        if (listener != null && !inbox.isEmpty())
+            listener.run();
+    }
+
+    @Override
+    public boolean needsPolling() {
+        return false;
+    }
+
+    @Override
+    public int getOutboundBacklog() {
+        return outbox.size();
+    }
+
+    @Override
+    public long getOutboundBacklogBytes() {
+        return outbox.getBytes();
+    }
+
+    @Override
+    public long getSupersededMiddlegrounds() {
+        return outbox.getSupersededCount();
+    }
+
+    @Override
+    public boolean isOpen() {
+        return isOpen.get();
+    }
+
+    @Override
+    public InetAddress getRemoteAddress() {
+        return remoteAddress;
+    }
+
+    @Override
+    public void close() {
+        if (!isOpen.getAndSet(false))
+            return;
+
+        try {
+            channel.close();
+        } catch (IOException ignored) { }
+        notifyListener();
+    }
+
+    private void requestResume() {
+        if (readPaused && resumeRequested.compareAndSet(false, true))
+            loop.requestRead(this);
+    }
+
+    // The reader also needs waking up when the connection goes away, to notice it is gone
+    private void notifyListener() {
+        Runnable listener = messageListener;
+        if (listener != null)
+            listener.run();
+    }
+
+    private void checkOpen() throws SocketException {
+        if (!isOpen.get())
+            throw new SocketException("Connection is closed.");
+    }
+
+    // Loop thread -----------------------------------------------------------------------------------------------------
+
+    void register(Selector selector) {
+        try {
+            key = channel.register(selector, SelectionKey.OP_READ, this);
+            flush();
+        } catch (IOException e) {
+            close();
+        }
+    }
+
+    void onReadable() {
+        try {
+            int read = 0;
+            while (!readPaused && (read = channel.read(readBuffer)) > 0) {
+                readBuffer.flip();
+                decoder.decode(readBuffer, frame -> {
+                    try {
+                        deliver(Frames.toClientMessage(frame));
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+                readBuffer.clear();
+            }
+
+            if (read < 0)
+                close();
+        } catch (IOException | UncheckedIOException e) {
+            close();
+        }
+    }
+
+    private void deliver(ClientMessage message) {
+        if (overflow.isEmpty() && inbox.offer(message)) {
+            notifyListener();
+            return;
+        }
+
+        overflow.add(message);
+        if (!readPaused) {
+            readPaused = true;
+            key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+            // The room may have made room before it could see the pause, and then it would not ask to resume
+            drainOverflow();
+        }
+        notifyListener();
+    }
+
+    void resumeReading() {
+        resumeRequested.set(false);
+        if (key != null && key.isValid() && readPaused) {
+            drainOverflow();
+            notifyListener();
+        }
+    }
+
+    // Moves what overflowed into the inbox and reads again once all of it fit
+    private void drainOverflow() {
+        ClientMessage message;
+        while ((message = overflow.peek()) != null && inbox.offer(message))
+            overflow.poll();
+
+        if (overflow.isEmpty()) {
+            readPaused = false;
+            key.interestOps(key.interestOps() | SelectionKey.OP_READ);
+        }
+    }
+
+    // Writes as much of the outbox as the socket takes, and asks for OP_WRITE if something is left
+    void flush() {
+        if (key == null || !key.isValid())
+            return;
+
+        try {
+            while (true) {
+                if (writing == null) {
+                    ServerMessage next = outbox.poll();
+                    if (next == null)
+                        break;
+                    writing = Frames.encode(next);
+                }
+
+                channel.write(writing);
+                if (writing[writing.length - 1].hasRemaining()) {
+                    key.interestOps(readOps() | SelectionKey.OP_WRITE);
+                    return;
+                }
+                writing = null;
+            }
+
+            key.interestOps(readOps());
+        } catch (IOException e) {
+            close();
+        }
+    }
+
+    private int readOps() {
+        return readPaused ? 0 : SelectionKey.OP_READ;
+    }
+}
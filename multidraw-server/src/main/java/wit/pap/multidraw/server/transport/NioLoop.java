@@ -0,0 +1,98 @@
+package wit.pap.multidraw.server.transport;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+// One selector thread. Other threads never touch its keys, they queue requests and wake the selector up.
+class NioLoop implements Runnable {
+    private static final Logger log = LogManager.getLogger(NioLoop.class.getName());
+
+    private final Selector selector;
+    private final Queue<NioConnection> registrations;
+    private final Queue<NioConnection> writeRequests;
+    private final Queue<NioConnection> readRequests;
+    private final Runnable onAcceptable;
+
+    NioLoop(Runnable onAcceptable) throws IOException {
+        this.selector = Selector.open();
+        this.registrations = new ConcurrentLinkedQueue<>();
+        this.writeRequests = new ConcurrentLinkedQueue<>();
+        this.readRequests = new ConcurrentLinkedQueue<>();
+        this.onAcceptable = onAcceptable;
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (selector.isOpen()) {
+                selector.select();
+                processRequests();
+
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+
+                    if (!key.isValid())
+                        continue;
+
+                    if (key.isAcceptable()) {
+                        onAcceptable.run();
+                        continue;
+                    }
+
+                    NioConnection connection = (NioConnection) key.attachment();
+                    if (key.isReadable())
+                        connection.onReadable();
+                    if (key.isValid() && key.isWritable())
+                        connection.flush();
+                }
+            }
+        } catch (ClosedSelectorException ignored) {
+            // The transport has been closed
+        } catch (IOException e) {
+            log.error(e);
+        }
+    }
+
+    Selector getSelector() {
+        return selector;
+    }
+
+    void register(NioConnection connection) {
+        registrations.add(connection);
+        selector.wakeup();
+    }
+
+    void requestWrite(NioConnection connection) {
+        writeRequests.add(connection);
+        selector.wakeup();
+    }
+
+    void requestRead(NioConnection connection) {
+        readRequests.add(connection);
+        selector.wakeup();
+    }
+
+    void close() throws IOException {
+        selector.close();
+    }
+
+    private void processRequests() {
+        NioConnection connection;
+        while ((connection = registrations.poll()) != null)
+            connection.register(selector);
+        while ((connection = writeRequests.poll()) != null)
+            connection.flush();
+        while ((connection = readRequests.poll()) != null)
+            connection.resumeReading();
+    }
+}
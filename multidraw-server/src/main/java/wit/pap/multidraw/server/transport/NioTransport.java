@@ -0,0 +1,83 @@
+package wit.pap.multidraw.server.transport;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+public class NioTransport implements Transport {
+    private static final Logger log = LogManager.getLogger(NioTransport.class.getName());
+    public static final int DEFAULT_IO_THREADS = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() / 2));
+
+    private final ServerSocketChannel serverChannel;
+    private final NioLoop[] loops;
+    private final BlockingQueue<Connection> accepted;
+    private int nextLoop;
+
+    public NioTransport(int port, int ioThreads) throws IOException {
+        if (ioThreads <= 0)
+            throw new IllegalArgumentException("At least one I/O thread is needed!");
+
+        this.serverChannel = ServerSocketChannel.open();
+        this.serverChannel.bind(new InetSocketAddress(port));
+        this.serverChannel.configureBlocking(false);
+        this.accepted = new LinkedBlockingQueue<>();
+
+        // The first loop also accepts, the rest only move bytes
+        this.loops = new NioLoop[ioThreads];
+        for (int idx = 0; idx < ioThreads; ++idx)
+            loops[idx] = new NioLoop(idx == 0 ? this::acceptPending : null);
+
+        serverChannel.register(loops[0].getSelector(), SelectionKey.OP_ACCEPT);
+
+        for (int idx = 0; idx < ioThreads; ++idx) {
+            Thread thread = new Thread(loops[idx], "nio-io-" + idx);
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    @Override
+    public Connection accept() throws InterruptedException {
+        return accepted.take();
+    }
+
+    @Override
+    public TransportMode getMode() {
+        return TransportMode.NIO;
+    }
+
+    @Override
+    public void close() throws IOException {
+        serverChannel.close();
+        for (NioLoop loop : loops)
+            loop.close();
+    }
+
+    // Runs on the first loop
+    private void acceptPending() {
+        try {
+            SocketChannel channel;
+            while ((channel = serverChannel.accept()) != null) {
+                channel.configureBlocking(false);
+                channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+
+                NioLoop loop = loops[nextLoop];
+                nextLoop = (nextLoop + 1) % loops.length;
+
+                NioConnection connection = new NioConnection(channel, loop);
+                loop.register(connection);
+                accepted.add(connection);
+            }
+        } catch (IOException e) {
+            log.error(e);
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package wit.pap.multidraw.server.transport;
+
+import wit.pap.multidraw.shared.communication.ServerCommands;
+import wit.pap.multidraw.shared.communication.ServerMessage;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+// Messages waiting to be written to one client. A middleground is only worth sending if it is the newest one,
+// so a new SEND_MIDDLEGROUND replaces an undelivered one in place; everything else is kept in order.
+// The queue is bounded, and a client that falls that far behind is disconnected rather than losing control messages.
+// Guarded by a ReentrantLock rather than a monitor, so a virtual thread parked in take() releases its carrier.
+class OutboundQueue {
+    // Every queued message sits in a slot, so the pending middleground can be swapped without reordering
+    private static final class Slot {
+        private ServerMessage message;
+
+        private Slot(ServerMessage message) {
+            this.message = message;
+        }
+    }
+
+    private final int capacity;
+    private final ReentrantLock lock;
+    private final Condition notEmpty;
+    private final Deque<Slot> slots;
+    private Slot middleground;
+    private long bytes, supersededCount;
+
+    OutboundQueue(int capacity) {
+        if (capacity <= 0)
+            throw new IllegalArgumentException("Capacity needs to be positive!");
+
+        this.capacity = capacity;
+        this.lock = new ReentrantLock();
+        this.notEmpty = lock.newCondition();
+        this.slots = new ArrayDeque<>();
+        this.middleground = null;
+        this.bytes = 0;
+        this.supersededCount = 0;
+    }
+
+    // Methods ---------------------------------------------------------------------------------------------------------
+
+    // False when the queue is full; the message is not added then
+    boolean offer(ServerMessage message) {
+        lock.lock();
+        try {
+            if (message.getServerCommand() == ServerCommands.SEND_MIDDLEGROUND && middleground != null) {
+                bytes += payloadLength(message) - payloadLength(middleground.message);
+                middleground.message = message;
+                ++supersededCount;
+                return true;
+            }
+
+            if (slots.size() >= capacity)
+                return false;
+
+            Slot slot = new Slot(message);
+            if (message.getServerCommand() == ServerCommands.SEND_MIDDLEGROUND)
+                middleground = slot;
+
+            slots.add(slot);
+            bytes += payloadLength(message);
+            notEmpty.signal();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Null when the queue is empty
+    ServerMessage poll() {
+        lock.lock();
+        try {
+            return dequeue();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    ServerMessage take() throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            while (slots.isEmpty())
+                notEmpty.await();
+            return dequeue();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private ServerMessage dequeue() {
+        Slot slot = slots.poll();
+        if (slot == null)
+            return null;
+
+        if (slot == middleground)
+            middleground = null;
+
+        bytes -= payloadLength(slot.message);
+        return slot.message;
+    }
+
+    private static int payloadLength(ServerMessage message) {
+        return message.getPayload() == null ? 0 : message.getPayload().length;
+    }
+
+    // Getters & Setters -----------------------------------------------------------------------------------------------
+
+    int size() {
+        lock.lock();
+        try {
+            return slots.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    long getBytes() {
+        lock.lock();
+        try {
+            return bytes;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Middlegrounds replaced by a newer one before they were written
+    long getSupersededCount() {
+        lock.lock();
+        try {
+            return supersededCount;
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package wit.pap.multidraw.server.transport;
+
+import wit.pap.multidraw.shared.communication.Frames;
+import wit.pap.multidraw.shared.communication.ServerMessage;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+// Drains an OutboundQueue into a blocking stream on a virtual thread, so a slow client only ever stalls its own writer
+final class StreamWriter {
+    private StreamWriter() { }
+
+    static Thread start(String name, OutboundQueue outbox, OutputStream out, Runnable onFailure) {
+        return Thread.ofVirtual().name(name).start(() -> {
+            try {
+                while (!Thread.currentThread().isInterrupted()) {
+                    Frames.write(out, outbox.take());
+
+                    // Batch whatever queued up in the meantime into the same flush
+                    ServerMessage next;
+                    while ((next = outbox.poll()) != null)
+                        Frames.write(out, next);
+                    out.flush();
+                }
+            } catch (InterruptedException ignored) {
+            } catch (IOException e) {
+                onFailure.run();
+            }
+        });
+    }
+}
@@ -0,0 +1,12 @@
+package wit.pap.multidraw.server.transport;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+// Accepts client connections on the server port
+public interface Transport extends Closeable {
+    // Blocks until the next client connects
+    Connection accept() throws IOException, InterruptedException;
+
+    TransportMode getMode();
+}
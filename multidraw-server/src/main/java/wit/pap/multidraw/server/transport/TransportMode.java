@@ -0,0 +1,28 @@
+package wit.pap.multidraw.server.transport;
+
+import java.io.IOException;
+
+public enum TransportMode {
+    // One blocking socket per user, polled by the room thread with a short read timeout
+    BLOCKING,
+    // Non-blocking channels multiplexed over a few selector threads
+    NIO,
+    // One blocking socket per user, read and written by its own virtual threads
+    VIRTUAL_THREADS;
+
+    public Transport open(int port) throws IOException {
+        return switch (this) {
+            case BLOCKING -> new BlockingTransport(port);
+            case NIO -> new NioTransport(port, NioTransport.DEFAULT_IO_THREADS);
+            case VIRTUAL_THREADS -> new VirtualThreadTransport(port);
+        };
+    }
+
+    public static TransportMode fromString(String name) {
+        for (TransportMode mode : values()) {
+            if (mode.name().equalsIgnoreCase(name.replace('-', '_')))
+                return mode;
+        }
+        throw new IllegalArgumentException("Unknown transport \"" + name + "\"!");
+    }
+}
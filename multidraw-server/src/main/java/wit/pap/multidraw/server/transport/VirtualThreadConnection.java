@@ -0,0 +1,179 @@
+package wit.pap.multidraw.server.transport;
+
+import wit.pap.multidraw.shared.communication.ClientMessage;
+import wit.pap.multidraw.shared.communication.Frame;
+import wit.pap.multidraw.shared.communication.FrameInputStream;
+import wit.pap.multidraw.shared.communication.Frames;
+import wit.pap.multidraw.shared.communication.ServerMessage;
+import wit.pap.multidraw.shared.globals.Globals;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.net.SocketException;
+import java.time.Duration;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// A blocking socket served by its own pair of virtual threads: the reader fills the inbox, the writer drains
+// the outbox. Rooms only see the queues, as with the NIO transport. A full inbox parks the reader.
+public class VirtualThreadConnection implements Connection {
+    private static final int STREAM_BUFFER_LENGTH = 64 * 1024;
+    // Only there so that a frame trickling in is noticed; an idle reader just reads again
+    private static final int READ_TIMEOUT_MILLIS = 1000;
+
+    private final Socket socket;
+    private final InetAddress remoteAddress;
+    private final AtomicBoolean isOpen;
+
+    private final BlockingQueue<ClientMessage> inbox;
+    private volatile Runnable messageListener;
+    private final OutboundQueue outbox;
+
+    private final Thread reader, writer;
+
+    public VirtualThreadConnection(Socket socket) throws IOException {
+        this.socket = socket;
+        this.socket.setSoTimeout(READ_TIMEOUT_MILLIS);
+        this.socket.setTcpNoDelay(true);
+        this.remoteAddress = socket.getInetAddress();
+        this.isOpen = new AtomicBoolean(true);
+        this.inbox = new LinkedBlockingQueue<>(Globals.MAX_INBOUND_MESSAGES);
+        this.outbox = new OutboundQueue(Globals.MAX_OUTBOUND_MESSAGES);
+
+        FrameInputStream in = new FrameInputStream(
+                new BufferedInputStream(socket.getInputStream(), STREAM_BUFFER_LENGTH), true
+        );
+        BufferedOutputStream out = new BufferedOutputStream(socket.getOutputStream(), STREAM_BUFFER_LENGTH);
+
+        String name = new StringBuilder("connection-").append(socket.getRemoteSocketAddress()).toString();
+        this.writer = StreamWriter.start(name + "-writer", outbox, out, this::close);
+        this.reader = Thread.ofVirtual().name(name + "-reader").start(() -> readLoop(in));
+    }
+
+    @Override
+    public ClientMessage poll() throws IOException {
+        ClientMessage message = inbox.poll();
+        if (message == null)
+            checkOpen();
+        return message;
+    }
+
+    @Override
+    public ClientMessage receive(Duration timeout) throws IOException {
+        ClientMessage message;
+        try {
+            message = inbox.poll(timeout.toMillis(), TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+
+        if (message == null)
+            checkOpen();
+        return message;
+    }
+
+    @Override
+    public void send(ServerMessage message) throws IOException {
+        checkOpen();
+        if (!outbox.offer(message)) {
+            close();
+            throw new SocketException("Outbound backlog exceeded, the client is not keeping up.");
+        }
+    }
+
+    @Override
+    public void setMessageListener(Runnable listener) {
+        messageListener = listener;
+        if (listener != null && !inbox.isEmpty())
+            listener.run();
+    }
+
+    @Override
+    public boolean needsPolling() {
+        return false;
+    }
+
+    @Override
+    public int getOutboundBacklog() {
+        return outbox.size();
+    }
+
+    @Override
+    public long getOutboundBacklogBytes() {
+        return outbox.getBytes();
+    }
+
+    @Override
+    public long getSupersededMiddlegrounds() {
+        return outbox.getSupersededCount();
+    }
+
+    @Override
+    public boolean isOpen() {
+        return isOpen.get();
+    }
+
+    @Override
+    public InetAddress getRemoteAddress() {
+        return remoteAddress;
+    }
+
+    @Override
+    public void close() {
+        if (!isOpen.getAndSet(false))
+            return;
+
+        // Closing the socket unblocks a reading reader; one waiting for room in the inbox and the writer,
+        // parked on the outbox, need an interrupt
+        try {
+            socket.close();
+        } catch (IOException ignored) { }
+        reader.interrupt();
+        writer.interrupt();
+        notifyListener();
+    }
+
+    // Blocks while the inbox is full, which stops reading and so holds the client back through TCP
+    private void deliver(ClientMessage message) throws SocketException {
+        try {
+            while (!inbox.offer(message, READ_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS))
+                checkOpen();
+        } catch (InterruptedException e) {
+            throw new SocketException("Interrupted while waiting for the room to take messages.");
+        }
+        notifyListener();
+    }
+
+    // The reader also needs waking up when the connection goes away, to notice it is gone
+    private void notifyListener() {
+        Runnable listener = messageListener;
+        if (listener != null)
+            listener.run();
+    }
+
+    private void checkOpen() throws SocketException {
+        if (!isOpen.get())
+            throw new SocketException("Connection is closed.");
+    }
+
+    // Reader thread ---------------------------------------------------------------------------------------------------
+
+    private void readLoop(FrameInputStream in) {
+        try {
+            while (isOpen.get()) {
+                Frame frame = in.readFrame();
+                if (frame != null)
+                    deliver(Frames.toClientMessage(frame));
+            }
+        } catch (IOException ignored) {
+        } finally {
+            close();
+        }
+    }
+}
@@ -0,0 +1,78 @@
+package wit.pap.multidraw.server;
+
+import org.junit.jupiter.api.Test;
+import wit.pap.multidraw.shared.BgraImage;
+import wit.pap.multidraw.shared.SparseBgraImage;
+import wit.pap.multidraw.shared.globals.Globals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class MiddlegroundComposerTest {
+    private static final int ROUNDS = 60;
+
+    // Joins and leaves in any order need to compose exactly what a full rebuild of the same layers does
+    @Test
+    void incrementalChangesMatchRebuild() {
+        SplittableRandom random = new SplittableRandom(7);
+        MiddlegroundComposer incremental = newComposer();
+        List<SparseBgraImage> layers = new ArrayList<>();
+
+        for (int round = 0; round < ROUNDS; ++round) {
+            if (!layers.isEmpty() && random.nextInt(3) == 0) {
+                SparseBgraImage gone = layers.remove(random.nextInt(layers.size()));
+                incremental.removeLayer(gone);
+            } else {
+                SparseBgraImage layer = randomLayer(random);
+                layers.add(layer);
+                incremental.addLayer(layer);
+            }
+
+            MiddlegroundComposer rebuilt = newComposer();
+            rebuilt.setLayers(layers);
+
+            assertEquals(layers, incremental.getLayers());
+            assertComposesSame(rebuilt, incremental, -1, -1);
+            if (!layers.isEmpty()) {
+                SparseBgraImage excluded = layers.get(random.nextInt(layers.size()));
+                assertComposesSame(rebuilt, incremental, rebuilt.indexOf(excluded), incremental.indexOf(excluded));
+            }
+        }
+    }
+
+    private static void assertComposesSame(MiddlegroundComposer expected, MiddlegroundComposer actual,
+                                   int expectedExcluded, int actualExcluded) {
+        BgraImage expectedImage = expected.composeExcluding(expectedExcluded);
+        BgraImage actualImage = actual.composeExcluding(actualExcluded);
+        try {
+            assertArrayEquals(expectedImage.getImageArr(), actualImage.getImageArr());
+        } finally {
+            expectedImage.recycle();
+            actualImage.recycle();
+        }
+    }
+
+    private static MiddlegroundComposer newComposer() {
+        return new MiddlegroundComposer(Globals.IMAGE_WIDTH, Globals.IMAGE_HEIGHT, Globals.CANVAS_ALPHA_MODE);
+    }
+
+    // A few overlapping opaque squares, so that the stacking order shows. Opaque pixels blend exactly, while
+    // half transparent ones could round differently when the tree groups the layers differently.
+    private static SparseBgraImage randomLayer(SplittableRandom random) {
+        SparseBgraImage layer = new SparseBgraImage(Globals.IMAGE_WIDTH, Globals.IMAGE_HEIGHT, Globals.CANVAS_ALPHA_MODE);
+        byte shade = (byte) random.nextInt(256);
+
+        for (int square = 0; square < 3; ++square) {
+            int x0 = random.nextInt(Globals.IMAGE_WIDTH - 100), y0 = random.nextInt(Globals.IMAGE_HEIGHT - 100);
+            for (int y = y0; y < y0 + 100; ++y) {
+                for (int x = x0; x < x0 + 100; ++x)
+                    layer.setBGRA(x, y, shade, shade, shade, (byte) 255);
+            }
+        }
+        return layer;
+    }
+}
@@ -0,0 +1,96 @@
+package wit.pap.multidraw.server.cluster;
+
+import org.junit.jupiter.api.Test;
+import wit.pap.multidraw.shared.globals.Globals;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class HashRingTest {
+    private static final int ROOMS = 10_000;
+    private static final List<ClusterNode> NODES = List.of(
+            new ClusterNode("node-a", 12346), new ClusterNode("node-b", 12347),
+            new ClusterNode("node-c", 12348), new ClusterNode("node-d", 12349)
+    );
+
+    // Rings built with the same nodes agree on every room, whatever order the nodes came in
+    @Test
+    void ownershipIsStable() {
+        HashRing ring = ringOf(NODES);
+        HashRing reversed = ringOf(NODES.reversed());
+
+        assertNull(new HashRing(Globals.CLUSTER_VIRTUAL_NODES).nodeFor("room"));
+        for (int idx = 0; idx < ROOMS; ++idx) {
+            String room = "room-" + idx;
+            assertEquals(ring.nodeFor(room), ring.nodeFor(room));
+            assertEquals(ring.nodeFor(room), reversed.nodeFor(room));
+        }
+    }
+
+    // Only the new node takes rooms, and about 1/N of them
+    @Test
+    void addingANodeMovesAboutOneNthOfTheRooms() {
+        HashRing ring = ringOf(NODES.subList(0, NODES.size() - 1));
+        Map<String, ClusterNode> before = owners(ring);
+
+        ClusterNode added = NODES.getLast();
+        ring.add(added);
+
+        int moved = 0;
+        for (Map.Entry<String, ClusterNode> pair : before.entrySet()) {
+            ClusterNode owner = ring.nodeFor(pair.getKey());
+            if (owner.equals(pair.getValue()))
+                continue;
+
+            assertEquals(added, owner);
+            ++moved;
+        }
+        assertAboutOneNth(moved, NODES.size());
+    }
+
+    // Only the rooms of the removed node move, about 1/N of them
+    @Test
+    void removingANodeMovesOnlyItsRooms() {
+        HashRing ring = ringOf(NODES);
+        Map<String, ClusterNode> before = owners(ring);
+
+        ClusterNode removed = NODES.getFirst();
+        ring.remove(removed);
+
+        int moved = 0;
+        for (Map.Entry<String, ClusterNode> pair : before.entrySet()) {
+            ClusterNode owner = ring.nodeFor(pair.getKey());
+            if (pair.getValue().equals(removed))
+                ++moved;
+            else
+                assertEquals(pair.getValue(), owner);
+        }
+        assertAboutOneNth(moved, NODES.size());
+    }
+
+    private static HashRing ringOf(List<ClusterNode> nodes) {
+        HashRing ring = new HashRing(Globals.CLUSTER_VIRTUAL_NODES);
+        for (ClusterNode node : nodes)
+            ring.add(node);
+        return ring;
+    }
+
+    private static Map<String, ClusterNode> owners(HashRing ring) {
+        Map<String, ClusterNode> owners = new HashMap<>();
+        for (int idx = 0; idx < ROOMS; ++idx)
+            owners.put("room-" + idx, ring.nodeFor("room-" + idx));
+        return owners;
+    }
+
+    // Within half of the ideal share either way, which virtual nodes keep the ring well inside of
+    private static void assertAboutOneNth(int moved, int nodeCount) {
+        double share = (double) moved / ROOMS;
+        assertTrue(share > 0.5 / nodeCount && share < 1.5 / nodeCount,
+                "Moved " + moved + " of " + ROOMS + " rooms");
+    }
+}
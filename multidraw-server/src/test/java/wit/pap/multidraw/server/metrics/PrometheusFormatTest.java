@@ -0,0 +1,49 @@
+package wit.pap.multidraw.server.metrics;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PrometheusFormatTest {
+    // Room names come from clients and must never end up in a label
+    @Test
+    void labelsRoomsByIdOnly() {
+        ServerMetrics metrics = ServerMetrics.instance();
+        RoomMetrics first = metrics.registerRoom("same \"name\"\n");
+        RoomMetrics second = metrics.registerRoom("same \"name\"\n");
+
+        try {
+            String rendered = PrometheusFormat.render(metrics);
+
+            assertFalse(rendered.contains("same"));
+            assertTrue(rendered.contains("multidraw_room_users{room=\"" + first.getId() + "\"}"));
+            assertTrue(rendered.contains("multidraw_room_users{room=\"" + second.getId() + "\"}"));
+        } finally {
+            metrics.unregisterRoom(first);
+            metrics.unregisterRoom(second);
+        }
+    }
+
+    @Test
+    void capsTheNumberOfLabelledRooms() {
+        ServerMetrics metrics = ServerMetrics.instance();
+        List<RoomMetrics> rooms = new ArrayList<>();
+        for (int idx = 0; idx < PrometheusFormat.MAX_LABELLED_ROOMS + 10; ++idx)
+            rooms.add(metrics.registerRoom("room-" + idx));
+
+        try {
+            long series = PrometheusFormat.render(metrics).lines()
+                    .filter(line -> line.startsWith("multidraw_room_users{"))
+                    .count();
+
+            assertEquals(PrometheusFormat.MAX_LABELLED_ROOMS, series);
+        } finally {
+            rooms.forEach(metrics::unregisterRoom);
+        }
+    }
+}
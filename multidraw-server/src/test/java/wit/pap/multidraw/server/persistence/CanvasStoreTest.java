@@ -0,0 +1,95 @@
+package wit.pap.multidraw.server.persistence;
+
+import org.junit.jupiter.api.Test;
+import wit.pap.multidraw.shared.AlphaMode;
+import wit.pap.multidraw.shared.SparseBgraImage;
+import wit.pap.multidraw.shared.globals.Globals;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.BitSet;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CanvasStoreTest {
+    private static final int WIDTH = 128, HEIGHT = 64, TILE_SIZE = 32;
+
+    // Layers come back under their nicknames, bottom layer first, with what was written into them
+    @Test
+    void restoresLayersInOrder() throws IOException {
+        CanvasStore store = new CanvasStore(Files.createTempDirectory("canvas-store"));
+        SparseBgraImage drawn = new SparseBgraImage(WIDTH, HEIGHT, TILE_SIZE, AlphaMode.PREMULTIPLIED);
+        drawn.setTile(3, filledTile(drawn, 3));
+        BitSet tiles = new BitSet();
+        tiles.set(0, drawn.getTileCount());
+
+        try (RoomSnapshot room = open(store, "room")) {
+            room.openLayer("anna", 2).setSavedAt(42);
+            room.openLayer("zoë", 1).write(drawn, tiles);
+        }
+
+        try (RoomSnapshot room = open(store, "room")) {
+            assertEquals(List.of(1, 2), List.copyOf(room.getLayers().keySet()));
+            assertEquals("zoë", room.getNickname(1));
+            assertEquals(42, room.getLayers().get(2).getSavedAt());
+            assertNull(room.getLayers().get(2).restore());
+            assertArrayEquals(drawn.getTile(3), room.getLayers().get(1).restore().getTile(3));
+
+            room.deleteLayer(1);
+        }
+
+        try (RoomSnapshot room = open(store, "room")) {
+            assertEquals(List.of(2), List.copyOf(room.getLayers().keySet()));
+        }
+    }
+
+    // A layer that could not be deleted while it was mapped is gone once its room is opened again
+    @Test
+    void deletesDiscardedLayersOnOpen() throws IOException {
+        CanvasStore store = new CanvasStore(Files.createTempDirectory("canvas-store"));
+
+        try (RoomSnapshot room = open(store, "room")) {
+            room.openLayer("zoë", 1).discard();
+        }
+
+        try (RoomSnapshot room = open(store, "room")) {
+            assertTrue(room.getLayers().isEmpty());
+        }
+        try (Stream<Path> files = Files.walk(store.getDirectory())) {
+            assertFalse(files.anyMatch(file -> file.toString().endsWith(".layer")));
+        }
+    }
+
+    @Test
+    void keepsAtMostMaxSnapshotRooms() throws IOException {
+        Path directory = Files.createTempDirectory("canvas-store");
+        CanvasStore store = new CanvasStore(directory);
+
+        for (int idx = 0; idx < Globals.MAX_SNAPSHOT_ROOMS + 3; ++idx)
+            open(store, "room-" + idx).close();
+
+        try (Stream<Path> rooms = Files.list(directory)) {
+            assertTrue(rooms.count() <= Globals.MAX_SNAPSHOT_ROOMS);
+        }
+    }
+
+    private static RoomSnapshot open(CanvasStore store, String roomName) throws IOException {
+        return store.open(roomName, WIDTH, HEIGHT, TILE_SIZE, AlphaMode.PREMULTIPLIED);
+    }
+
+    private static byte[] filledTile(SparseBgraImage image, int tileIndex) {
+        byte[] tile = new byte[image.getTileLength(tileIndex)];
+        for (int idx = 0; idx < tile.length; idx += 4) {
+            tile[idx + 2] = (byte) 255;
+            tile[idx + 3] = (byte) 255;
+        }
+        return tile;
+    }
+}
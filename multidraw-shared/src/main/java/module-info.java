@@ -1,6 +1,11 @@
 module multidraw.shared {
     requires javafx.graphics;
+    requires static jdk.incubator.vector;
     exports wit.pap.multidraw.shared;
     exports wit.pap.multidraw.shared.globals;
     exports wit.pap.multidraw.shared.communication;
+    exports wit.pap.multidraw.shared.compositing;
+    exports wit.pap.multidraw.shared.compression;
+
+    uses wit.pap.multidraw.shared.compression.CompressionCodec;
 }
\ No newline at end of file
@@ -0,0 +1,7 @@
+package wit.pap.multidraw.shared;
+
+public enum AlphaMode {
+    STRAIGHT,
+    PREMULTIPLIED
+    ;
+}
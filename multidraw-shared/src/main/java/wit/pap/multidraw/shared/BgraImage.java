@@ -1,53 +1,77 @@
 package wit.pap.multidraw.shared;
 
 import javafx.scene.image.*;
+import wit.pap.multidraw.shared.compositing.Compositor;
 import wit.pap.multidraw.shared.globals.Globals;
 
 import java.io.Serializable;
 import java.security.InvalidParameterException;
 import java.util.Arrays;
-import java.util.stream.IntStream;
 
 public class BgraImage implements Serializable {
     private byte[] imageArr;
     int width, height;
+    private AlphaMode alphaMode;
 
-    private BgraImage(int length, int w, int h) {
+    private BgraImage(int length, int w, int h, AlphaMode mode) {
         if (length != w * h * Globals.BGRA_CHANNELS)
             throw new IllegalArgumentException(
                     "The length parameter needs to equal width * height * the number of RGBA channels!"
             );
 
-        imageArr = new byte[length];
-        Arrays.fill(imageArr, (byte) Globals.MIN_PIXEL);
+        imageArr = allocatePixels(length, true);
 
         width = w;
         height = h;
+        alphaMode = mode;
     }
 
     public BgraImage() {
-        this(Globals.IMAGE_ARR_LENGTH, Globals.IMAGE_WIDTH, Globals.IMAGE_HEIGHT);
+        this(Globals.IMAGE_ARR_LENGTH, Globals.IMAGE_WIDTH, Globals.IMAGE_HEIGHT, AlphaMode.STRAIGHT);
     }
 
     public BgraImage(int w, int h) {
-        this(w * h * Globals.BGRA_CHANNELS, w, h);
+        this(w, h, AlphaMode.STRAIGHT);
     }
 
-    private BgraImage(byte[] arr, int w, int h) {
+    public BgraImage(int w, int h, AlphaMode mode) {
+        this(w * h * Globals.BGRA_CHANNELS, w, h, mode);
+    }
+
+    BgraImage(byte[] arr, int w, int h, AlphaMode mode) {
         if (arr.length < w * h * Globals.BGRA_CHANNELS)
             throw new IllegalArgumentException("Size mismatch.");
 
         imageArr = arr;
         width = w;
         height = h;
+        alphaMode = mode;
     }
 
     // Methods ---------------------------------------------------------------------------------------------------------
 
     @Override
     public BgraImage clone() {
-        byte[] arr = Arrays.copyOf(imageArr, imageArr.length);
-        return new BgraImage(arr, width, height);
+        byte[] arr = allocatePixels(imageArr.length, false);
+        System.arraycopy(imageArr, 0, arr, 0, imageArr.length);
+        return new BgraImage(arr, width, height, getAlphaMode());
+    }
+
+    // Hands canvas-sized pixels back to the pool; the image cannot be used afterwards
+    public void recycle() {
+        byte[] arr = imageArr;
+        imageArr = null;
+
+        if (arr != null)
+            PixelBufferPool.canvasPool().release(arr);
+    }
+
+    static byte[] allocatePixels(int length, boolean cleared) {
+        PixelBufferPool pool = PixelBufferPool.canvasPool();
+        if (!pool.fits(length))
+            return new byte[length];
+
+        return cleared ? pool.acquireCleared() : pool.acquire();
     }
 
     public void setBGRA(int x, int y, byte b, byte g, byte r, byte a) {
@@ -76,6 +100,95 @@ public class BgraImage implements Serializable {
         setAllBGRA(b, g, r, a);
     }
 
+    public BgraImage premultiply() {
+        if (getAlphaMode() == AlphaMode.PREMULTIPLIED)
+            return this;
+
+        premultiply(imageArr, 0, width * height * Globals.BGRA_CHANNELS);
+        alphaMode = AlphaMode.PREMULTIPLIED;
+        return this;
+    }
+
+    public BgraImage unpremultiply() {
+        if (getAlphaMode() == AlphaMode.STRAIGHT)
+            return this;
+
+        unpremultiply(imageArr, 0, width * height * Globals.BGRA_CHANNELS);
+        alphaMode = AlphaMode.STRAIGHT;
+        return this;
+    }
+
+    public BgraImage toAlphaMode(AlphaMode mode) {
+        return mode == AlphaMode.PREMULTIPLIED ? premultiply() : unpremultiply();
+    }
+
+    static void premultiply(byte[] arr, int from, int to) {
+        for (int idx = from; idx < to; idx += Globals.BGRA_CHANNELS) {
+            int a = arr[idx + 3] & 0xFF;
+            if (a == Globals.MAX_PIXEL)
+                continue;
+
+            for (int c = 0; c < 3; ++c)
+                arr[idx + c] = (byte) (((arr[idx + c] & 0xFF) * a + 127) / Globals.MAX_PIXEL);
+        }
+    }
+
+    static void unpremultiply(byte[] arr, int from, int to) {
+        for (int idx = from; idx < to; idx += Globals.BGRA_CHANNELS) {
+            int a = arr[idx + 3] & 0xFF;
+            if (a == Globals.MAX_PIXEL)
+                continue;
+
+            for (int c = 0; c < 3; ++c) {
+                int x = a == 0 ? 0 : ((arr[idx + c] & 0xFF) * Globals.MAX_PIXEL + a / 2) / a;
+                arr[idx + c] = (byte) Integer.min(x, Globals.MAX_PIXEL);
+            }
+        }
+    }
+
+    public boolean regionEquals(BgraImage other, int x, int y, int w, int h) {
+        checkRegion(x, y, w, h);
+        other.checkRegion(x, y, w, h);
+
+        byte[] otherArr = other.getImageArr();
+        int rowLength = w * Globals.BGRA_CHANNELS;
+
+        for (int row = y; row < y + h; ++row) {
+            int from = (row * width + x) * Globals.BGRA_CHANNELS;
+            int otherFrom = (row * other.width + x) * Globals.BGRA_CHANNELS;
+
+            if (!Arrays.equals(imageArr, from, from + rowLength, otherArr, otherFrom, otherFrom + rowLength))
+                return false;
+        }
+
+        return true;
+    }
+
+    public void readRegion(int x, int y, int w, int h, byte[] dst, int dstOffset) {
+        checkRegion(x, y, w, h);
+
+        int rowLength = w * Globals.BGRA_CHANNELS;
+        for (int row = 0; row < h; ++row) {
+            int from = ((y + row) * width + x) * Globals.BGRA_CHANNELS;
+            System.arraycopy(imageArr, from, dst, dstOffset + row * rowLength, rowLength);
+        }
+    }
+
+    public void writeRegion(int x, int y, int w, int h, byte[] src, int srcOffset) {
+        checkRegion(x, y, w, h);
+
+        int rowLength = w * Globals.BGRA_CHANNELS;
+        for (int row = 0; row < h; ++row) {
+            int to = ((y + row) * width + x) * Globals.BGRA_CHANNELS;
+            System.arraycopy(src, srcOffset + row * rowLength, imageArr, to, rowLength);
+        }
+    }
+
+    private void checkRegion(int x, int y, int w, int h) {
+        if (x < 0 || y < 0 || w < 0 || h < 0 || x + w > width || y + h > height)
+            throw new IllegalArgumentException("Region exceeds the image bounds!");
+    }
+
     public WritableImage toWritableImage() {
         if (imageArr.length < Globals.IMAGE_ARR_LENGTH)
             throw new IllegalArgumentException("Byte array is not large enough for the specified dimensions.");
@@ -85,7 +198,10 @@ public class BgraImage implements Serializable {
 
         pixelWriter.setPixels(
                 0, 0, Globals.IMAGE_WIDTH, Globals.IMAGE_HEIGHT,
-                PixelFormat.getByteBgraInstance(), imageArr,
+                getAlphaMode() == AlphaMode.PREMULTIPLIED
+                        ? PixelFormat.getByteBgraPreInstance()
+                        : PixelFormat.getByteBgraInstance(),
+                imageArr,
                 0, Globals.IMAGE_WIDTH * Globals.BGRA_CHANNELS
         );
 
@@ -93,34 +209,44 @@ public class BgraImage implements Serializable {
     }
 
     public static BgraImage createTransparent(int imageWidth, int imageHeight) {
-        BgraImage result = new BgraImage(imageWidth, imageHeight);
-        result.setAllBGRA(
-                (byte) Globals.MIN_PIXEL,
-                (byte) Globals.MIN_PIXEL,
-                (byte) Globals.MIN_PIXEL,
-                (byte) Globals.MIN_PIXEL
-        );
-        return result;
+        return createTransparent(imageWidth, imageHeight, AlphaMode.STRAIGHT);
+    }
+
+    public static BgraImage createTransparent(int imageWidth, int imageHeight, AlphaMode mode) {
+        return new BgraImage(imageWidth, imageHeight, mode);
     }
 
     public static BgraImage fromFXImage(Image img) {
+        return fromFXImage(img, AlphaMode.STRAIGHT);
+    }
+
+    public static BgraImage fromFXImage(Image img, AlphaMode mode) {
+        return fromFXImage(img, mode, null);
+    }
+
+    // Reads all pixels in one bulk call. A reusable image of the same size is overwritten instead of allocating.
+    public static BgraImage fromFXImage(Image img, AlphaMode mode, BgraImage reusable) {
         int width = (int) img.getWidth();
         int height = (int) img.getHeight();
 
-        BgraImage result = new BgraImage(width, height);
-        byte[] byteArray = result.getImageArr();
-
-        PixelReader pixelReader = img.getPixelReader();
-        for (int y = 0, index = 0; y < height; ++y) {
-            for (int x = 0; x < width; ++x) {
-                int argb = pixelReader.getArgb(x, y);
-                byteArray[index++] = (byte) (argb & 0xFF);         // Blue
-                byteArray[index++] = (byte) ((argb >> 8) & 0xFF);  // Green
-                byteArray[index++] = (byte) ((argb >> 16) & 0xFF); // Red
-                byteArray[index++] = (byte) ((argb >> 24) & 0xFF); // Alpha
-            }
+        BgraImage result;
+        if (reusable != null && reusable.imageArr != null && reusable.width == width && reusable.height == height) {
+            result = reusable;
+            result.alphaMode = mode;
+        } else {
+            int length = width * height * Globals.BGRA_CHANNELS;
+            result = new BgraImage(allocatePixels(length, false), width, height, mode);
         }
 
+        img.getPixelReader().getPixels(
+                0, 0, width, height,
+                mode == AlphaMode.PREMULTIPLIED
+                        ? PixelFormat.getByteBgraPreInstance()
+                        : PixelFormat.getByteBgraInstance(),
+                result.imageArr,
+                0, width * Globals.BGRA_CHANNELS
+        );
+
         return result;
     }
 
@@ -128,38 +254,9 @@ public class BgraImage implements Serializable {
         if (bottom == null || top == null)
             throw new IllegalArgumentException("Images cannot be null!");
 
-        byte[] bottomBytes = bottom.getImageArr();
-        byte[] topBytes = top.getImageArr();
-        byte[] resultBytes = new byte[topBytes.length];
-
-        IntStream.range(0, resultBytes.length).parallel()
-                .filter(idx -> idx % Globals.BGRA_CHANNELS == 0)
-                .forEach(idx -> {
-                    int bBottom = bottomBytes[idx] & 0xFF;
-                    int gBottom = bottomBytes[idx + 1] & 0xFF;
-                    int rBottom = bottomBytes[idx + 2] & 0xFF;
-                    int aBottom = bottomBytes[idx + 3] & 0xFF;
-
-                    int bTop = topBytes[idx] & 0xFF;
-                    int gTop = topBytes[idx + 1] & 0xFF;
-                    int rTop = topBytes[idx + 2] & 0xFF;
-                    int aTop = topBytes[idx + 3] & 0xFF;
-
-                    float alpha = aTop / (float) Globals.MAX_PIXEL;
-
-                    int bResult = (int) (bTop * alpha + bBottom * (1 - alpha));
-                    int gResult = (int) (gTop * alpha + gBottom * (1 - alpha));
-                    int rResult = (int) (rTop * alpha + rBottom * (1 - alpha));
-                    int aResult = Integer.max(aTop, aBottom);
-
-                    resultBytes[idx] = (byte) bResult;
-                    resultBytes[idx + 1] = (byte) gResult;
-                    resultBytes[idx + 2] = (byte) rResult;
-                    resultBytes[idx + 3] = (byte) aResult;
-                }
-        );
-
-        return new BgraImage(resultBytes, top.getWidth(), top.getHeight());
+        BgraImage result = bottom.clone();
+        Compositor.overlayInto(result, top);
+        return result;
     }
 
     public BgraImage overlay(BgraImage other) {
@@ -173,11 +270,8 @@ public class BgraImage implements Serializable {
         if (images.length == 0) return null;
         else if (images.length == 1) return images[0];
         else {
-            BgraImage result = images[0].clone();
-
-            for (int idx = 1; idx < images.length; ++idx)
-                result = result.overlay(images[idx]);
-
+            BgraImage result = new BgraImage(images[0].getWidth(), images[0].getHeight(), images[0].getAlphaMode());
+            Compositor.overlayAllInto(result, images);
             return result;
         }
     }
@@ -195,4 +289,9 @@ public class BgraImage implements Serializable {
     public int getHeight() {
         return height;
     }
+
+    public AlphaMode getAlphaMode() {
+        // Images serialized before alpha modes existed come back without one
+        return alphaMode == null ? AlphaMode.STRAIGHT : alphaMode;
+    }
 }
@@ -0,0 +1,279 @@
+package wit.pap.multidraw.shared;
+
+import wit.pap.multidraw.shared.compression.AdaptiveCodecSelector;
+import wit.pap.multidraw.shared.compression.CompressionCodec;
+import wit.pap.multidraw.shared.compression.CompressionCodecs;
+import wit.pap.multidraw.shared.globals.Globals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ThreadLocalRandom;
+
+// Wire format for images and image patches:
+//   int magic, byte version, byte kind, int width, int height, byte alpha mode, byte codec id, body
+// A frame body is the compressed pixel array. Patch and sparse bodies are the uncompressed body length followed
+// by the compressed tile size, tile count and (int tile index, raw tile pixels) pairs; a sparse image only
+// lists its populated tiles.
+// Decoding only accepts canvas-sized images in Globals.TILE_SIZE tiles and checks every length field against
+// that geometry before allocating for it, since the data comes straight from the network.
+public final class ImageCodec {
+    public static final int MAGIC = 0x4D44494D; // "MDIM"
+    public static final byte VERSION = 2;
+    public static final int HEADER_LENGTH = 16;
+
+    public static final byte KIND_FRAME = 0;
+    public static final byte KIND_PATCH = 1;
+    public static final byte KIND_SPARSE = 2;
+
+    private static final int STREAM_BUFFER_LENGTH = 64 * 1024;
+    // How much of the input the codecs are compared on; whole pixels, so that run-length coding lines up
+    private static final int EXPLORE_SAMPLE_LENGTH = 256 * 1024;
+
+    private ImageCodec() { }
+
+    // Encoding --------------------------------------------------------------------------------------------------------
+
+    public static byte[] encode(BgraImage image) throws IOException {
+        return encode(image, CompressionCodecs.getDefault());
+    }
+
+    public static byte[] encode(BgraImage image, AdaptiveCodecSelector selector) throws IOException {
+        return encode(image, chooseCodec(selector, image.getImageArr(), pixelLength(image)));
+    }
+
+    public static byte[] encode(BgraImage image, CompressionCodec codec) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream(STREAM_BUFFER_LENGTH);
+        writeHeader(bos, KIND_FRAME, image.getWidth(), image.getHeight(), image.getAlphaMode(), codec);
+
+        codec.compress(image.getImageArr(), 0, pixelLength(image), bos);
+        return bos.toByteArray();
+    }
+
+    public static byte[] encodePatch(ImagePatch patch) throws IOException {
+        return encodePatch(patch, CompressionCodecs.getDefault());
+    }
+
+    public static byte[] encodePatch(ImagePatch patch, AdaptiveCodecSelector selector) throws IOException {
+        byte[] body = tileBody(patch);
+        return encodeTiles(KIND_PATCH, patch, body, chooseCodec(selector, body, body.length));
+    }
+
+    public static byte[] encodePatch(ImagePatch patch, CompressionCodec codec) throws IOException {
+        return encodeTiles(KIND_PATCH, patch, tileBody(patch), codec);
+    }
+
+    public static byte[] encodeSparse(SparseBgraImage image) throws IOException {
+        return encodeSparse(image, CompressionCodecs.getDefault());
+    }
+
+    public static byte[] encodeSparse(SparseBgraImage image, AdaptiveCodecSelector selector) throws IOException {
+        ImagePatch tiles = image.toPatch();
+        byte[] body = tileBody(tiles);
+        return encodeTiles(KIND_SPARSE, tiles, body, chooseCodec(selector, body, body.length));
+    }
+
+    public static byte[] encodeSparse(SparseBgraImage image, CompressionCodec codec) throws IOException {
+        ImagePatch tiles = image.toPatch();
+        return encodeTiles(KIND_SPARSE, tiles, tileBody(tiles), codec);
+    }
+
+    private static byte[] tileBody(ImagePatch patch) throws IOException {
+        ByteArrayOutputStream raw = new ByteArrayOutputStream(patchBodyLength(patch));
+        try (DataOutputStream dos = new DataOutputStream(raw)) {
+            dos.writeInt(patch.getTileSize());
+            dos.writeInt(patch.getTileCount());
+
+            for (int idx = 0; idx < patch.getTileCount(); ++idx) {
+                dos.writeInt(patch.getTileIndex(idx));
+                dos.write(patch.getTile(idx));
+            }
+        }
+        return raw.toByteArray();
+    }
+
+    private static byte[] encodeTiles(byte kind, ImagePatch patch, byte[] body, CompressionCodec codec)
+            throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream(STREAM_BUFFER_LENGTH);
+        writeHeader(bos, kind, patch.getWidth(), patch.getHeight(), patch.getAlphaMode(), codec);
+
+        bos.write(ByteBuffer.allocate(Integer.BYTES).putInt(body.length).array());
+        codec.compress(body, 0, body.length, bos);
+        return bos.toByteArray();
+    }
+
+    // On exploring rounds every candidate compresses the same randomly placed slice of the input, which compares
+    // them on the same content without encoding the whole input once per codec
+    private static CompressionCodec chooseCodec(AdaptiveCodecSelector selector, byte[] input, int length)
+            throws IOException {
+        if (length > 0 && selector.shouldExplore()) {
+            int sampleLength = Math.min(length, EXPLORE_SAMPLE_LENGTH);
+            int sampleOffset = ThreadLocalRandom.current().nextInt(length - sampleLength + 1)
+                    / Globals.BGRA_CHANNELS * Globals.BGRA_CHANNELS;
+
+            for (CompressionCodec codec : selector.getCandidates()) {
+                ByteArrayOutputStream sample = new ByteArrayOutputStream(sampleLength);
+                long start = System.nanoTime();
+                codec.compress(input, sampleOffset, sampleLength, sample);
+                selector.record(codec, sampleLength, sample.size(), System.nanoTime() - start);
+            }
+        }
+
+        return selector.getPreferred();
+    }
+
+    private static void writeHeader(ByteArrayOutputStream bos, byte kind, int width, int height,
+                                    AlphaMode mode, CompressionCodec codec) {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH)
+                .putInt(MAGIC)
+                .put(VERSION)
+                .put(kind)
+                .putInt(width)
+                .putInt(height)
+                .put((byte) mode.ordinal())
+                .put(codec.getId());
+
+        bos.write(header.array(), 0, HEADER_LENGTH);
+    }
+
+    private static int pixelLength(BgraImage image) {
+        return image.getWidth() * image.getHeight() * Globals.BGRA_CHANNELS;
+    }
+
+    private static int patchBodyLength(ImagePatch patch) {
+        int length = 2 * Integer.BYTES;
+        for (int idx = 0; idx < patch.getTileCount(); ++idx)
+            length += Integer.BYTES + patch.getTile(idx).length;
+        return length;
+    }
+
+    // Decoding --------------------------------------------------------------------------------------------------------
+
+    public static BgraImage decode(byte[] data) throws IOException {
+        Header header = readHeader(data, KIND_FRAME);
+
+        int length = header.width * header.height * Globals.BGRA_CHANNELS;
+        if (header.codec.maxDecompressedLength(data.length - HEADER_LENGTH) < length)
+            throw new IOException("Image data is too short.");
+
+        byte[] pixels = BgraImage.allocatePixels(length, false);
+        BgraImage image = new BgraImage(pixels, header.width, header.height, header.mode);
+
+        try {
+            header.codec.decompress(data, HEADER_LENGTH, data.length - HEADER_LENGTH, pixels, 0, length);
+        } catch (IOException | RuntimeException e) {
+            image.recycle();
+            throw e;
+        }
+
+        return image;
+    }
+
+    public static ImagePatch decodePatch(byte[] data) throws IOException {
+        return decodeTiles(data, KIND_PATCH);
+    }
+
+    public static SparseBgraImage decodeSparse(byte[] data) throws IOException {
+        ImagePatch tiles = decodeTiles(data, KIND_SPARSE);
+
+        // decodeTiles only lets canvas geometry through, so the image is never sized by the sender
+        SparseBgraImage image = new SparseBgraImage(
+                Globals.IMAGE_WIDTH, Globals.IMAGE_HEIGHT, Globals.TILE_SIZE, tiles.getAlphaMode()
+        );
+        image.apply(tiles);
+        return image;
+    }
+
+    private static ImagePatch decodeTiles(byte[] data, byte kind) throws IOException {
+        Header header = readHeader(data, kind);
+
+        int bodyStart = HEADER_LENGTH + Integer.BYTES;
+        if (data.length < bodyStart)
+            throw new IOException("Image data is too short.");
+
+        int tileSize = Globals.TILE_SIZE;
+        int tilesX = Math.ceilDiv(header.width, tileSize);
+        int tilesY = Math.ceilDiv(header.height, tileSize);
+
+        // At most every tile of the canvas, each with its index
+        long maxBodyLength = Math.min(
+                2L * Integer.BYTES + (long) tilesX * tilesY * Integer.BYTES
+                        + (long) header.width * header.height * Globals.BGRA_CHANNELS,
+                header.codec.maxDecompressedLength(data.length - bodyStart)
+        );
+        int bodyLength = ByteBuffer.wrap(data, HEADER_LENGTH, Integer.BYTES).getInt();
+        if (bodyLength < 2 * Integer.BYTES || bodyLength > maxBodyLength)
+            throw new IOException("Malformed image patch.");
+
+        byte[] body = new byte[bodyLength];
+        header.codec.decompress(data, bodyStart, data.length - bodyStart, body, 0, bodyLength);
+
+        ByteBuffer buffer = ByteBuffer.wrap(body);
+        if (buffer.getInt() != tileSize)
+            throw new IOException("Unexpected image tile size.");
+
+        // Every tile needs at least its index and one pixel
+        int tileCount = buffer.getInt();
+        if (tileCount < 0 || tileCount > tilesX * tilesY
+                || tileCount > buffer.remaining() / (Integer.BYTES + Globals.BGRA_CHANNELS))
+            throw new IOException("Malformed image patch.");
+
+        int[] tileIndices = new int[tileCount];
+        byte[][] tiles = new byte[tileCount][];
+
+        for (int idx = 0; idx < tileCount; ++idx) {
+            if (buffer.remaining() < Integer.BYTES)
+                throw new IOException("Truncated image patch.");
+
+            int tileIndex = buffer.getInt();
+            if (tileIndex < 0 || tileIndex >= tilesX * tilesY)
+                throw new IOException("Malformed image patch.");
+
+            int x = (tileIndex % tilesX) * tileSize, y = (tileIndex / tilesX) * tileSize;
+            int w = Math.min(tileSize, header.width - x), h = Math.min(tileSize, header.height - y);
+
+            tileIndices[idx] = tileIndex;
+            tiles[idx] = new byte[w * h * Globals.BGRA_CHANNELS];
+
+            if (buffer.remaining() < tiles[idx].length)
+                throw new IOException("Truncated image patch.");
+            buffer.get(tiles[idx]);
+        }
+
+        if (buffer.hasRemaining())
+            throw new IOException("Image patch does not end where expected.");
+
+        return new ImagePatch(header.width, header.height, tileSize, header.mode, tileIndices, tiles);
+    }
+
+    private static Header readHeader(byte[] data, byte expectedKind) throws IOException {
+        if (data == null || data.length < HEADER_LENGTH)
+            throw new IOException("Image data is too short.");
+
+        ByteBuffer header = ByteBuffer.wrap(data, 0, HEADER_LENGTH);
+        if (header.getInt() != MAGIC)
+            throw new IOException("Not an image.");
+        if (header.get() != VERSION)
+            throw new IOException("Unsupported image version.");
+        if (header.get() != expectedKind)
+            throw new IOException("Unexpected image kind.");
+
+        int width = header.getInt();
+        int height = header.getInt();
+        if (width != Globals.IMAGE_WIDTH || height != Globals.IMAGE_HEIGHT)
+            throw new IOException("Image dimensions do not match the canvas.");
+
+        int modeOrdinal = header.get();
+        if (modeOrdinal < 0 || modeOrdinal >= AlphaMode.values().length)
+            throw new IOException("Unknown alpha mode.");
+
+        byte codecId = header.get();
+        CompressionCodec codec = CompressionCodecs.byId(codecId)
+                .orElseThrow(() -> new IOException("Unknown image codec " + codecId + "."));
+
+        return new Header(width, height, AlphaMode.values()[modeOrdinal], codec);
+    }
+
+    private record Header(int width, int height, AlphaMode mode, CompressionCodec codec) { }
+}
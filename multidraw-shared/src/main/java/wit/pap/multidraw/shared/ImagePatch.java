@@ -0,0 +1,136 @@
+package wit.pap.multidraw.shared;
+
+import wit.pap.multidraw.shared.globals.Globals;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+public class ImagePatch implements Serializable {
+    private final int width, height, tileSize;
+    private final AlphaMode alphaMode;
+    private final int[] tileIndices;
+    private final byte[][] tiles;
+
+    ImagePatch(int width, int height, int tileSize, AlphaMode alphaMode, int[] tileIndices, byte[][] tiles) {
+        if (tileIndices.length != tiles.length)
+            throw new IllegalArgumentException("Every tile index needs exactly one tile!");
+
+        this.width = width;
+        this.height = height;
+        this.tileSize = tileSize;
+        this.alphaMode = alphaMode;
+        this.tileIndices = tileIndices;
+        this.tiles = tiles;
+    }
+
+    // Methods ---------------------------------------------------------------------------------------------------------
+
+    public static ImagePatch diff(BgraImage previous, BgraImage current) {
+        return diff(previous, current, Globals.TILE_SIZE);
+    }
+
+    public static ImagePatch diff(BgraImage previous, BgraImage current, int tileSize) {
+        if (previous == null || current == null)
+            throw new IllegalArgumentException("Images cannot be null!");
+        if (previous.getWidth() != current.getWidth() || previous.getHeight() != current.getHeight())
+            throw new IllegalArgumentException("Image dimensions do not match!");
+        if (previous.getAlphaMode() != current.getAlphaMode())
+            throw new IllegalArgumentException("Alpha modes do not match!");
+        if (tileSize <= 0)
+            throw new IllegalArgumentException("Tile size needs to be positive!");
+
+        int width = current.getWidth(), height = current.getHeight();
+        int tilesX = Math.ceilDiv(width, tileSize);
+        int tilesY = Math.ceilDiv(height, tileSize);
+
+        List<Integer> indices = new ArrayList<>();
+        List<byte[]> changedTiles = new ArrayList<>();
+
+        for (int ty = 0; ty < tilesY; ++ty) {
+            for (int tx = 0; tx < tilesX; ++tx) {
+                int x = tx * tileSize, y = ty * tileSize;
+                int w = Math.min(tileSize, width - x), h = Math.min(tileSize, height - y);
+
+                if (current.regionEquals(previous, x, y, w, h))
+                    continue;
+
+                byte[] tile = new byte[w * h * Globals.BGRA_CHANNELS];
+                current.readRegion(x, y, w, h, tile, 0);
+
+                indices.add(ty * tilesX + tx);
+                changedTiles.add(tile);
+            }
+        }
+
+        return new ImagePatch(
+                width, height, tileSize, current.getAlphaMode(),
+                indices.stream().mapToInt(Integer::intValue).toArray(),
+                changedTiles.toArray(new byte[0][])
+        );
+    }
+
+    public void applyTo(BgraImage target) {
+        if (target == null)
+            throw new IllegalArgumentException("Image cannot be null!");
+        if (target.getWidth() != width || target.getHeight() != height)
+            throw new IllegalArgumentException("Patch dimensions do not match the image!");
+        if (target.getAlphaMode() != alphaMode)
+            throw new IllegalArgumentException("Alpha modes do not match!");
+
+        int tilesX = Math.ceilDiv(width, tileSize);
+
+        for (int idx = 0; idx < tileIndices.length; ++idx) {
+            int tx = tileIndices[idx] % tilesX, ty = tileIndices[idx] / tilesX;
+            int x = tx * tileSize, y = ty * tileSize;
+            int w = Math.min(tileSize, width - x), h = Math.min(tileSize, height - y);
+
+            if (tiles[idx].length != w * h * Globals.BGRA_CHANNELS)
+                throw new IllegalArgumentException("Tile size mismatch.");
+
+            target.writeRegion(x, y, w, h, tiles[idx], 0);
+        }
+    }
+
+    public boolean isEmpty() {
+        return tileIndices.length == 0;
+    }
+
+    // Getters & Setters -----------------------------------------------------------------------------------------------
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int getTileSize() {
+        return tileSize;
+    }
+
+    public AlphaMode getAlphaMode() {
+        return alphaMode;
+    }
+
+    public int getTileCount() {
+        return tileIndices.length;
+    }
+
+    public int getTileIndex(int idx) {
+        return tileIndices[idx];
+    }
+
+    byte[] getTile(int idx) {
+        return tiles[idx];
+    }
+
+    // Bytes held by pixel data, not counting object headers
+    public long getPixelBytes() {
+        long bytes = 0;
+        for (byte[] tile : tiles)
+            bytes += tile.length;
+        return bytes;
+    }
+}
@@ -3,30 +3,29 @@ package wit.pap.multidraw.shared;
 import wit.pap.multidraw.shared.globals.Globals;
 
 public class LayeredImage {
-    private BgraImage foreground, middleground, background;
+    private BgraImage middleground, background;
+    private SparseBgraImage foreground;
 
     public LayeredImage() {
         byte p;
 
-        background = new BgraImage();
+        background = new BgraImage(Globals.IMAGE_WIDTH, Globals.IMAGE_HEIGHT, Globals.CANVAS_ALPHA_MODE);
         p = (byte) Globals.MAX_PIXEL;
         background.setAllBGRA(p, p, p, p);
 
         middleground = background.clone();
 
-        foreground = new BgraImage();
-        p = (byte) Globals.MIN_PIXEL;
-        foreground.setAllBGRA(p, p, p, p);
+        foreground = new SparseBgraImage(Globals.IMAGE_WIDTH, Globals.IMAGE_HEIGHT, Globals.CANVAS_ALPHA_MODE);
     }
 
     // Getters & Setters -----------------------------------------------------------------------------------------------
 
 
-    public BgraImage getForeground() {
+    public SparseBgraImage getForeground() {
         return foreground;
     }
 
-    public void setForeground(BgraImage foreground) {
+    public void setForeground(SparseBgraImage foreground) {
         this.foreground = foreground;
     }
 
@@ -0,0 +1,118 @@
+package wit.pap.multidraw.shared;
+
+import wit.pap.multidraw.shared.globals.Globals;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+// A bounded, thread-safe pool of equally sized pixel arrays. A released array must not be touched again.
+public class PixelBufferPool {
+    public static final String CANVAS_POOL_SIZE_PROPERTY = "multidraw.pool.canvasBuffers";
+
+    private static final PixelBufferPool CANVAS_POOL = new PixelBufferPool(
+            Globals.IMAGE_ARR_LENGTH,
+            Integer.getInteger(CANVAS_POOL_SIZE_PROPERTY, Globals.DEFAULT_POOLED_CANVAS_BUFFERS)
+    );
+
+    private final int bufferLength;
+    private final BlockingQueue<byte[]> freeBuffers;
+    // Arrays currently handed out; arrays compare by identity, and a lost one must not be kept alive by the pool.
+    // Its size is the outstanding count, so arrays dropped without a release stop counting once they are collected.
+    private final Set<byte[]> handedOut;
+    private final AtomicLong hits, misses, discards;
+
+    public PixelBufferPool(int bufferLength, int capacity) {
+        if (bufferLength <= 0 || capacity <= 0)
+            throw new IllegalArgumentException("Buffer length and capacity need to be positive!");
+
+        this.bufferLength = bufferLength;
+        this.freeBuffers = new ArrayBlockingQueue<>(capacity);
+        this.handedOut = Collections.synchronizedSet(Collections.newSetFromMap(new WeakHashMap<>()));
+        this.hits = new AtomicLong(0);
+        this.misses = new AtomicLong(0);
+        this.discards = new AtomicLong(0);
+    }
+
+    public static PixelBufferPool canvasPool() {
+        return CANVAS_POOL;
+    }
+
+    // Methods ---------------------------------------------------------------------------------------------------------
+
+    // The contents of the returned array are undefined
+    public byte[] acquire() {
+        byte[] buffer = freeBuffers.poll();
+
+        if (buffer != null) {
+            hits.incrementAndGet();
+        } else {
+            misses.incrementAndGet();
+            buffer = new byte[bufferLength];
+        }
+
+        return handOut(buffer);
+    }
+
+    public byte[] acquireCleared() {
+        byte[] buffer = freeBuffers.poll();
+
+        if (buffer != null) {
+            hits.incrementAndGet();
+            Arrays.fill(buffer, (byte) Globals.MIN_PIXEL);
+        } else {
+            misses.incrementAndGet();
+            buffer = new byte[bufferLength];
+        }
+
+        return handOut(buffer);
+    }
+
+    // Only arrays this pool handed out are taken back, so foreign arrays and double releases are ignored
+    public void release(byte[] buffer) {
+        if (buffer == null || buffer.length != bufferLength || !handedOut.remove(buffer))
+            return;
+
+        if (!freeBuffers.offer(buffer))
+            discards.incrementAndGet();
+    }
+
+    private byte[] handOut(byte[] buffer) {
+        handedOut.add(buffer);
+        return buffer;
+    }
+
+    public boolean fits(int length) {
+        return length == bufferLength;
+    }
+
+    public Stats getStats() {
+        return new Stats(hits.get(), misses.get(), discards.get(), handedOut.size(), freeBuffers.size());
+    }
+
+    public record Stats(long hits, long misses, long discards, int outstanding, int pooled) {
+        public double hitRate() {
+            long total = hits + misses;
+            return total == 0 ? 0 : hits / (double) total;
+        }
+
+        @Override
+        public String toString() {
+            return new StringBuilder("hit rate ").append(String.format("%.2f", hitRate()))
+                    .append(", outstanding ").append(outstanding)
+                    .append(", pooled ").append(pooled)
+                    .append(", discarded ").append(discards)
+                    .toString();
+        }
+    }
+
+    // Getters & Setters -----------------------------------------------------------------------------------------------
+
+    public int getBufferLength() {
+        return bufferLength;
+    }
+}
@@ -0,0 +1,298 @@
+package wit.pap.multidraw.shared;
+
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.PixelWriter;
+import javafx.scene.image.WritableImage;
+import wit.pap.multidraw.shared.globals.Globals;
+
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+// A BGRA image that only stores its non-transparent tiles; a null tile is fully transparent
+public class SparseBgraImage implements Serializable {
+    private final int width, height, tileSize;
+    private final int tilesX, tilesY;
+    private AlphaMode alphaMode;
+    private final byte[][] tiles;
+
+    public SparseBgraImage(int w, int h, AlphaMode mode) {
+        this(w, h, Globals.TILE_SIZE, mode);
+    }
+
+    public SparseBgraImage(int w, int h, int tileSize, AlphaMode mode) {
+        if (w <= 0 || h <= 0)
+            throw new IllegalArgumentException("Image dimensions need to be positive!");
+        if (tileSize <= 0)
+            throw new IllegalArgumentException("Tile size needs to be positive!");
+        if (mode == null)
+            throw new IllegalArgumentException("Alpha mode cannot be null!");
+
+        width = w;
+        height = h;
+        this.tileSize = tileSize;
+        tilesX = Math.ceilDiv(w, tileSize);
+        tilesY = Math.ceilDiv(h, tileSize);
+        alphaMode = mode;
+        tiles = new byte[tilesX * tilesY][];
+    }
+
+    // Methods ---------------------------------------------------------------------------------------------------------
+
+    public static SparseBgraImage fromDense(BgraImage image) {
+        return fromDense(image, Globals.TILE_SIZE);
+    }
+
+    public static SparseBgraImage fromDense(BgraImage image, int tileSize) {
+        if (image == null)
+            throw new IllegalArgumentException("Image cannot be null!");
+
+        SparseBgraImage result = new SparseBgraImage(
+                image.getWidth(), image.getHeight(), tileSize, image.getAlphaMode()
+        );
+
+        for (int idx = 0; idx < result.tiles.length; ++idx) {
+            byte[] tile = new byte[result.getTileLength(idx)];
+            image.readRegion(
+                    result.getTileX(idx), result.getTileY(idx),
+                    result.getTileWidth(idx), result.getTileHeight(idx),
+                    tile, 0
+            );
+
+            if (!isTransparent(tile))
+                result.tiles[idx] = tile;
+        }
+
+        return result;
+    }
+
+    public BgraImage toDense() {
+        BgraImage result = BgraImage.createTransparent(width, height, alphaMode);
+        writeTiles(result);
+        return result;
+    }
+
+    // Replaces the contents of target with this image
+    public void writeInto(BgraImage target) {
+        if (target == null)
+            throw new IllegalArgumentException("Image cannot be null!");
+        if (target.getWidth() != width || target.getHeight() != height)
+            throw new IllegalArgumentException("Image dimensions do not match!");
+        if (target.getAlphaMode() != alphaMode)
+            throw new IllegalArgumentException("Alpha modes do not match!");
+
+        Arrays.fill(target.getImageArr(), 0, width * height * Globals.BGRA_CHANNELS, (byte) Globals.MIN_PIXEL);
+        writeTiles(target);
+    }
+
+    private void writeTiles(BgraImage target) {
+        for (int idx = 0; idx < tiles.length; ++idx) {
+            if (tiles[idx] != null)
+                target.writeRegion(getTileX(idx), getTileY(idx), getTileWidth(idx), getTileHeight(idx), tiles[idx], 0);
+        }
+    }
+
+    public void apply(ImagePatch patch) {
+        if (patch == null)
+            throw new IllegalArgumentException("Patch cannot be null!");
+        if (patch.getWidth() != width || patch.getHeight() != height)
+            throw new IllegalArgumentException("Patch dimensions do not match the image!");
+        if (patch.getAlphaMode() != alphaMode)
+            throw new IllegalArgumentException("Alpha modes do not match!");
+        if (patch.getTileSize() != tileSize)
+            throw new IllegalArgumentException("Tile sizes do not match!");
+
+        for (int idx = 0; idx < patch.getTileCount(); ++idx) {
+            int tileIndex = patch.getTileIndex(idx);
+            byte[] tile = patch.getTile(idx);
+
+            if (tile.length != getTileLength(tileIndex))
+                throw new IllegalArgumentException("Tile size mismatch.");
+
+            tiles[tileIndex] = isTransparent(tile) ? null : tile.clone();
+        }
+    }
+
+    // A patch that rebuilds this image on top of a transparent one
+    public ImagePatch toPatch() {
+        int count = getPopulatedTileCount();
+        int[] tileIndices = new int[count];
+        byte[][] populated = new byte[count][];
+
+        for (int idx = 0, n = 0; idx < tiles.length; ++idx) {
+            if (tiles[idx] != null) {
+                tileIndices[n] = idx;
+                populated[n++] = tiles[idx];
+            }
+        }
+
+        return new ImagePatch(width, height, tileSize, alphaMode, tileIndices, populated);
+    }
+
+    public void setBGRA(int x, int y, byte b, byte g, byte r, byte a) {
+        if (x < 0 || y < 0 || x >= width || y >= height)
+            throw new IllegalArgumentException("Pixel exceeds the image bounds!");
+
+        int tx = x / tileSize, ty = y / tileSize;
+        int tileIndex = ty * tilesX + tx;
+
+        byte[] tile = tiles[tileIndex];
+        if (tile == null) {
+            if (a == Globals.MIN_PIXEL)
+                return;
+
+            tile = tiles[tileIndex] = new byte[getTileLength(tileIndex)];
+        }
+
+        int idx = ((y - ty * tileSize) * getTileWidth(tileIndex) + (x - tx * tileSize)) * Globals.BGRA_CHANNELS;
+        tile[idx]     = b;
+        tile[idx + 1] = g;
+        tile[idx + 2] = r;
+        tile[idx + 3] = a;
+    }
+
+    public void setRGBA(int x, int y, byte r, byte g, byte b, byte a) {
+        setBGRA(x, y, b, g, r, a);
+    }
+
+    public void clear() {
+        Arrays.fill(tiles, null);
+    }
+
+    public SparseBgraImage toAlphaMode(AlphaMode mode) {
+        if (mode == null)
+            throw new IllegalArgumentException("Alpha mode cannot be null!");
+        if (mode == alphaMode)
+            return this;
+
+        for (byte[] tile : tiles) {
+            if (tile == null)
+                continue;
+
+            if (mode == AlphaMode.PREMULTIPLIED)
+                BgraImage.premultiply(tile, 0, tile.length);
+            else
+                BgraImage.unpremultiply(tile, 0, tile.length);
+        }
+
+        alphaMode = mode;
+        return this;
+    }
+
+    public WritableImage toWritableImage() {
+        WritableImage image = new WritableImage(width, height);
+        PixelWriter pixelWriter = image.getPixelWriter();
+        PixelFormat<ByteBuffer> format = alphaMode == AlphaMode.PREMULTIPLIED
+                ? PixelFormat.getByteBgraPreInstance()
+                : PixelFormat.getByteBgraInstance();
+
+        for (int idx = 0; idx < tiles.length; ++idx) {
+            if (tiles[idx] == null)
+                continue;
+
+            int w = getTileWidth(idx);
+            pixelWriter.setPixels(
+                    getTileX(idx), getTileY(idx), w, getTileHeight(idx),
+                    format, tiles[idx], 0, w * Globals.BGRA_CHANNELS
+            );
+        }
+
+        return image;
+    }
+
+    public boolean isTransparent() {
+        return getPopulatedTileCount() == 0;
+    }
+
+    // Fully transparent pixels never show up after compositing, so their colour is not kept
+    private static boolean isTransparent(byte[] tile) {
+        for (int idx = 3; idx < tile.length; idx += Globals.BGRA_CHANNELS) {
+            if (tile[idx] != Globals.MIN_PIXEL)
+                return false;
+        }
+
+        return true;
+    }
+
+    // Getters & Setters -----------------------------------------------------------------------------------------------
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public int getTileSize() {
+        return tileSize;
+    }
+
+    public int getTilesX() {
+        return tilesX;
+    }
+
+    public int getTilesY() {
+        return tilesY;
+    }
+
+    public int getTileCount() {
+        return tiles.length;
+    }
+
+    public AlphaMode getAlphaMode() {
+        return alphaMode;
+    }
+
+    // Null for a transparent tile
+    public byte[] getTile(int tileIndex) {
+        return tiles[tileIndex];
+    }
+
+    // Takes ownership of the tile; null makes it transparent
+    public void setTile(int tileIndex, byte[] tile) {
+        if (tile != null && tile.length != getTileLength(tileIndex))
+            throw new IllegalArgumentException("Tile size mismatch.");
+
+        tiles[tileIndex] = tile;
+    }
+
+    public int getTileX(int tileIndex) {
+        return (tileIndex % tilesX) * tileSize;
+    }
+
+    public int getTileY(int tileIndex) {
+        return (tileIndex / tilesX) * tileSize;
+    }
+
+    public int getTileWidth(int tileIndex) {
+        return Math.min(tileSize, width - getTileX(tileIndex));
+    }
+
+    public int getTileHeight(int tileIndex) {
+        return Math.min(tileSize, height - getTileY(tileIndex));
+    }
+
+    public int getTileLength(int tileIndex) {
+        return getTileWidth(tileIndex) * getTileHeight(tileIndex) * Globals.BGRA_CHANNELS;
+    }
+
+    public int getPopulatedTileCount() {
+        int count = 0;
+        for (byte[] tile : tiles) {
+            if (tile != null)
+                ++count;
+        }
+        return count;
+    }
+
+    // Bytes held by pixel data, not counting object headers
+    public long getPixelBytes() {
+        long bytes = 0;
+        for (byte[] tile : tiles) {
+            if (tile != null)
+                bytes += tile.length;
+        }
+        return bytes;
+    }
+}
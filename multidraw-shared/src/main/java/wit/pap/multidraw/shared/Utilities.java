@@ -5,6 +5,8 @@ import java.util.zip.GZIPInputStream;
 import java.util.zip.GZIPOutputStream;
 
 public class Utilities {
+    private static final int STREAM_BUFFER_LENGTH = 64 * 1024;
+
     public static byte[] serializeIntoBytes(Serializable object) throws IOException {
         try (ByteArrayOutputStream bos = new ByteArrayOutputStream();
              ObjectOutputStream oos = new ObjectOutputStream(bos)) {
@@ -38,13 +40,9 @@ public class Utilities {
 
     public static byte[] decompress(byte[] compressedData) throws IOException {
         try (ByteArrayInputStream bis = new ByteArrayInputStream(compressedData);
-             GZIPInputStream gzip = new GZIPInputStream(bis);
-             ByteArrayOutputStream bos = new ByteArrayOutputStream()) {
-            byte[] buffer = new byte[1024];
-            int len;
-            while ((len = gzip.read(buffer)) > 0) {
-                bos.write(buffer, 0, len);
-            }
+             GZIPInputStream gzip = new GZIPInputStream(bis, STREAM_BUFFER_LENGTH);
+             ByteArrayOutputStream bos = new ByteArrayOutputStream(compressedData.length * 4)) {
+            gzip.transferTo(bos);
             return bos.toByteArray();
         }
     }
@@ -5,5 +5,6 @@ public enum ClientCommands {
     SET_NICKNAME,
     JOIN_CREATE_ROOM,
     SEND_IMAGE,
+    SEND_IMAGE_TILES,
     DISCONNECT;
 }
@@ -1,9 +1,5 @@
 package wit.pap.multidraw.shared.communication;
 
-import wit.pap.multidraw.shared.globals.Globals;
-
-import java.nio.charset.StandardCharsets;
-
 public class ClientMessage extends Message {
     private ClientCommands clientCommand;
 
@@ -14,11 +10,7 @@ public class ClientMessage extends Message {
 
     @Override
     public String toString() {
-        String payloadAsString = new String(payload);
-        if (!StandardCharsets.US_ASCII.newEncoder().canEncode(payloadAsString))
-            payloadAsString = Globals.BYTESTRING_INFO;
-
-        return (new StringBuilder(this.clientCommand.name()).append(" ").append(payloadAsString).toString());
+        return (new StringBuilder(this.clientCommand.name()).append(" ").append(summarizePayload()).toString());
     }
 
     // Getters & Setters
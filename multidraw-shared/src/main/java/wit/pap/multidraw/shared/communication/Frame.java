@@ -0,0 +1,4 @@
+package wit.pap.multidraw.shared.communication;
+
+// One message on the wire: the ordinal of its command and the raw payload
+public record Frame(byte command, byte[] payload) { }
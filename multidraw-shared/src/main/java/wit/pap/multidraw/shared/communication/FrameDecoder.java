@@ -0,0 +1,66 @@
+package wit.pap.multidraw.shared.communication;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.function.Consumer;
+
+// Reassembles frames from whatever bytes a non-blocking read happened to return
+public class FrameDecoder {
+    private final ByteBuffer header;
+    // Null when every frame may be up to MAX_PAYLOAD_LENGTH long
+    private final HandshakeLimit handshakeLimit;
+    private byte[] payload;
+    private int payloadFilled;
+    private byte command;
+
+    public FrameDecoder() {
+        this(false);
+    }
+
+    // A decoder reading from a client that has yet to finish its handshake keeps frames small until it has
+    public FrameDecoder(boolean limitUntilHandshake) {
+        this.header = ByteBuffer.allocate(Frames.HEADER_LENGTH);
+        this.handshakeLimit = limitUntilHandshake ? new HandshakeLimit() : null;
+    }
+
+    // Methods ---------------------------------------------------------------------------------------------------------
+
+    // Consumes all of in, handing every completed frame to sink
+    public void decode(ByteBuffer in, Consumer<Frame> sink) throws IOException {
+        while (in.hasRemaining()) {
+            if (payload == null) {
+                while (header.hasRemaining() && in.hasRemaining())
+                    header.put(in.get());
+
+                if (header.hasRemaining())
+                    return;
+
+                header.flip();
+                payload = new byte[Frames.checkPayloadLength(header.getInt(), maxPayloadLength())];
+                command = header.get();
+                payloadFilled = 0;
+                header.clear();
+            }
+
+            int length = Math.min(in.remaining(), payload.length - payloadFilled);
+            in.get(payload, payloadFilled, length);
+            payloadFilled += length;
+
+            if (payloadFilled == payload.length) {
+                Frame frame = new Frame(command, payload);
+                payload = null;
+                if (handshakeLimit != null)
+                    handshakeLimit.observe(frame);
+                sink.accept(frame);
+            }
+        }
+    }
+
+    private int maxPayloadLength() {
+        return handshakeLimit == null ? Frames.MAX_PAYLOAD_LENGTH : handshakeLimit.maxPayloadLength();
+    }
+
+    public boolean isMidFrame() {
+        return payload != null || header.position() > 0;
+    }
+}
@@ -0,0 +1,87 @@
+package wit.pap.multidraw.shared.communication;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+
+// Blocking frame reader for sockets with a read timeout. A timeout before a frame starts means there is
+// nothing to read; once a frame has started it is always read to the end, so the stream never loses its place.
+// A frame that is not complete within MAX_FRAME_READ_TIME fails the stream, however slowly its bytes keep coming.
+public class FrameInputStream {
+    // Consecutive timeouts tolerated in the middle of a frame before the peer is considered stuck
+    private static final int MAX_STALLED_READS = 25;
+    private static final Duration MAX_FRAME_READ_TIME = Duration.ofSeconds(30);
+
+    private final InputStream in;
+    private final byte[] header;
+    // Null when every frame may be up to MAX_PAYLOAD_LENGTH long
+    private final HandshakeLimit handshakeLimit;
+
+    public FrameInputStream(InputStream in) {
+        this(in, false);
+    }
+
+    // A stream reading from a client that has yet to finish its handshake keeps frames small until it has
+    public FrameInputStream(InputStream in, boolean limitUntilHandshake) {
+        this.in = in;
+        this.header = new byte[Frames.HEADER_LENGTH];
+        this.handshakeLimit = limitUntilHandshake ? new HandshakeLimit() : null;
+    }
+
+    // Methods ---------------------------------------------------------------------------------------------------------
+
+    // Null when no frame arrived before the socket timeout
+    public Frame readFrame() throws IOException {
+        int first;
+        try {
+            first = in.read();
+        } catch (SocketTimeoutException e) {
+            return null;
+        }
+
+        if (first < 0)
+            throw new EOFException("Connection closed by peer.");
+
+        long deadline = System.nanoTime() + MAX_FRAME_READ_TIME.toNanos();
+        header[0] = (byte) first;
+        readFully(header, 1, header.length - 1, deadline);
+
+        int maxPayloadLength = handshakeLimit == null ? Frames.MAX_PAYLOAD_LENGTH : handshakeLimit.maxPayloadLength();
+        ByteBuffer headerBuffer = ByteBuffer.wrap(header);
+        byte[] payload = new byte[Frames.checkPayloadLength(headerBuffer.getInt(), maxPayloadLength)];
+        byte command = headerBuffer.get();
+
+        readFully(payload, 0, payload.length, deadline);
+        Frame frame = new Frame(command, payload);
+        if (handshakeLimit != null)
+            handshakeLimit.observe(frame);
+        return frame;
+    }
+
+    public void close() throws IOException {
+        in.close();
+    }
+
+    private void readFully(byte[] dst, int offset, int length, long deadline) throws IOException {
+        int filled = 0, stalledReads = 0;
+        while (filled < length) {
+            if (System.nanoTime() - deadline > 0)
+                throw new SocketTimeoutException("Frame was not complete in time.");
+
+            try {
+                int read = in.read(dst, offset + filled, length - filled);
+                if (read < 0)
+                    throw new EOFException("Connection closed in the middle of a frame.");
+                filled += read;
+                stalledReads = 0;
+            } catch (SocketTimeoutException e) {
+                // The rest of the frame is usually on its way
+                if (++stalledReads >= MAX_STALLED_READS)
+                    throw e;
+            }
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package wit.pap.multidraw.shared.communication;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+// Wire format shared by clients and servers: int payload length, byte command ordinal, payload
+public final class Frames {
+    public static final int HEADER_LENGTH = Integer.BYTES + 1;
+    public static final int MAX_PAYLOAD_LENGTH = 64 * 1024 * 1024;
+    // Until the handshake is done a peer only sends its nickname and room name, so servers read no more than this
+    public static final int MAX_HANDSHAKE_PAYLOAD_LENGTH = 4 * 1024;
+
+    private Frames() { }
+
+    // Encoding --------------------------------------------------------------------------------------------------------
+
+    // Header and payload as separate buffers, for gathering writes that do not copy the payload
+    public static ByteBuffer[] encode(ClientMessage message) {
+        return encode((byte) message.getClientCommand().ordinal(), message.getPayload());
+    }
+
+    public static ByteBuffer[] encode(ServerMessage message) {
+        return encode((byte) message.getServerCommand().ordinal(), message.getPayload());
+    }
+
+    private static ByteBuffer[] encode(byte command, byte[] payload) {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH).putInt(payload.length).put(command).flip();
+        return new ByteBuffer[] { header, ByteBuffer.wrap(payload) };
+    }
+
+    public static void write(OutputStream out, ClientMessage message) throws IOException {
+        write(out, (byte) message.getClientCommand().ordinal(), message.getPayload());
+    }
+
+    public static void write(OutputStream out, ServerMessage message) throws IOException {
+        write(out, (byte) message.getServerCommand().ordinal(), message.getPayload());
+    }
+
+    private static void write(OutputStream out, byte command, byte[] payload) throws IOException {
+        out.write(ByteBuffer.allocate(HEADER_LENGTH).putInt(payload.length).put(command).array());
+        out.write(payload);
+    }
+
+    // Decoding --------------------------------------------------------------------------------------------------------
+
+    public static ClientMessage toClientMessage(Frame frame) throws IOException {
+        ClientCommands[] commands = ClientCommands.values();
+        if (frame.command() < 0 || frame.command() >= commands.length)
+            throw new IOException("Unknown client command " + frame.command() + ".");
+
+        return new ClientMessage(commands[frame.command()], frame.payload());
+    }
+
+    public static ServerMessage toServerMessage(Frame frame) throws IOException {
+        ServerCommands[] commands = ServerCommands.values();
+        if (frame.command() < 0 || frame.command() >= commands.length)
+            throw new IOException("Unknown server command " + frame.command() + ".");
+
+        return new ServerMessage(commands[frame.command()], frame.payload());
+    }
+
+    static int checkPayloadLength(int length, int maxLength) throws IOException {
+        if (length < 0 || length > maxLength)
+            throw new IOException("Invalid frame length " + length + ".");
+        return length;
+    }
+}
@@ -0,0 +1,20 @@
+package wit.pap.multidraw.shared.communication;
+
+// Server-side readers only accept MAX_HANDSHAKE_PAYLOAD_LENGTH until the peer has sent both its nickname and its
+// room name, so a connection that is not a user yet cannot make the server allocate a full-size frame
+final class HandshakeLimit {
+    private boolean nickname, roomName;
+
+    // Methods ---------------------------------------------------------------------------------------------------------
+
+    void observe(Frame frame) {
+        if (frame.command() == ClientCommands.SET_NICKNAME.ordinal())
+            nickname = true;
+        else if (frame.command() == ClientCommands.JOIN_CREATE_ROOM.ordinal())
+            roomName = true;
+    }
+
+    int maxPayloadLength() {
+        return nickname && roomName ? Frames.MAX_PAYLOAD_LENGTH : Frames.MAX_HANDSHAKE_PAYLOAD_LENGTH;
+    }
+}
@@ -1,8 +1,14 @@
 package wit.pap.multidraw.shared.communication;
 
+import wit.pap.multidraw.shared.globals.Globals;
+
 import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
 
 public abstract class Message implements Serializable {
+    // Payload bytes looked at when describing a message; images are never read past this
+    public static final int MAX_SUMMARY_BYTES = 48;
+
     protected int length;
     protected byte[] payload;
 
@@ -24,6 +30,21 @@ public abstract class Message implements Serializable {
         );
     }
 
+    // Short text payloads as they are, anything else as its size. Reads at most MAX_SUMMARY_BYTES.
+    protected String summarizePayload() {
+        int shown = Math.min(payload.length, MAX_SUMMARY_BYTES);
+        for (int idx = 0; idx < shown; ++idx) {
+            if (payload[idx] < 0x20 || payload[idx] > 0x7e)
+                return new StringBuilder(Globals.BYTESTRING_INFO).append(" (").append(payload.length)
+                        .append(" bytes)").toString();
+        }
+
+        StringBuilder sb = new StringBuilder(new String(payload, 0, shown, StandardCharsets.US_ASCII));
+        if (shown < payload.length)
+            sb.append("... (").append(payload.length).append(" bytes)");
+        return sb.toString();
+    }
+
     // Getters & Setters
 
     public int getLength() {
@@ -0,0 +1,18 @@
+package wit.pap.multidraw.shared.compositing;
+
+// Blends whole BGRA pixels of src over dst; offsets and lengths are in bytes
+public interface BlendKernel {
+    void blendStraight(byte[] dst, int dstOffset, byte[] src, int srcOffset, int length);
+
+    void blendPremultiplied(byte[] dst, int dstOffset, byte[] src, int srcOffset, int length);
+
+    String getName();
+
+    default void blendStraight(byte[] dst, byte[] src, int from, int to) {
+        blendStraight(dst, from, src, from, to - from);
+    }
+
+    default void blendPremultiplied(byte[] dst, byte[] src, int from, int to) {
+        blendPremultiplied(dst, from, src, from, to - from);
+    }
+}
@@ -0,0 +1,46 @@
+package wit.pap.multidraw.shared.compositing;
+
+import java.util.Optional;
+
+public final class BlendKernels {
+    public static final String KERNEL_PROPERTY = "multidraw.compositing.kernel";
+
+    private static final String VECTOR_MODULE = "jdk.incubator.vector";
+    private static final String VECTOR_KERNEL_CLASS = "wit.pap.multidraw.shared.compositing.VectorBlendKernel";
+
+    private static final BlendKernel VECTOR = loadVectorKernel();
+    private static final BlendKernel BEST = selectBest();
+
+    private BlendKernels() { }
+
+    public static BlendKernel scalar() {
+        return ScalarBlendKernel.INSTANCE;
+    }
+
+    public static Optional<BlendKernel> vector() {
+        return Optional.ofNullable(VECTOR);
+    }
+
+    // The vector kernel when the module has been added to the JVM (--add-modules jdk.incubator.vector),
+    // unless -Dmultidraw.compositing.kernel=scalar says otherwise
+    public static BlendKernel best() {
+        return BEST;
+    }
+
+    private static BlendKernel selectBest() {
+        if ("scalar".equalsIgnoreCase(System.getProperty(KERNEL_PROPERTY)))
+            return scalar();
+        return VECTOR != null ? VECTOR : scalar();
+    }
+
+    private static BlendKernel loadVectorKernel() {
+        if (ModuleLayer.boot().findModule(VECTOR_MODULE).isEmpty())
+            return null;
+
+        try {
+            return (BlendKernel) Class.forName(VECTOR_KERNEL_CLASS).getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError e) {
+            return null;
+        }
+    }
+}
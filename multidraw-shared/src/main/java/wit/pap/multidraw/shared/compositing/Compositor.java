@@ -0,0 +1,272 @@
+package wit.pap.multidraw.shared.compositing;
+
+import wit.pap.multidraw.shared.AlphaMode;
+import wit.pap.multidraw.shared.BgraImage;
+import wit.pap.multidraw.shared.SparseBgraImage;
+import wit.pap.multidraw.shared.globals.Globals;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
+
+public final class Compositor {
+    private static final int ROWS_PER_CHUNK = 8;
+    private static final int PARALLEL_THRESHOLD_ROWS = 64;
+
+    private Compositor() { }
+
+    // Methods ---------------------------------------------------------------------------------------------------------
+
+    // Blends top over dest (source-over), in place
+    public static void overlayInto(BgraImage dest, BgraImage top) {
+        overlayInto(dest, top, BlendKernels.best());
+    }
+
+    public static void overlayInto(BgraImage dest, BgraImage top, BlendKernel kernel) {
+        if (dest == null || top == null)
+            throw new IllegalArgumentException("Images cannot be null!");
+        checkCompatible(dest, top);
+
+        byte[] destBytes = dest.getImageArr();
+        byte[] topBytes = top.getImageArr();
+        boolean premultiplied = dest.getAlphaMode() == AlphaMode.PREMULTIPLIED;
+
+        forEachChunk(dest.getWidth(), dest.getHeight(),
+                (from, to) -> blend(kernel, premultiplied, destBytes, topBytes, from, to));
+    }
+
+    // Replaces the contents of dest with all the layers composited bottom to top
+    public static void overlayAllInto(BgraImage dest, BgraImage... layers) {
+        overlayAllInto(BlendKernels.best(), dest, layers);
+    }
+
+    public static void overlayAllInto(BlendKernel kernel, BgraImage dest, BgraImage... layers) {
+        if (dest == null || layers == null)
+            throw new IllegalArgumentException("Images cannot be null!");
+
+        for (int idx = 0; idx < layers.length; ++idx) {
+            if (layers[idx] == null)
+                throw new IllegalArgumentException("Images cannot be null!");
+            if (idx > 0 && layers[idx] == dest)
+                throw new IllegalArgumentException("The destination can only be used as the bottom layer!");
+            checkCompatible(dest, layers[idx]);
+        }
+
+        byte[] destBytes = dest.getImageArr();
+        boolean premultiplied = dest.getAlphaMode() == AlphaMode.PREMULTIPLIED;
+
+        forEachChunk(dest.getWidth(), dest.getHeight(), (from, to) -> {
+            if (layers.length == 0) {
+                Arrays.fill(destBytes, from, to, (byte) Globals.MIN_PIXEL);
+                return;
+            }
+
+            if (layers[0] != dest)
+                System.arraycopy(layers[0].getImageArr(), from, destBytes, from, to - from);
+
+            for (int idx = 1; idx < layers.length; ++idx)
+                blend(kernel, premultiplied, destBytes, layers[idx].getImageArr(), from, to);
+        });
+    }
+
+    // Blends the populated tiles of top over dest (source-over), in place
+    public static void overlayInto(BgraImage dest, SparseBgraImage top) {
+        overlayInto(dest, top, BlendKernels.best());
+    }
+
+    public static void overlayInto(BgraImage dest, SparseBgraImage top, BlendKernel kernel) {
+        if (dest == null || top == null)
+            throw new IllegalArgumentException("Images cannot be null!");
+        checkCompatible(dest, top);
+
+        boolean premultiplied = dest.getAlphaMode() == AlphaMode.PREMULTIPLIED;
+
+        forEachTileRow(top, tileRow -> {
+            int fromRow = tileRow * top.getTileSize();
+            int toRow = Math.min(fromRow + top.getTileSize(), dest.getHeight());
+            blendRows(kernel, premultiplied, dest, top, fromRow, toRow);
+        });
+    }
+
+    // Replaces the contents of dest with the sparse layers composited bottom to top, touching only populated tiles
+    public static void overlayAllInto(BgraImage dest, SparseBgraImage... layers) {
+        overlayAllInto(BlendKernels.best(), dest, layers);
+    }
+
+    public static void overlayAllInto(BlendKernel kernel, BgraImage dest, SparseBgraImage... layers) {
+        if (dest == null || layers == null)
+            throw new IllegalArgumentException("Images cannot be null!");
+
+        for (SparseBgraImage layer : layers) {
+            if (layer == null)
+                throw new IllegalArgumentException("Images cannot be null!");
+            checkCompatible(dest, layer);
+        }
+
+        byte[] destBytes = dest.getImageArr();
+        int rowLength = dest.getWidth() * Globals.BGRA_CHANNELS;
+        boolean premultiplied = dest.getAlphaMode() == AlphaMode.PREMULTIPLIED;
+
+        if (layers.length == 0) {
+            Arrays.fill(destBytes, 0, rowLength * dest.getHeight(), (byte) Globals.MIN_PIXEL);
+            return;
+        }
+
+        // Layers may differ in tile size, so the rows are split by the tiles of the bottom one
+        forEachTileRow(layers[0], tileRow -> {
+            int fromRow = tileRow * layers[0].getTileSize();
+            int toRow = Math.min(fromRow + layers[0].getTileSize(), dest.getHeight());
+            Arrays.fill(destBytes, fromRow * rowLength, toRow * rowLength, (byte) Globals.MIN_PIXEL);
+
+            for (SparseBgraImage layer : layers)
+                blendRows(kernel, premultiplied, dest, layer, fromRow, toRow);
+        });
+    }
+
+    // Replaces the contents of dest with the sparse layers composited bottom to top, tile by tile
+    public static void overlayAllInto(SparseBgraImage dest, SparseBgraImage... layers) {
+        overlayAllInto(BlendKernels.best(), dest, layers);
+    }
+
+    public static void overlayAllInto(BlendKernel kernel, SparseBgraImage dest, SparseBgraImage... layers) {
+        overlayTilesInto(kernel, dest, null, layers);
+    }
+
+    // Like overlayAllInto, but only recomposes the given tiles of dest; null stands for all of them
+    public static void overlayTilesInto(SparseBgraImage dest, BitSet tiles, SparseBgraImage... layers) {
+        overlayTilesInto(BlendKernels.best(), dest, tiles, layers);
+    }
+
+    public static void overlayTilesInto(BlendKernel kernel, SparseBgraImage dest, BitSet tiles,
+                                        SparseBgraImage... layers) {
+        if (dest == null || layers == null)
+            throw new IllegalArgumentException("Images cannot be null!");
+
+        for (SparseBgraImage layer : layers) {
+            if (layer == null)
+                throw new IllegalArgumentException("Images cannot be null!");
+            if (layer == dest)
+                throw new IllegalArgumentException("The destination cannot be one of the layers!");
+            if (layer.getWidth() != dest.getWidth() || layer.getHeight() != dest.getHeight())
+                throw new IllegalArgumentException("Image dimensions do not match!");
+            if (layer.getAlphaMode() != dest.getAlphaMode())
+                throw new IllegalArgumentException("Alpha modes do not match!");
+            if (layer.getTileSize() != dest.getTileSize())
+                throw new IllegalArgumentException("Tile sizes do not match!");
+        }
+
+        boolean premultiplied = dest.getAlphaMode() == AlphaMode.PREMULTIPLIED;
+
+        IntStream tileIndices = tiles == null
+                ? IntStream.range(0, dest.getTileCount())
+                : tiles.stream().filter(tileIndex -> tileIndex < dest.getTileCount());
+        if (dest.getHeight() >= PARALLEL_THRESHOLD_ROWS)
+            tileIndices = tileIndices.parallel();
+
+        tileIndices.forEach(tileIndex -> {
+            byte[] result = null;
+
+            for (SparseBgraImage layer : layers) {
+                byte[] tile = layer.getTile(tileIndex);
+                if (tile == null)
+                    continue;
+
+                if (result == null) {
+                    // The destination owns its tiles, so an existing one is overwritten rather than reallocated
+                    result = dest.getTile(tileIndex) != null ? dest.getTile(tileIndex) : new byte[tile.length];
+                    System.arraycopy(tile, 0, result, 0, tile.length);
+                } else {
+                    blend(kernel, premultiplied, result, 0, tile, 0, tile.length);
+                }
+            }
+
+            dest.setTile(tileIndex, result);
+        });
+    }
+
+    // Helpers ---------------------------------------------------------------------------------------------------------
+
+    // Blends the populated tiles of layer over the rows [fromRow, toRow) of dest
+    private static void blendRows(BlendKernel kernel, boolean premultiplied, BgraImage dest,
+                                  SparseBgraImage layer, int fromRow, int toRow) {
+        byte[] destBytes = dest.getImageArr();
+        int tileSize = layer.getTileSize();
+
+        for (int tileRow = fromRow / tileSize; tileRow * tileSize < toRow; ++tileRow) {
+            for (int tileCol = 0; tileCol < layer.getTilesX(); ++tileCol) {
+                int tileIndex = tileRow * layer.getTilesX() + tileCol;
+                byte[] tile = layer.getTile(tileIndex);
+                if (tile == null)
+                    continue;
+
+                int x = layer.getTileX(tileIndex), y = layer.getTileY(tileIndex);
+                int tileRowLength = layer.getTileWidth(tileIndex) * Globals.BGRA_CHANNELS;
+                int from = Math.max(fromRow, y), to = Math.min(toRow, y + layer.getTileHeight(tileIndex));
+
+                for (int row = from; row < to; ++row) {
+                    int destOffset = (row * dest.getWidth() + x) * Globals.BGRA_CHANNELS;
+                    int tileOffset = (row - y) * tileRowLength;
+                    blend(kernel, premultiplied, destBytes, destOffset, tile, tileOffset, tileRowLength);
+                }
+            }
+        }
+    }
+
+    private static void blend(BlendKernel kernel, boolean premultiplied, byte[] dst, byte[] src, int from, int to) {
+        if (premultiplied)
+            kernel.blendPremultiplied(dst, src, from, to);
+        else
+            kernel.blendStraight(dst, src, from, to);
+    }
+
+    private static void blend(BlendKernel kernel, boolean premultiplied,
+                              byte[] dst, int dstOffset, byte[] src, int srcOffset, int length) {
+        if (premultiplied)
+            kernel.blendPremultiplied(dst, dstOffset, src, srcOffset, length);
+        else
+            kernel.blendStraight(dst, dstOffset, src, srcOffset, length);
+    }
+
+    private static void forEachTileRow(SparseBgraImage layer, IntConsumer action) {
+        IntStream tileRows = IntStream.range(0, layer.getTilesY());
+        if (layer.getHeight() >= PARALLEL_THRESHOLD_ROWS)
+            tileRows = tileRows.parallel();
+
+        tileRows.forEach(action);
+    }
+
+    private static void forEachChunk(int width, int height, ByteRangeAction action) {
+        int rowLength = width * Globals.BGRA_CHANNELS;
+        int chunks = Math.ceilDiv(height, ROWS_PER_CHUNK);
+
+        IntStream chunkStream = IntStream.range(0, chunks);
+        if (height >= PARALLEL_THRESHOLD_ROWS)
+            chunkStream = chunkStream.parallel();
+
+        chunkStream.forEach(chunk -> {
+            int fromRow = chunk * ROWS_PER_CHUNK;
+            int toRow = Math.min(fromRow + ROWS_PER_CHUNK, height);
+            action.apply(fromRow * rowLength, toRow * rowLength);
+        });
+    }
+
+    private static void checkCompatible(BgraImage expected, BgraImage actual) {
+        if (expected.getWidth() != actual.getWidth() || expected.getHeight() != actual.getHeight())
+            throw new IllegalArgumentException("Image dimensions do not match!");
+        if (expected.getAlphaMode() != actual.getAlphaMode())
+            throw new IllegalArgumentException("Alpha modes do not match!");
+    }
+
+    private static void checkCompatible(BgraImage expected, SparseBgraImage actual) {
+        if (expected.getWidth() != actual.getWidth() || expected.getHeight() != actual.getHeight())
+            throw new IllegalArgumentException("Image dimensions do not match!");
+        if (expected.getAlphaMode() != actual.getAlphaMode())
+            throw new IllegalArgumentException("Alpha modes do not match!");
+    }
+
+    @FunctionalInterface
+    private interface ByteRangeAction {
+        void apply(int from, int to);
+    }
+}
@@ -0,0 +1,85 @@
+package wit.pap.multidraw.shared.compositing;
+
+import wit.pap.multidraw.shared.globals.Globals;
+
+final class ScalarBlendKernel implements BlendKernel {
+    static final ScalarBlendKernel INSTANCE = new ScalarBlendKernel();
+
+    private ScalarBlendKernel() { }
+
+    // Porter-Duff source-over on straight alpha, exact to the nearest integer
+    @Override
+    public void blendStraight(byte[] dst, int dstOffset, byte[] src, int srcOffset, int length) {
+        for (int n = 0; n < length; n += Globals.BGRA_CHANNELS) {
+            int i = dstOffset + n, j = srcOffset + n;
+            int sa = src[j + 3] & 0xFF;
+            if (sa == 0)
+                continue;
+
+            int da = dst[i + 3] & 0xFF;
+            if (sa == Globals.MAX_PIXEL || da == 0) {
+                dst[i]     = src[j];
+                dst[i + 1] = src[j + 1];
+                dst[i + 2] = src[j + 2];
+                dst[i + 3] = src[j + 3];
+                continue;
+            }
+
+            int ia = Globals.MAX_PIXEL - sa;
+
+            if (da == Globals.MAX_PIXEL) {
+                dst[i]     = (byte) div255((src[j] & 0xFF) * sa + (dst[i] & 0xFF) * ia);
+                dst[i + 1] = (byte) div255((src[j + 1] & 0xFF) * sa + (dst[i + 1] & 0xFF) * ia);
+                dst[i + 2] = (byte) div255((src[j + 2] & 0xFF) * sa + (dst[i + 2] & 0xFF) * ia);
+                continue;
+            }
+
+            int sw = sa * Globals.MAX_PIXEL;
+            int dw = da * ia;
+            int aw = sw + dw;
+            int half = aw >> 1;
+
+            dst[i]     = (byte) (((src[j] & 0xFF) * sw + (dst[i] & 0xFF) * dw + half) / aw);
+            dst[i + 1] = (byte) (((src[j + 1] & 0xFF) * sw + (dst[i + 1] & 0xFF) * dw + half) / aw);
+            dst[i + 2] = (byte) (((src[j + 2] & 0xFF) * sw + (dst[i + 2] & 0xFF) * dw + half) / aw);
+            dst[i + 3] = (byte) div255(aw);
+        }
+    }
+
+    // Porter-Duff source-over on premultiplied alpha: one multiply per channel
+    @Override
+    public void blendPremultiplied(byte[] dst, int dstOffset, byte[] src, int srcOffset, int length) {
+        for (int n = 0; n < length; n += Globals.BGRA_CHANNELS) {
+            int i = dstOffset + n, j = srcOffset + n;
+            int sa = src[j + 3] & 0xFF;
+            if (sa == 0)
+                continue;
+
+            if (sa == Globals.MAX_PIXEL) {
+                dst[i]     = src[j];
+                dst[i + 1] = src[j + 1];
+                dst[i + 2] = src[j + 2];
+                dst[i + 3] = src[j + 3];
+                continue;
+            }
+
+            int ia = Globals.MAX_PIXEL - sa;
+
+            dst[i]     = (byte) ((src[j] & 0xFF) + div255((dst[i] & 0xFF) * ia));
+            dst[i + 1] = (byte) ((src[j + 1] & 0xFF) + div255((dst[i + 1] & 0xFF) * ia));
+            dst[i + 2] = (byte) ((src[j + 2] & 0xFF) + div255((dst[i + 2] & 0xFF) * ia));
+            dst[i + 3] = (byte) (sa + div255((dst[i + 3] & 0xFF) * ia));
+        }
+    }
+
+    @Override
+    public String getName() {
+        return "scalar";
+    }
+
+    // Rounded x / 255, exact for 0 <= x <= 255 * 255
+    static int div255(int x) {
+        x += 128;
+        return (x + (x >> 8)) >> 8;
+    }
+}
@@ -0,0 +1,121 @@
+package wit.pap.multidraw.shared.compositing;
+
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorSpecies;
+import wit.pap.multidraw.shared.globals.Globals;
+
+import static jdk.incubator.vector.VectorOperators.EQ;
+import static jdk.incubator.vector.VectorOperators.LSHL;
+import static jdk.incubator.vector.VectorOperators.LSHR;
+import static jdk.incubator.vector.VectorOperators.NE;
+
+// Only loaded through BlendKernels once jdk.incubator.vector is known to be present
+final class VectorBlendKernel implements BlendKernel {
+    private static final VectorSpecies<Integer> PIXELS = IntVector.SPECIES_PREFERRED;
+    private static final VectorSpecies<Byte> BYTES = VectorSpecies.of(byte.class, PIXELS.vectorShape());
+
+    private final ScalarBlendKernel fallback = ScalarBlendKernel.INSTANCE;
+
+    // Produces the same bytes as ScalarBlendKernel: lanes that would need a real division
+    // (translucent over translucent) send their whole vector down the scalar path
+    @Override
+    public void blendStraight(byte[] dst, int dstOffset, byte[] src, int srcOffset, int length) {
+        int step = BYTES.length();
+        int upper = BYTES.loopBound(length);
+        int n = 0;
+
+        for (; n < upper; n += step) {
+            int i = dstOffset + n, j = srcOffset + n;
+            IntVector s = ByteVector.fromArray(BYTES, src, j).reinterpretAsInts();
+            IntVector sa = s.lanewise(LSHR, 24);
+
+            VectorMask<Integer> visible = sa.compare(NE, 0);
+            if (!visible.anyTrue())
+                continue;
+
+            IntVector d = ByteVector.fromArray(BYTES, dst, i).reinterpretAsInts();
+            IntVector da = d.lanewise(LSHR, 24);
+
+            VectorMask<Integer> copy = visible.and(sa.compare(EQ, Globals.MAX_PIXEL).or(da.compare(EQ, 0)));
+            VectorMask<Integer> mix = visible.andNot(copy);
+            VectorMask<Integer> mixOverOpaque = mix.and(da.compare(EQ, Globals.MAX_PIXEL));
+
+            if (mix.andNot(mixOverOpaque).anyTrue()) {
+                fallback.blendStraight(dst, i, src, j, step);
+                continue;
+            }
+
+            IntVector result = d.blend(s, copy);
+
+            if (mixOverOpaque.anyTrue()) {
+                IntVector ia = sa.neg().add(Globals.MAX_PIXEL);
+
+                IntVector b = mixChannel(s, d, sa, ia, 0);
+                IntVector g = mixChannel(s, d, sa, ia, 8);
+                IntVector r = mixChannel(s, d, sa, ia, 16);
+                IntVector mixed = b.or(g.lanewise(LSHL, 8)).or(r.lanewise(LSHL, 16)).or(0xFF000000);
+
+                result = result.blend(mixed, mixOverOpaque);
+            }
+
+            result.reinterpretAsBytes().intoArray(dst, i);
+        }
+
+        fallback.blendStraight(dst, dstOffset + n, src, srcOffset + n, length - n);
+    }
+
+    @Override
+    public void blendPremultiplied(byte[] dst, int dstOffset, byte[] src, int srcOffset, int length) {
+        int step = BYTES.length();
+        int upper = BYTES.loopBound(length);
+        int n = 0;
+
+        for (; n < upper; n += step) {
+            int i = dstOffset + n, j = srcOffset + n;
+            IntVector s = ByteVector.fromArray(BYTES, src, j).reinterpretAsInts();
+            IntVector sa = s.lanewise(LSHR, 24);
+
+            VectorMask<Integer> visible = sa.compare(NE, 0);
+            if (!visible.anyTrue())
+                continue;
+
+            IntVector d = ByteVector.fromArray(BYTES, dst, i).reinterpretAsInts();
+            IntVector ia = sa.neg().add(Globals.MAX_PIXEL);
+
+            IntVector b = fadeChannel(s, d, ia, 0);
+            IntVector g = fadeChannel(s, d, ia, 8);
+            IntVector r = fadeChannel(s, d, ia, 16);
+            IntVector a = fadeChannel(s, d, ia, 24);
+            IntVector mixed = b.or(g.lanewise(LSHL, 8)).or(r.lanewise(LSHL, 16)).or(a.lanewise(LSHL, 24));
+
+            d.blend(mixed, visible).reinterpretAsBytes().intoArray(dst, i);
+        }
+
+        fallback.blendPremultiplied(dst, dstOffset + n, src, srcOffset + n, length - n);
+    }
+
+    @Override
+    public String getName() {
+        return new StringBuilder("vector-").append(PIXELS.vectorBitSize()).toString();
+    }
+
+    private static IntVector mixChannel(IntVector s, IntVector d, IntVector sa, IntVector ia, int shift) {
+        IntVector sc = s.lanewise(LSHR, shift).and(0xFF);
+        IntVector dc = d.lanewise(LSHR, shift).and(0xFF);
+        return div255(sc.mul(sa).add(dc.mul(ia)));
+    }
+
+    // Masked back to a byte, so that malformed (colour > alpha) input wraps exactly like the scalar cast
+    private static IntVector fadeChannel(IntVector s, IntVector d, IntVector ia, int shift) {
+        IntVector sc = s.lanewise(LSHR, shift).and(0xFF);
+        IntVector dc = d.lanewise(LSHR, shift).and(0xFF);
+        return sc.add(div255(dc.mul(ia))).and(0xFF);
+    }
+
+    private static IntVector div255(IntVector x) {
+        IntVector rounded = x.add(128);
+        return rounded.add(rounded.lanewise(LSHR, 8)).lanewise(LSHR, 8);
+    }
+}
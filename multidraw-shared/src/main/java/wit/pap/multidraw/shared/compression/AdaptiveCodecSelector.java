@@ -0,0 +1,124 @@
+package wit.pap.multidraw.shared.compression;
+
+import java.util.List;
+
+// Picks the codec with the lowest measured cost per input byte, where
+//   cost = encoding nanoseconds + output bytes * nanosPerByte
+// nanosPerByte says what one byte on the wire is worth in CPU time (about 8 ns on a 1 Gbit/s link).
+// The first encode and every EXPLORE_EVERY-th one after it run every codec on the same sample of the input,
+// so that the codecs are always compared on the same content; the input itself only uses the preferred codec.
+// One selector per connection or room; -Dmultidraw.compression.codec=<name> pins a single codec.
+public class AdaptiveCodecSelector {
+    public static final String CODEC_PROPERTY = "multidraw.compression.codec";
+    public static final String NANOS_PER_BYTE_PROPERTY = "multidraw.compression.nanosPerByte";
+
+    private static final double DEFAULT_NANOS_PER_BYTE = 8;
+    private static final int EXPLORE_EVERY = 32;
+    private static final double SMOOTHING = 0.25;
+
+    private final List<CompressionCodec> candidates;
+    private final double nanosPerByte;
+    private final double[] nanosPerInputByte, outputRatio;
+    private final boolean[] measured;
+    private long encodes;
+
+    public AdaptiveCodecSelector(List<CompressionCodec> candidates, double nanosPerByte) {
+        if (candidates == null || candidates.isEmpty())
+            throw new IllegalArgumentException("At least one codec is needed!");
+
+        this.candidates = List.copyOf(candidates);
+        this.nanosPerByte = nanosPerByte;
+        this.nanosPerInputByte = new double[candidates.size()];
+        this.outputRatio = new double[candidates.size()];
+        this.measured = new boolean[candidates.size()];
+    }
+
+    public static AdaptiveCodecSelector fromSystemProperties() {
+        String pinned = System.getProperty(CODEC_PROPERTY);
+        double nanosPerByte = DEFAULT_NANOS_PER_BYTE;
+
+        try {
+            String value = System.getProperty(NANOS_PER_BYTE_PROPERTY);
+            if (value != null)
+                nanosPerByte = Double.parseDouble(value);
+        } catch (NumberFormatException ignored) { }
+
+        List<CompressionCodec> candidates = CompressionCodecs.byName(pinned)
+                .map(List::of)
+                .orElse(List.of(
+                        CompressionCodecs.RLE,
+                        CompressionCodecs.LZ,
+                        CompressionCodecs.DEFLATE_FAST,
+                        CompressionCodecs.DEFLATE_DEFAULT
+                ));
+
+        return new AdaptiveCodecSelector(candidates, nanosPerByte);
+    }
+
+    // Methods ---------------------------------------------------------------------------------------------------------
+
+    // Whether every candidate should be measured on a sample of the next input before it is encoded
+    public synchronized boolean shouldExplore() {
+        boolean explore = encodes++ % EXPLORE_EVERY == 0 && candidates.size() > 1;
+        for (boolean m: measured)
+            explore |= !m;
+
+        return explore;
+    }
+
+    public synchronized void record(CompressionCodec codec, int inputBytes, int outputBytes, long nanos) {
+        int idx = candidates.indexOf(codec);
+        if (idx < 0 || inputBytes <= 0)
+            return;
+
+        double nanosSample = nanos / (double) inputBytes;
+        double ratioSample = outputBytes / (double) inputBytes;
+
+        if (!measured[idx]) {
+            nanosPerInputByte[idx] = nanosSample;
+            outputRatio[idx] = ratioSample;
+            measured[idx] = true;
+        } else {
+            nanosPerInputByte[idx] += SMOOTHING * (nanosSample - nanosPerInputByte[idx]);
+            outputRatio[idx] += SMOOTHING * (ratioSample - outputRatio[idx]);
+        }
+    }
+
+    public List<CompressionCodec> getCandidates() {
+        return candidates;
+    }
+
+    public synchronized CompressionCodec getPreferred() {
+        return candidates.get(bestIndex());
+    }
+
+    private int bestIndex() {
+        int best = 0;
+        double bestCost = Double.MAX_VALUE;
+
+        for (int idx = 0; idx < candidates.size(); ++idx) {
+            if (!measured[idx])
+                continue;
+
+            double cost = nanosPerInputByte[idx] + outputRatio[idx] * nanosPerByte;
+            if (cost < bestCost) {
+                bestCost = cost;
+                best = idx;
+            }
+        }
+
+        return best;
+    }
+
+    @Override
+    public synchronized String toString() {
+        StringBuilder sb = new StringBuilder("codecs {");
+        for (int idx = 0; idx < candidates.size(); ++idx) {
+            if (idx > 0) sb.append(", ");
+            sb.append(candidates.get(idx).getName());
+            if (measured[idx])
+                sb.append(String.format(" %.2fns/B x%.3f", nanosPerInputByte[idx], outputRatio[idx]));
+        }
+        return sb.append("} preferred ").append(candidates.get(bestIndex()).getName()).toString();
+    }
+}
@@ -0,0 +1,24 @@
+package wit.pap.multidraw.shared.compression;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+// Service interface for payload compression. The id travels in the image header, so the receiving side
+// only needs a codec with the same id to decode; additional codecs can be registered through ServiceLoader.
+public interface CompressionCodec {
+    byte getId();
+
+    String getName();
+
+    void compress(byte[] src, int offset, int length, ByteArrayOutputStream out) throws IOException;
+
+    // Needs to fill dst[dstOffset, dstOffset + dstLength) exactly and consume the whole source range
+    void decompress(byte[] src, int srcOffset, int srcLength, byte[] dst, int dstOffset, int dstLength)
+            throws IOException;
+
+    // How many bytes srcLength compressed bytes can at most decompress to, so that receivers can reject
+    // length fields before allocating for them
+    default long maxDecompressedLength(int srcLength) {
+        return Long.MAX_VALUE;
+    }
+}
@@ -0,0 +1,51 @@
+package wit.pap.multidraw.shared.compression;
+
+import java.util.*;
+import java.util.zip.Deflater;
+
+public final class CompressionCodecs {
+    public static final CompressionCodec RAW = new RawCodec();
+    public static final CompressionCodec RLE = new TransparentRunCodec();
+    public static final CompressionCodec LZ = new LzCodec();
+    public static final CompressionCodec DEFLATE_FAST = new DeflateCodec(DeflateCodec.FAST_ID, Deflater.BEST_SPEED);
+    public static final CompressionCodec DEFLATE_DEFAULT = new DeflateCodec(DeflateCodec.DEFAULT_ID, 6);
+    public static final CompressionCodec DEFLATE_BEST =
+            new DeflateCodec(DeflateCodec.BEST_ID, Deflater.BEST_COMPRESSION);
+    public static final CompressionCodec DEFLATE_HUFFMAN =
+            new DeflateCodec(DeflateCodec.HUFFMAN_ID, 6, Deflater.HUFFMAN_ONLY);
+
+    private static final Map<String, CompressionCodec> BY_NAME = new LinkedHashMap<>();
+    private static final Map<Byte, CompressionCodec> BY_ID = new HashMap<>();
+
+    static {
+        for (CompressionCodec codec: List.of(RAW, RLE, LZ, DEFLATE_FAST, DEFLATE_DEFAULT, DEFLATE_BEST, DEFLATE_HUFFMAN))
+            register(codec);
+
+        // Built-in ids and names win over providers that reuse them
+        for (CompressionCodec codec: ServiceLoader.load(CompressionCodec.class))
+            register(codec);
+    }
+
+    private CompressionCodecs() { }
+
+    private static void register(CompressionCodec codec) {
+        BY_NAME.putIfAbsent(codec.getName(), codec);
+        BY_ID.putIfAbsent(codec.getId(), codec);
+    }
+
+    public static Optional<CompressionCodec> byId(byte id) {
+        return Optional.ofNullable(BY_ID.get(id));
+    }
+
+    public static Optional<CompressionCodec> byName(String name) {
+        return Optional.ofNullable(name == null ? null : BY_NAME.get(name.trim().toLowerCase()));
+    }
+
+    public static Collection<CompressionCodec> all() {
+        return Collections.unmodifiableCollection(BY_NAME.values());
+    }
+
+    public static CompressionCodec getDefault() {
+        return DEFLATE_DEFAULT;
+    }
+}
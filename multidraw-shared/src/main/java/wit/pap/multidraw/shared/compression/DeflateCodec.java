@@ -0,0 +1,103 @@
+package wit.pap.multidraw.shared.compression;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+// zlib streams; level and strategy only matter when compressing
+public class DeflateCodec implements CompressionCodec {
+    // Levels and strategies share the stream format, but each variant keeps its own id so that the header
+    // tells which one produced an image
+    public static final byte DEFAULT_ID = 1;
+    public static final byte FAST_ID = 4;
+    public static final byte BEST_ID = 5;
+    public static final byte HUFFMAN_ID = 6;
+
+    private static final int BUFFER_LENGTH = 64 * 1024;
+    // Deflate cannot do better than 258 bytes out of two bits
+    private static final int MAX_INFLATE_RATIO = 1032;
+
+    private final byte id;
+    private final int level, strategy;
+    private final String name;
+
+    public DeflateCodec(byte id, int level) {
+        this(id, level, Deflater.DEFAULT_STRATEGY);
+    }
+
+    public DeflateCodec(byte id, int level, int strategy) {
+        if (level < Deflater.BEST_SPEED || level > Deflater.BEST_COMPRESSION)
+            throw new IllegalArgumentException("Deflate level needs to be between 1 and 9!");
+
+        this.id = id;
+        this.level = level;
+        this.strategy = strategy;
+        this.name = switch (strategy) {
+            case Deflater.FILTERED -> "deflate-" + level + "-filtered";
+            case Deflater.HUFFMAN_ONLY -> "deflate-huffman";
+            default -> "deflate-" + level;
+        };
+    }
+
+    @Override
+    public byte getId() {
+        return id;
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public long maxDecompressedLength(int srcLength) {
+        return (long) srcLength * MAX_INFLATE_RATIO;
+    }
+
+    @Override
+    public void compress(byte[] src, int offset, int length, ByteArrayOutputStream out) {
+        Deflater deflater = new Deflater(level);
+        try {
+            deflater.setStrategy(strategy);
+            deflater.setInput(src, offset, length);
+            deflater.finish();
+
+            byte[] buffer = new byte[BUFFER_LENGTH];
+            while (!deflater.finished()) {
+                int written = deflater.deflate(buffer);
+                out.write(buffer, 0, written);
+            }
+        } finally {
+            deflater.end();
+        }
+    }
+
+    @Override
+    public void decompress(byte[] src, int srcOffset, int srcLength, byte[] dst, int dstOffset, int dstLength)
+            throws IOException {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(src, srcOffset, srcLength);
+
+            int position = dstOffset, end = dstOffset + dstLength;
+            while (position < end) {
+                int read = inflater.inflate(dst, position, end - position);
+                if (read == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary()))
+                    throw new IOException("Truncated deflate data.");
+                position += read;
+            }
+
+            // Lets the inflater consume the stream trailer
+            if (!inflater.finished() && inflater.inflate(new byte[1]) != 0)
+                throw new IOException("Deflate data is longer than expected.");
+            if (!inflater.finished() || inflater.getRemaining() != 0)
+                throw new IOException("Deflate data does not end where expected.");
+        } catch (DataFormatException e) {
+            throw new IOException(e);
+        } finally {
+            inflater.end();
+        }
+    }
+}
@@ -0,0 +1,176 @@
+package wit.pap.multidraw.shared.compression;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+// A small pure-Java LZ77 codec laid out like LZ4 blocks: a token with literal and match length nibbles,
+// extended lengths in 255-steps, the literals, then a 2-byte little-endian offset. The final sequence
+// only carries literals. Speed over ratio; long transparent stretches become a handful of bytes.
+public class LzCodec implements CompressionCodec {
+    public static final byte ID = 3;
+
+    private static final int MIN_MATCH = 4;
+    private static final int LAST_LITERALS = 5;
+    private static final int MAX_OFFSET = 65535;
+    private static final int HASH_BITS = 14;
+    private static final int SKIP_STRENGTH = 6;
+    // Every extra length byte adds at most 255 to a match
+    private static final int MAX_EXPANSION = 255;
+
+    @Override
+    public byte getId() {
+        return ID;
+    }
+
+    @Override
+    public String getName() {
+        return "lz";
+    }
+
+    @Override
+    public long maxDecompressedLength(int srcLength) {
+        return (long) srcLength * MAX_EXPANSION;
+    }
+
+    @Override
+    public void compress(byte[] src, int offset, int length, ByteArrayOutputStream out) {
+        int end = offset + length;
+        int matchLimit = end - LAST_LITERALS;
+        int[] table = new int[1 << HASH_BITS];
+
+        int anchor = offset, position = offset;
+
+        while (position + MIN_MATCH <= matchLimit) {
+            int sequence = readInt(src, position);
+            int hash = hash(sequence);
+            int reference = table[hash] - 1;
+            table[hash] = position + 1;
+
+            if (reference < offset || position - reference > MAX_OFFSET || readInt(src, reference) != sequence) {
+                position += 1 + ((position - anchor) >>> SKIP_STRENGTH);
+                continue;
+            }
+
+            int matchLength = MIN_MATCH;
+            while (position + matchLength < matchLimit && src[reference + matchLength] == src[position + matchLength])
+                ++matchLength;
+
+            writeSequence(out, src, anchor, position - anchor, position - reference, matchLength);
+            position += matchLength;
+            anchor = position;
+        }
+
+        writeLastLiterals(out, src, anchor, end - anchor);
+    }
+
+    @Override
+    public void decompress(byte[] src, int srcOffset, int srcLength, byte[] dst, int dstOffset, int dstLength)
+            throws IOException {
+        int srcPosition = srcOffset, srcEnd = srcOffset + srcLength;
+        int dstPosition = dstOffset, dstEnd = dstOffset + dstLength;
+
+        while (true) {
+            if (srcPosition >= srcEnd)
+                throw new IOException("Truncated LZ data.");
+
+            int token = src[srcPosition++] & 0xFF;
+
+            int literals = token >>> 4;
+            if (literals == 15) {
+                int[] extended = readLength(src, srcPosition, srcEnd);
+                literals += extended[0];
+                srcPosition = extended[1];
+            }
+
+            if (literals > srcEnd - srcPosition || literals > dstEnd - dstPosition)
+                throw new IOException("Malformed LZ data.");
+            System.arraycopy(src, srcPosition, dst, dstPosition, literals);
+            srcPosition += literals;
+            dstPosition += literals;
+
+            if (dstPosition == dstEnd)
+                break;
+
+            if (srcEnd - srcPosition < 2)
+                throw new IOException("Truncated LZ data.");
+            int distance = (src[srcPosition] & 0xFF) | ((src[srcPosition + 1] & 0xFF) << 8);
+            srcPosition += 2;
+
+            int matchLength = (token & 0x0F) + MIN_MATCH;
+            if ((token & 0x0F) == 15) {
+                int[] extended = readLength(src, srcPosition, srcEnd);
+                matchLength += extended[0];
+                srcPosition = extended[1];
+            }
+
+            if (distance == 0 || distance > dstPosition - dstOffset || matchLength > dstEnd - dstPosition)
+                throw new IOException("Malformed LZ data.");
+
+            int reference = dstPosition - distance;
+            if (distance >= matchLength) {
+                System.arraycopy(dst, reference, dst, dstPosition, matchLength);
+            } else {
+                for (int idx = 0; idx < matchLength; ++idx)
+                    dst[dstPosition + idx] = dst[reference + idx];
+            }
+            dstPosition += matchLength;
+        }
+
+        if (srcPosition != srcEnd)
+            throw new IOException("LZ data does not end where expected.");
+    }
+
+    private static void writeSequence(ByteArrayOutputStream out, byte[] src, int literalStart, int literals,
+                                      int distance, int matchLength) {
+        int extraMatch = matchLength - MIN_MATCH;
+        out.write((Math.min(literals, 15) << 4) | Math.min(extraMatch, 15));
+
+        if (literals >= 15)
+            writeLength(out, literals - 15);
+        out.write(src, literalStart, literals);
+
+        out.write(distance & 0xFF);
+        out.write((distance >>> 8) & 0xFF);
+
+        if (extraMatch >= 15)
+            writeLength(out, extraMatch - 15);
+    }
+
+    private static void writeLastLiterals(ByteArrayOutputStream out, byte[] src, int literalStart, int literals) {
+        out.write(Math.min(literals, 15) << 4);
+        if (literals >= 15)
+            writeLength(out, literals - 15);
+        out.write(src, literalStart, literals);
+    }
+
+    private static void writeLength(ByteArrayOutputStream out, int length) {
+        while (length >= 255) {
+            out.write(255);
+            length -= 255;
+        }
+        out.write(length);
+    }
+
+    // Returns {length, new source position}
+    private static int[] readLength(byte[] src, int position, int end) throws IOException {
+        int length = 0, b;
+        do {
+            if (position >= end)
+                throw new IOException("Truncated LZ data.");
+            b = src[position++] & 0xFF;
+            length += b;
+            if (length < 0)
+                throw new IOException("Malformed LZ data.");
+        } while (b == 255);
+
+        return new int[] {length, position};
+    }
+
+    private static int readInt(byte[] src, int idx) {
+        return (src[idx] & 0xFF) | ((src[idx + 1] & 0xFF) << 8) | ((src[idx + 2] & 0xFF) << 16) | (src[idx + 3] << 24);
+    }
+
+    private static int hash(int sequence) {
+        return (sequence * -1640531535) >>> (32 - HASH_BITS);
+    }
+}
@@ -0,0 +1,37 @@
+package wit.pap.multidraw.shared.compression;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+public class RawCodec implements CompressionCodec {
+    public static final byte ID = 0;
+
+    @Override
+    public byte getId() {
+        return ID;
+    }
+
+    @Override
+    public String getName() {
+        return "raw";
+    }
+
+    @Override
+    public long maxDecompressedLength(int srcLength) {
+        return srcLength;
+    }
+
+    @Override
+    public void compress(byte[] src, int offset, int length, ByteArrayOutputStream out) {
+        out.write(src, offset, length);
+    }
+
+    @Override
+    public void decompress(byte[] src, int srcOffset, int srcLength, byte[] dst, int dstOffset, int dstLength)
+            throws IOException {
+        if (srcLength != dstLength)
+            throw new IOException("Raw data length mismatch.");
+
+        System.arraycopy(src, srcOffset, dst, dstOffset, dstLength);
+    }
+}
@@ -0,0 +1,103 @@
+package wit.pap.multidraw.shared.compression;
+
+import wit.pap.multidraw.shared.globals.Globals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+// Run-length encoding of whole BGRA pixels: runs of fully zero (transparent) pixels are stored as a count,
+// everything else as literal pixels. Each run starts with a varint of (pixel count << 1 | literal flag).
+// Bytes past the last whole pixel are appended as they are.
+public class TransparentRunCodec implements CompressionCodec {
+    public static final byte ID = 2;
+
+    @Override
+    public byte getId() {
+        return ID;
+    }
+
+    @Override
+    public String getName() {
+        return "rle";
+    }
+
+    @Override
+    public void compress(byte[] src, int offset, int length, ByteArrayOutputStream out) {
+        int pixels = length / Globals.BGRA_CHANNELS;
+        int pixel = 0;
+
+        while (pixel < pixels) {
+            int start = pixel;
+
+            if (isTransparent(src, offset + pixel * Globals.BGRA_CHANNELS)) {
+                while (pixel < pixels && isTransparent(src, offset + pixel * Globals.BGRA_CHANNELS))
+                    ++pixel;
+
+                writeVarint(out, (long) (pixel - start) << 1);
+            } else {
+                while (pixel < pixels && !isTransparent(src, offset + pixel * Globals.BGRA_CHANNELS))
+                    ++pixel;
+
+                writeVarint(out, ((long) (pixel - start) << 1) | 1);
+                out.write(src, offset + start * Globals.BGRA_CHANNELS, (pixel - start) * Globals.BGRA_CHANNELS);
+            }
+        }
+
+        int tail = pixels * Globals.BGRA_CHANNELS;
+        out.write(src, offset + tail, length - tail);
+    }
+
+    @Override
+    public void decompress(byte[] src, int srcOffset, int srcLength, byte[] dst, int dstOffset, int dstLength)
+            throws IOException {
+        int srcPosition = srcOffset, srcEnd = srcOffset + srcLength;
+        int dstPosition = dstOffset;
+        int pixelsEnd = dstOffset + (dstLength / Globals.BGRA_CHANNELS) * Globals.BGRA_CHANNELS;
+
+        while (dstPosition < pixelsEnd) {
+            long header = 0;
+            int shift = 0;
+            int b;
+            do {
+                if (srcPosition >= srcEnd || shift > 35)
+                    throw new IOException("Malformed run-length data.");
+                b = src[srcPosition++] & 0xFF;
+                header |= (long) (b & 0x7F) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+
+            long runBytes = (header >>> 1) * Globals.BGRA_CHANNELS;
+            if (runBytes == 0 || runBytes > pixelsEnd - dstPosition)
+                throw new IOException("Malformed run-length data.");
+
+            int run = (int) runBytes;
+            if ((header & 1) == 0) {
+                Arrays.fill(dst, dstPosition, dstPosition + run, (byte) Globals.MIN_PIXEL);
+            } else {
+                if (srcEnd - srcPosition < run)
+                    throw new IOException("Truncated run-length data.");
+                System.arraycopy(src, srcPosition, dst, dstPosition, run);
+                srcPosition += run;
+            }
+            dstPosition += run;
+        }
+
+        int tail = dstOffset + dstLength - pixelsEnd;
+        if (srcEnd - srcPosition != tail)
+            throw new IOException("Run-length data does not end where expected.");
+        System.arraycopy(src, srcPosition, dst, pixelsEnd, tail);
+    }
+
+    private static boolean isTransparent(byte[] src, int idx) {
+        return (src[idx] | src[idx + 1] | src[idx + 2] | src[idx + 3]) == 0;
+    }
+
+    private static void writeVarint(ByteArrayOutputStream out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+}
@@ -1,5 +1,7 @@
 package wit.pap.multidraw.shared.globals;
 
+import wit.pap.multidraw.shared.AlphaMode;
+
 public class Globals {
     public static final int IMAGE_WIDTH = 1920;
     public static final int IMAGE_HEIGHT = 1080;
@@ -8,6 +10,9 @@ public class Globals {
 
     public static final int MIN_PIXEL = 0;
     public static final int MAX_PIXEL = 255;
+    public static final int TILE_SIZE = 64;
+    public static final AlphaMode CANVAS_ALPHA_MODE = AlphaMode.PREMULTIPLIED;
+    public static final int DEFAULT_POOLED_CANVAS_BUFFERS = 16;
 
 
     public static final int WINDOW_INITIAL_WIDTH = 1270;
@@ -22,7 +27,20 @@ public class Globals {
     public static final int MAX_ROOM_LINGER_MINUTES = 1;
     public static final int CANVAS_SNAPSHOT_INTERVAL_SECONDS = 1;
     public static final int MIDDLEGROUND_CREATION_INTERVAL_SECONDS = 1;
+    public static final int CANVAS_CHECKPOINT_INTERVAL_SECONDS = 10;
+    public static final int RESTORED_LAYER_GRACE_MINUTES = 5;
+    public static final int SNAPSHOT_RETENTION_DAYS = 7;
+    public static final int MAX_SNAPSHOT_ROOMS = 256;
+    public static final int SNAPSHOT_SWEEP_INTERVAL_MINUTES = 60;
     public static final String BYTESTRING_INFO = "<...BYTES...>";
     public static final int MAX_NICKNAME_LENGTH = 32;
     public static final int MAX_ROOMNAME_LENGTH = 32;
+    public static final int HANDSHAKE_TIMEOUT_SECONDS = 10;
+    public static final int MAX_CONCURRENT_HANDSHAKES = 32;
+    public static final int MAX_PENDING_HANDSHAKES = 256;
+    public static final int MAX_OUTBOUND_MESSAGES = 64;
+    public static final int MAX_INBOUND_MESSAGES = 64;
+    public static final int CLUSTER_VIRTUAL_NODES = 128;
+    public static final int CLUSTER_NODE_PROBE_INTERVAL_SECONDS = 2;
+    public static final int CLUSTER_CONNECT_TIMEOUT_MILLIS = 1000;
 }
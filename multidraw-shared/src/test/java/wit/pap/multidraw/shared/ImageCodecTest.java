@@ -0,0 +1,99 @@
+package wit.pap.multidraw.shared;
+
+import org.junit.jupiter.api.Test;
+import wit.pap.multidraw.shared.compression.DeflateCodec;
+import wit.pap.multidraw.shared.compression.RawCodec;
+import wit.pap.multidraw.shared.globals.Globals;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class ImageCodecTest {
+    @Test
+    void sparseImageSurvivesRoundTrip() throws IOException {
+        SparseBgraImage image = new SparseBgraImage(Globals.IMAGE_WIDTH, Globals.IMAGE_HEIGHT, Globals.CANVAS_ALPHA_MODE);
+        image.setBGRA(0, 0, (byte) 1, (byte) 2, (byte) 3, (byte) 4);
+        image.setBGRA(Globals.IMAGE_WIDTH - 1, Globals.IMAGE_HEIGHT - 1, (byte) 5, (byte) 6, (byte) 7, (byte) 8);
+
+        SparseBgraImage decoded = ImageCodec.decodeSparse(ImageCodec.encodeSparse(image, new RawCodec()));
+
+        assertEquals(image.getTileCount(), decoded.getTileCount());
+        for (int idx = 0; idx < image.getTileCount(); ++idx)
+            assertArrayEquals(image.getTile(idx), decoded.getTile(idx));
+    }
+
+    @Test
+    void rejectsSparseGeometryOtherThanTheCanvas() {
+        byte[] wide = tiles(ImageCodec.KIND_SPARSE, Globals.IMAGE_WIDTH * 8, Globals.IMAGE_HEIGHT * 8,
+                RawCodec.ID, 8, body(Globals.TILE_SIZE, 0));
+        byte[] tiny = tiles(ImageCodec.KIND_SPARSE, Globals.IMAGE_WIDTH, Globals.IMAGE_HEIGHT,
+                RawCodec.ID, 8, body(1, 0));
+
+        assertThrows(IOException.class, () -> ImageCodec.decodeSparse(wide));
+        assertThrows(IOException.class, () -> ImageCodec.decodeSparse(tiny));
+    }
+
+    @Test
+    void rejectsDimensionsOtherThanTheCanvas() {
+        byte[] data = tiles(ImageCodec.KIND_PATCH, Globals.IMAGE_WIDTH * 2, Globals.IMAGE_HEIGHT,
+                RawCodec.ID, 8, body(Globals.TILE_SIZE, 0));
+        assertThrows(IOException.class, () -> ImageCodec.decodePatch(data));
+    }
+
+    @Test
+    void rejectsOtherTileSizes() {
+        byte[] data = tiles(ImageCodec.KIND_PATCH, Globals.IMAGE_WIDTH, Globals.IMAGE_HEIGHT,
+                RawCodec.ID, 8, body(1, 0));
+        assertThrows(IOException.class, () -> ImageCodec.decodePatch(data));
+    }
+
+    @Test
+    void rejectsBodyLengthBeyondWhatThePayloadHolds() {
+        byte[] data = tiles(ImageCodec.KIND_PATCH, Globals.IMAGE_WIDTH, Globals.IMAGE_HEIGHT,
+                DeflateCodec.DEFAULT_ID, Integer.MAX_VALUE, new byte[16]);
+        assertThrows(IOException.class, () -> ImageCodec.decodePatch(data));
+    }
+
+    @Test
+    void rejectsTileCountBeyondWhatTheBodyHolds() {
+        byte[] data = tiles(ImageCodec.KIND_PATCH, Globals.IMAGE_WIDTH, Globals.IMAGE_HEIGHT,
+                RawCodec.ID, 8, body(Globals.TILE_SIZE, 100));
+        assertThrows(IOException.class, () -> ImageCodec.decodePatch(data));
+    }
+
+    @Test
+    void rejectsFramesTooShortForTheCanvas() {
+        byte[] data = ByteBuffer.allocate(ImageCodec.HEADER_LENGTH + 16)
+                .put(header(ImageCodec.KIND_FRAME, Globals.IMAGE_WIDTH, Globals.IMAGE_HEIGHT, RawCodec.ID))
+                .array();
+        assertThrows(IOException.class, () -> ImageCodec.decode(data));
+    }
+
+    private static byte[] body(int tileSize, int tileCount) {
+        return ByteBuffer.allocate(2 * Integer.BYTES).putInt(tileSize).putInt(tileCount).array();
+    }
+
+    private static byte[] tiles(byte kind, int width, int height, byte codecId, int bodyLength, byte[] body) {
+        return ByteBuffer.allocate(ImageCodec.HEADER_LENGTH + Integer.BYTES + body.length)
+                .put(header(kind, width, height, codecId))
+                .putInt(bodyLength)
+                .put(body)
+                .array();
+    }
+
+    private static byte[] header(byte kind, int width, int height, byte codecId) {
+        return ByteBuffer.allocate(ImageCodec.HEADER_LENGTH)
+                .putInt(ImageCodec.MAGIC)
+                .put(ImageCodec.VERSION)
+                .put(kind)
+                .putInt(width)
+                .putInt(height)
+                .put((byte) Globals.CANVAS_ALPHA_MODE.ordinal())
+                .put(codecId)
+                .array();
+    }
+}
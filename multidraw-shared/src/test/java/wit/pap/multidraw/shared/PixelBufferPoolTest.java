@@ -0,0 +1,49 @@
+package wit.pap.multidraw.shared;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+class PixelBufferPoolTest {
+    private static final int LENGTH = 16;
+
+    @Test
+    void foreignArraysAreNotCounted() {
+        PixelBufferPool pool = new PixelBufferPool(LENGTH, 2);
+
+        pool.release(new byte[LENGTH]);
+
+        assertEquals(0, pool.getStats().outstanding());
+        assertEquals(0, pool.getStats().pooled());
+    }
+
+    @Test
+    void doubleReleaseIsCountedOnce() {
+        PixelBufferPool pool = new PixelBufferPool(LENGTH, 2);
+        byte[] buffer = pool.acquire();
+        assertEquals(1, pool.getStats().outstanding());
+
+        pool.release(buffer);
+        pool.release(buffer);
+
+        assertEquals(0, pool.getStats().outstanding());
+        assertEquals(1, pool.getStats().pooled());
+        assertSame(buffer, pool.acquireCleared());
+        assertEquals(1, pool.getStats().outstanding());
+    }
+
+    // A buffer that is dropped instead of released stops counting once it is collected
+    @Test
+    void lostBuffersStopCounting() throws InterruptedException {
+        PixelBufferPool pool = new PixelBufferPool(LENGTH, 2);
+        pool.acquire();
+
+        for (int attempt = 0; attempt < 100 && pool.getStats().outstanding() > 0; ++attempt) {
+            System.gc();
+            Thread.sleep(10);
+        }
+
+        assertEquals(0, pool.getStats().outstanding());
+    }
+}
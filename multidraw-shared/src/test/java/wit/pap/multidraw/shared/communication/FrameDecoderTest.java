@@ -0,0 +1,59 @@
+package wit.pap.multidraw.shared.communication;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class FrameDecoderTest {
+    private static final int LARGE_PAYLOAD_LENGTH = Frames.MAX_HANDSHAKE_PAYLOAD_LENGTH + 1;
+
+    @Test
+    void rejectsLargeFramesBeforeTheHandshake() {
+        FrameDecoder decoder = new FrameDecoder(true);
+        ByteBuffer frames = encode(
+                new ClientMessage(ClientCommands.SET_NICKNAME, bytes("nick")),
+                new ClientMessage(ClientCommands.SEND_IMAGE, new byte[LARGE_PAYLOAD_LENGTH])
+        );
+
+        assertThrows(IOException.class, () -> decoder.decode(frames, frame -> { }));
+    }
+
+    @Test
+    void acceptsLargeFramesOnceTheHandshakeIsDone() throws IOException {
+        FrameDecoder decoder = new FrameDecoder(true);
+        List<Frame> decoded = new ArrayList<>();
+
+        decoder.decode(encode(
+                new ClientMessage(ClientCommands.SET_NICKNAME, bytes("nick")),
+                new ClientMessage(ClientCommands.JOIN_CREATE_ROOM, bytes("room")),
+                new ClientMessage(ClientCommands.SEND_IMAGE, new byte[LARGE_PAYLOAD_LENGTH])
+        ), decoded::add);
+
+        assertEquals(3, decoded.size());
+        assertEquals(LARGE_PAYLOAD_LENGTH, decoded.get(2).payload().length);
+    }
+
+    private static ByteBuffer encode(ClientMessage... messages) {
+        int length = 0;
+        for (ClientMessage message : messages)
+            length += Frames.HEADER_LENGTH + message.getPayload().length;
+
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        for (ClientMessage message : messages) {
+            for (ByteBuffer part : Frames.encode(message))
+                buffer.put(part);
+        }
+        return buffer.flip();
+    }
+
+    private static byte[] bytes(String text) {
+        return text.getBytes(StandardCharsets.UTF_8);
+    }
+}
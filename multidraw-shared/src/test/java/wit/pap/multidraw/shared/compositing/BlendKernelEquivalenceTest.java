@@ -0,0 +1,75 @@
+package wit.pap.multidraw.shared.compositing;
+
+import org.junit.jupiter.api.Test;
+import wit.pap.multidraw.shared.globals.Globals;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+// The vector kernel has to produce exactly the bytes of the scalar one, tails and all
+class BlendKernelEquivalenceTest {
+    // Pixel counts around and between common lane counts (4, 8 and 16 pixels per vector)
+    private static final int[] PIXEL_COUNTS = { 0, 1, 3, 5, 7, 9, 15, 17, 31, 33, 63, 65, 257, 1001 };
+    private static final int[] OFFSETS = { 0, 4, 12 };
+    private static final int ROUNDS = 20;
+
+    @Test
+    void straightAlphaMatchesScalar() {
+        compare(false);
+    }
+
+    @Test
+    void premultipliedAlphaMatchesScalar() {
+        compare(true);
+    }
+
+    private static void compare(boolean premultiplied) {
+        assumeTrue(BlendKernels.vector().isPresent(), "jdk.incubator.vector is not available");
+        BlendKernel scalar = BlendKernels.scalar(), vector = BlendKernels.vector().get();
+        Random random = new Random(premultiplied ? 2 : 1);
+
+        for (int round = 0; round < ROUNDS; ++round) {
+            for (int pixels : PIXEL_COUNTS) {
+                for (int offset : OFFSETS) {
+                    int length = pixels * Globals.BGRA_CHANNELS;
+                    byte[] src = randomPixels(random, offset + length, premultiplied);
+                    byte[] dst = randomPixels(random, offset + length, premultiplied);
+                    byte[] expected = dst.clone(), actual = dst.clone();
+
+                    if (premultiplied) {
+                        scalar.blendPremultiplied(expected, offset, src, offset, length);
+                        vector.blendPremultiplied(actual, offset, src, offset, length);
+                    } else {
+                        scalar.blendStraight(expected, offset, src, offset, length);
+                        vector.blendStraight(actual, offset, src, offset, length);
+                    }
+
+                    assertArrayEquals(expected, actual, (premultiplied ? "premultiplied" : "straight")
+                            + " blend of " + pixels + " pixels at offset " + offset + " differs");
+                }
+            }
+        }
+    }
+
+    // Transparent, opaque and translucent pixels mixed, so every branch of the kernels is taken
+    private static byte[] randomPixels(Random random, int length, boolean premultiplied) {
+        byte[] pixels = new byte[length];
+        for (int idx = 0; idx + Globals.BGRA_CHANNELS <= length; idx += Globals.BGRA_CHANNELS) {
+            int alpha = switch (random.nextInt(4)) {
+                case 0 -> Globals.MIN_PIXEL;
+                case 1 -> Globals.MAX_PIXEL;
+                default -> random.nextInt(Globals.MAX_PIXEL + 1);
+            };
+
+            for (int channel = 0; channel < 3; ++channel) {
+                // Premultiplied colour never exceeds its alpha
+                int value = premultiplied ? random.nextInt(alpha + 1) : random.nextInt(Globals.MAX_PIXEL + 1);
+                pixels[idx + channel] = (byte) value;
+            }
+            pixels[idx + 3] = (byte) alpha;
+        }
+        return pixels;
+    }
+}
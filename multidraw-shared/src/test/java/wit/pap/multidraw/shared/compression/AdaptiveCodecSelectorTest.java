@@ -0,0 +1,40 @@
+package wit.pap.multidraw.shared.compression;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class AdaptiveCodecSelectorTest {
+    private static final List<CompressionCodec> CODECS = List.of(
+            CompressionCodecs.RLE, CompressionCodecs.LZ, CompressionCodecs.DEFLATE_FAST, CompressionCodecs.DEFLATE_DEFAULT
+    );
+
+    @Test
+    void deflateVariantsHaveTheirOwnIds() {
+        Set<Byte> ids = new HashSet<>();
+        for (CompressionCodec codec: CompressionCodecs.all())
+            ids.add(codec.getId());
+
+        assertEquals(CompressionCodecs.all().size(), ids.size());
+    }
+
+    @Test
+    void comparesEveryCodecOnTheSameInput() {
+        AdaptiveCodecSelector selector = new AdaptiveCodecSelector(CODECS, 8);
+        assertTrue(selector.shouldExplore());
+
+        // Same input for all of them; only the output size differs
+        for (CompressionCodec codec: selector.getCandidates())
+            selector.record(codec, 1000, codec == CompressionCodecs.LZ ? 10 : 500, 1000);
+
+        assertFalse(selector.shouldExplore());
+        assertSame(CompressionCodecs.LZ, selector.getPreferred());
+    }
+}